@@ -1,9 +1,17 @@
 package com.fanhl.doujinMoe;
 
 import android.app.Application;
+import android.os.StrictMode;
 
+import com.fanhl.doujinMoe.api.SessionManager;
 import com.fanhl.doujinMoe.util.DownloadManager;
+import com.fanhl.doujinMoe.util.FileCacheManager;
+import com.fanhl.doujinMoe.util.ImageCacheDownloader;
 import com.fanhl.doujinMoe.util.LocalManager;
+import com.fanhl.doujinMoe.util.ResponseCache;
+import com.fanhl.doujinMoe.util.StartupTrace;
+import com.fanhl.doujinMoe.util.StorageQuotaManager;
+import com.squareup.picasso.Picasso;
 
 /**
  * Created by fanhl on 15/11/18.
@@ -15,8 +23,31 @@ public class App extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        StartupTrace.start();
+        if (BuildConfig.DEBUG) {
+            //调试时检查UI线程中的文件读写和网络访问,违规时在日志中输出调用栈
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyLog()
+                    .build());
+        }
+        //封面和缩略图走磁盘缓存,重启后不用重新下载
+        Picasso.setSingletonInstance(new Picasso.Builder(this)
+                .downloader(new ImageCacheDownloader(FileCacheManager.getInstance(this).getImageCache()))
+                .build());
+        //保存的会话在重启后继续使用
+        SessionManager.getInstance(this);
+        //列表和详细页的响应缓存在磁盘上,打开时先显示上次的内容
+        ResponseCache.getInstance(this);
+        //旧版本按书名存放的书籍目录,在后台移动到按token命名的目录
+        FileCacheManager.getInstance(this).getLibraryMigrator().start();
         localManager = LocalManager.getInstance(this);
+        //读入各书籍的占用空间,超出上限时在后台删除
+        StorageQuotaManager.getInstance(this);
         downloadManager = DownloadManager.getInstance(this,localManager);
+        StartupTrace.mark("app_created");
     }
 
     public DownloadManager getDownloadManager() {
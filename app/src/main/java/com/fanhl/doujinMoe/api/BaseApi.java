@@ -2,13 +2,18 @@ package com.fanhl.doujinMoe.api;
 
 import android.util.Log;
 
-import com.fanhl.doujinMoe.api.common.DouJinMoeUrl;
-
-import org.jsoup.Jsoup;
+import com.fanhl.doujinMoe.exception.GetDataFailException;
+import com.fanhl.doujinMoe.util.RequestScheduler;
+import com.fanhl.doujinMoe.util.ResponseCache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.util.Date;
-import java.util.Map;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by fanhl on 15/11/8.
@@ -18,31 +23,265 @@ public class BaseApi {
     public static final int    TIME_OUT         = 30 * 1000;
     public static final long   TOKEN_TIME_OUT   = 5 * 60 * 1000;
     public static final String TOKEN_KEY        = "PHPSESSID";
-    public static       String token            = null;
-    public static       Date   tokenRefreshDate = null;
+    /*会话被服务器拒绝时,更新会话后重试的次数*/
+    public static final int    AUTH_RETRY       = 1;
+
+    private static OkHttpClient httpClient;
 
     /**
-     * 服务器端token是写死的?
+     * 取得有效的会话(过期时由SessionManager更新,并发调用时只请求一次)
      *
      * @return
      * @throws IOException
      */
     public static String token() throws IOException {
-//        return "mm1qk0kqrf6hs6r82dbkli6fb4";
-        if (token == null || isTokenTimeOut()) {
-            Map<String, String> cookies = Jsoup.connect(DouJinMoeUrl.HOME).timeout(TIME_OUT).execute().cookies();
-            Log.d(TAG, "Cookies:" + cookies);
-            token = cookies.get(TOKEN_KEY);
+        return SessionManager.getInstance().token();
+    }
+
+    /**
+     * 服务器拒绝了请求时使用的会话,下次调用token()时更新
+     *
+     * @param token
+     */
+    protected static void invalidateToken(String token) {
+        SessionManager.getInstance().invalidate(token);
+    }
+
+    /**
+     * 共用的OkHttpClient(连接池共用)
+     *
+     * @return
+     */
+    protected static synchronized OkHttpClient httpClient() {
+        if (httpClient == null) {
+            httpClient = new OkHttpClient();
+            httpClient.setConnectTimeout(TIME_OUT, TimeUnit.MILLISECONDS);
+            httpClient.setReadTimeout(TIME_OUT, TimeUnit.MILLISECONDS);
         }
-        tokenRefreshDate = new Date();
-        return token;
+        return httpClient;
     }
 
-    private static boolean isTokenTimeOut() {
-        return tokenRefreshDate == null || tokenRefreshDate.getTime() + TOKEN_TIME_OUT < new Date().getTime();
+    /**
+     * 缓存的响应(不论是否过期),没有时返回null
+     *
+     * @param cacheKey
+     * @param ttl      有效时间
+     * @param request
+     * @return
+     */
+    protected static <T> Cached<T> cached(String cacheKey, long ttl, SessionRequest<T> request) {
+        ResponseCache.Entry entry = ResponseCache.getInstance().get(cacheKey);
+        if (entry == null) return null;
+        try {
+            T value = request.parse(entry.body);
+            if (value != null) return new Cached<>(value, entry.isFresh(ttl));
+        } catch (IOException | GetDataFailException e) {
+            Log.d(TAG, "解析缓存失败:" + cacheKey);
+        }
+        ResponseCache.getInstance().remove(cacheKey);
+        return null;
+    }
+
+    /**
+     * 缓存的响应是否还在有效时间内(不解析响应体)
+     *
+     * @param cacheKey
+     * @param ttl
+     * @return
+     */
+    protected static boolean isFresh(String cacheKey, long ttl) {
+        ResponseCache.Entry entry = ResponseCache.getInstance().get(cacheKey);
+        return entry != null && entry.isFresh(ttl);
+    }
+
+    /**
+     * 取消带有tag的请求(进行中的请求抛出IOException)
+     *
+     * @param tag
+     */
+    public static void cancel(Object tag) {
+        httpClient().cancel(tag);
+    }
+
+    /**
+     * 发送请求并更新缓存.有缓存时带上If-None-Match/If-Modified-Since,
+     * 会话被拒绝(401,403或parse返回null)时更新会话后重试
+     *
+     * @param cacheKey
+     * @param request
+     * @return 新的内容,与缓存相同(304或响应体一致)时返回null
+     * @throws IOException
+     * @throws GetDataFailException
+     */
+    protected static <T> T fetch(String cacheKey, SessionRequest<T> request) throws IOException, GetDataFailException {
+        return fetch(cacheKey, request, RequestScheduler.Priority.VISIBLE);
+    }
+
+    /**
+     * 同fetch(cacheKey, request),指定请求的优先级
+     *
+     * @param cacheKey
+     * @param request
+     * @param priority
+     * @return 新的内容,与缓存相同(304或响应体一致)时返回null
+     * @throws IOException
+     * @throws GetDataFailException
+     */
+    protected static <T> T fetch(String cacheKey, SessionRequest<T> request, RequestScheduler.Priority priority) throws IOException, GetDataFailException {
+        ResponseCache cache = ResponseCache.getInstance();
+        //304时缓存已被删除的话,不带条件重新请求
+        boolean conditional = true;
+        for (int attempt = 0; ; ) {
+            String              token   = token();
+            ResponseCache.Entry cached  = conditional ? cache.get(cacheKey) : null;
+            Request.Builder     builder = request.create(token);
+            if (cached != null && cached.etag != null) builder.header("If-None-Match", cached.etag);
+            if (cached != null && cached.lastModified != null) builder.header("If-Modified-Since", cached.lastModified);
+
+            //读完响应体后才释放许可
+            Request                 httpRequest = builder.build();
+            RequestScheduler.Permit permit      = RequestScheduler.getInstance().acquire(priority, httpRequest.urlString());
+            Response                response;
+            T                       value       = null;
+            byte[]                  body        = null;
+            try {
+                response = httpClient().newCall(httpRequest).execute();
+                if (response.code() == 304) {
+                    response.body().close();
+                    if (cached != null && cache.touch(cacheKey, System.currentTimeMillis())) return null;
+                    if (!conditional) throw new GetDataFailException("请求失败:304 " + cacheKey);
+                    Log.d(TAG, "没有可用的缓存,重新请求:" + cacheKey);
+                    conditional = false;
+                    continue;
+                }
+
+                if (response.code() != 401 && response.code() != 403) {
+                    if (!response.isSuccessful()) {
+                        response.body().close();
+                        throw new GetDataFailException("请求失败:" + response.code() + " " + cacheKey);
+                    }
+                    if (request instanceof StreamingSessionRequest) {
+                        //边接收边解析,同时记下响应体用于缓存
+                        RecordingInputStream in = new RecordingInputStream(response.body().byteStream(), response.body().contentLength());
+                        try {
+                            value = ((StreamingSessionRequest<T>) request).parse(in);
+                            body = in.readAll();
+                        } finally {
+                            response.body().close();
+                        }
+                    } else {
+                        body = response.body().bytes();
+                        value = request.parse(body);
+                    }
+                } else {
+                    response.body().close();
+                }
+            } finally {
+                permit.release();
+            }
+            if (value == null) {
+                invalidateToken(token);
+                if (attempt++ >= AUTH_RETRY) throw new GetDataFailException("会话被拒绝:" + cacheKey);
+                continue;
+            }
+
+            ResponseCache.Entry entry = new ResponseCache.Entry(body, response.header("ETag"), response.header("Last-Modified"), System.currentTimeMillis());
+            return cache.put(cacheKey, entry) ? value : null;
+        }
     }
 
     public static String header() {
         return null;
     }
+
+    /**
+     * 带会话的请求
+     */
+    protected interface SessionRequest<T> {
+        Request.Builder create(String token);
+
+        /**
+         * @param body 响应体
+         * @return 会话已失效(返回的是登录页等)时返回null
+         */
+        T parse(byte[] body) throws IOException, GetDataFailException;
+    }
+
+    /**
+     * 可以边接收边解析的请求,从服务器取得时调用parse(InputStream),读取缓存时仍调用parse(byte[])
+     */
+    protected interface StreamingSessionRequest<T> extends SessionRequest<T> {
+        /**
+         * @param body 响应体(不需要关闭,没读完的部分由调用方读取)
+         * @return 会话已失效时返回null
+         */
+        T parse(InputStream body) throws IOException, GetDataFailException;
+    }
+
+    /**
+     * 记录读过的内容
+     */
+    private static class RecordingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream recorded;
+
+        RecordingInputStream(InputStream in, long contentLength) {
+            super(in);
+            recorded = new ByteArrayOutputStream(contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : 8192);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) recorded.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) recorded.write(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int    read    = read(skipped, 0, skipped.length);
+            return read < 0 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * 读完剩下的部分
+         *
+         * @return 整个响应体
+         * @throws IOException
+         */
+        byte[] readAll() throws IOException {
+            byte[] rest = new byte[8192];
+            int    n;
+            do {
+                n = read(rest, 0, rest.length);
+            } while (n != -1);
+            return recorded.toByteArray();
+        }
+    }
+
+    /**
+     * 缓存的内容
+     */
+    public static class Cached<T> {
+        public final T       value;
+        /*还在有效时间内,不需要更新*/
+        public final boolean fresh;
+
+        public Cached(T value, boolean fresh) {
+            this.value = value;
+            this.fresh = fresh;
+        }
+    }
 }
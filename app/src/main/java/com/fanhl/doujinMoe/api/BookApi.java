@@ -7,7 +7,9 @@ import android.util.Log;
 
 import com.fanhl.doujinMoe.exception.GetBookFailException;
 import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.util.BookStore;
 import com.fanhl.doujinMoe.util.FileCacheManager;
+import com.fanhl.doujinMoe.util.LocalManager;
 
 import java.io.File;
 import java.util.List;
@@ -31,7 +33,10 @@ public class BookApi extends BaseApi {
     public static boolean saveBookJson(Context context, Book book) {
         Log.d(TAG, "保存书籍Json:" + book.name);
         FileCacheManager m = FileCacheManager.getInstance(context);
-        return m.saveBookJson(book);
+        if (!m.saveBookJson(book)) return false;
+        BookStore.getInstance(context).evict(book.token);
+        LocalManager.getInstance(context).notifyBookChanged(book.token);
+        return true;
     }
 
     public static List<Book> getLocalBooks(Context context) throws GetBookFailException {
@@ -40,4 +45,11 @@ public class BookApi extends BaseApi {
         FileCacheManager m = FileCacheManager.getInstance(context);
         return m.getLocalBooks();
     }
+
+    public static Book getLocalBook(Context context, String token) {
+        Log.d(TAG, "取得本地的书籍:" + token);
+
+        FileCacheManager m = FileCacheManager.getInstance(context);
+        return m.getLocalBook(token);
+    }
 }
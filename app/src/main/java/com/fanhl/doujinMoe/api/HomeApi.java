@@ -6,15 +6,15 @@ import com.fanhl.doujinMoe.api.common.DouJinMoeUrl;
 import com.fanhl.doujinMoe.api.form.NewestForm;
 import com.fanhl.doujinMoe.exception.GetDataFailException;
 import com.fanhl.doujinMoe.model.Book;
-import com.fanhl.doujinMoe.model.Page;
+import com.fanhl.doujinMoe.util.DjmExtractor;
 import com.fanhl.util.GsonUtil;
+import com.squareup.okhttp.FormEncodingBuilder;
+import com.squareup.okhttp.Request;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,49 +24,148 @@ import java.util.List;
 public class HomeApi extends BaseApi {
     public static final String TAG = HomeApi.class.getSimpleName();
 
+    /*最新书籍列表的缓存有效时间*/
+    public static final long NEWEST_TTL = 5 * 60 * 1000;
+    /*排行榜的缓存有效时间*/
+    public static final long BEST_TTL   = 30 * 60 * 1000;
+
+    /**
+     * 缓存的最新书籍,没有时返回null
+     *
+     * @param pageIndex
+     * @return
+     */
+    public static Cached<NewestForm> cachedNewest(int pageIndex) {
+        return cached(newestKey(pageIndex), NEWEST_TTL, newestRequest(pageIndex));
+    }
+
+    /**
+     * 从服务器取得最新书籍
+     *
+     * @param pageIndex
+     * @return 与缓存相同时返回null
+     * @throws IOException
+     * @throws GetDataFailException
+     */
     public static NewestForm newest(int pageIndex) throws IOException, GetDataFailException {
         Log.d(TAG, "取得最新书籍.");
-        String token = token();
-        String result = Jsoup.connect(DouJinMoeUrl.NEWEST)
-                .cookie(TOKEN_KEY, token)
-                .data("get", String.valueOf(pageIndex))
-                .timeout(TIME_OUT)
-                .post().text();
-        Log.d(TAG, "取得最新书箱的Json:" + result);
-        NewestForm newestForm = GsonUtil.obj(result, NewestForm.class);
-
-        if (newestForm == null || !newestForm.success || newestForm.newest == null) {
-            throw new GetDataFailException("取得 最新书籍 的数据失败.");
-        }
+        return fetch(newestKey(pageIndex), newestRequest(pageIndex));
+    }
+
+    private static String newestKey(int pageIndex) {
+        return DouJinMoeUrl.newest() + "?get=" + pageIndex;
+    }
+
+    private static StreamingSessionRequest<NewestForm> newestRequest(int pageIndex) {
+        return new StreamingSessionRequest<NewestForm>() {
+            @Override
+            public Request.Builder create(String token) {
+                return new Request.Builder()
+                        .url(DouJinMoeUrl.newest())
+                        .header("Cookie", TOKEN_KEY + "=" + token)
+                        .post(new FormEncodingBuilder().add("get", String.valueOf(pageIndex)).build());
+            }
+
+            @Override
+            public NewestForm parse(byte[] body) throws IOException, GetDataFailException {
+                return parse(new ByteArrayInputStream(body));
+            }
+
+            @Override
+            public NewestForm parse(InputStream body) throws IOException, GetDataFailException {
+                //不先转成String,直接从字节流解析(body由调用方关闭)
+                NewestForm newestForm = GsonUtil.obj(new InputStreamReader(body, "UTF-8"), NewestForm.class);
 
-        return newestForm;
+                //会话失效时服务器返回success=false
+                if (newestForm != null && !newestForm.success) return null;
+                if (newestForm == null || newestForm.newest == null) {
+                    throw new GetDataFailException("取得 最新书籍 的数据失败.");
+                }
+                return newestForm;
+            }
+        };
     }
 
+    /**
+     * 缓存的排行榜,没有时返回null
+     *
+     * @param pageIndex
+     * @return
+     */
+    public static Cached<List<Book>> cachedBest(int pageIndex) {
+        return cached(bestKey(pageIndex), BEST_TTL, bestRequest(pageIndex));
+    }
+
+    /**
+     * 从服务器取得排行榜
+     *
+     * @param pageIndex
+     * @return 与缓存相同时返回null
+     * @throws IOException
+     * @throws GetDataFailException
+     */
     public static List<Book> best(int pageIndex) throws IOException, GetDataFailException {
-        Log.d(TAG, "取得最新书籍.");
-        String token = token();
-        Document document = Jsoup.connect(DouJinMoeUrl.BEST)
-                .cookie(TOKEN_KEY, token)
-                .data("page", String.valueOf(pageIndex))
-                .data("sort", "year")// FIXME: 15/11/10 之后再改
-                .timeout(TIME_OUT)
-                .post();
+        Log.d(TAG, "取得排行榜.");
+        return fetch(bestKey(pageIndex), bestRequest(pageIndex));
+    }
+
+    private static String bestKey(int pageIndex) {
+        return DouJinMoeUrl.best() + "?page=" + pageIndex;
+    }
 
-        if (document == null) throw new GetDataFailException("取不到排行榜的数据");
+    private static StreamingSessionRequest<List<Book>> bestRequest(int pageIndex) {
+        return new StreamingSessionRequest<List<Book>>() {
+            @Override
+            public Request.Builder create(String token) {
+                return new Request.Builder()
+                        .url(DouJinMoeUrl.best())
+                        .header("Cookie", TOKEN_KEY + "=" + token)
+                        .post(new FormEncodingBuilder()
+                                .add("page", String.valueOf(pageIndex))
+                                .add("sort", "year")// FIXME: 15/11/10 之后再改
+                                .build());
+            }
 
-        List<Book> books = new ArrayList<>();
+            @Override
+            public List<Book> parse(byte[] body) throws IOException {
+                return parse(new ByteArrayInputStream(body));
+            }
 
-        Element  dircontent = document.getElementById("dircontent");
-        Elements djms       = dircontent.select("djm");
+            @Override
+            public List<Book> parse(InputStream body) throws IOException {
+                List<Book> books = new ArrayList<>();
 
-        for (Element djm : djms) {
-            Page page = new Page();
-            page.preview = djm.attr("thumb");
-            page.href = djm.attr("file");
+                //file是详细页地址(最后一段为token),thumb是封面(与previewUrl(token)相同,列表中由token生成)
+                int count = DjmExtractor.extract(new InputStreamReader(body, "UTF-8"), "dircontent", (thumb, file) -> {
+                    String token = tokenOf(file);
+                    if (token.isEmpty()) return;
 
-            Log.d(TAG, page.toString());
-        }
+                    //排行榜的djm标签中没有书名,为null;打开详细页取得page列表后由PageApi.cachedTitle补上
+                    Book book = new Book();
+                    book.token = token;
+                    books.add(book);
+                });
+                //会话失效时返回的页面中没有排行榜
+                if (count < 0) return null;
 
-        return books;
+                return books;
+            }
+        };
+    }
+
+    /**
+     * 详细页地址中的token(最后一段路径)
+     *
+     * @param detailUrl
+     * @return 取不到时返回""
+     */
+    static String tokenOf(String detailUrl) {
+        int end = detailUrl.length();
+        int query = detailUrl.indexOf('?');
+        if (query >= 0) end = query;
+        while (end > 0 && detailUrl.charAt(end - 1) == '/') {
+            end--;
+        }
+        return detailUrl.substring(detailUrl.lastIndexOf('/', end - 1) + 1, end);
     }
 }
@@ -8,22 +8,23 @@ import com.fanhl.doujinMoe.api.common.DouJinMoeUrl;
 import com.fanhl.doujinMoe.exception.GetDataFailException;
 import com.fanhl.doujinMoe.model.Book;
 import com.fanhl.doujinMoe.model.Page;
+import com.fanhl.doujinMoe.util.CompactPageList;
+import com.fanhl.doujinMoe.util.DjmExtractor;
 import com.fanhl.doujinMoe.util.FileCacheManager;
-import com.fanhl.doujinMoe.util.NumberUtil;
-import com.squareup.okhttp.OkHttpClient;
+import com.fanhl.doujinMoe.util.PageDownloader;
+import com.fanhl.doujinMoe.util.PageNameUtil;
+import com.fanhl.doujinMoe.util.RequestScheduler;
+import com.fanhl.doujinMoe.util.StorageQuotaManager;
+import com.squareup.okhttp.FormEncodingBuilder;
 import com.squareup.okhttp.Request;
-import com.squareup.okhttp.Response;
-
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-
-import okio.BufferedSink;
-import okio.Okio;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by fanhl on 15/11/8.
@@ -31,30 +32,144 @@ import okio.Okio;
 public class PageApi extends BaseApi {
     private static final String TAG = PageApi.class.getSimpleName();
 
-    public static Void pages(Book book) throws GetDataFailException, IOException {
+    /*书籍page列表的缓存有效时间(书籍发布后基本不变)*/
+    public static final long PAGES_TTL = 24 * 60 * 60 * 1000;
+
+    /*详细页title末尾的网站名*/
+    private static final String TITLE_SUFFIX = " - Doujin Moe";
+
+    /**
+     * 缓存的page列表,没有时返回null
+     *
+     * @param token 书籍token
+     * @return
+     */
+    public static Cached<List<Page>> cachedPages(String token) {
+        return cached(DouJinMoeUrl.detailUrl(token), PAGES_TTL, pagesRequest(token, null, null));
+    }
+
+    /**
+     * 缓存的详细页中的书名(排行榜中没有书名,取得page列表后从这里补上)
+     *
+     * @param token 书籍token
+     * @return 没有缓存或页面中没有书名时返回null
+     */
+    public static String cachedTitle(String token) {
+        Cached<String> cached = cached(DouJinMoeUrl.detailUrl(token), PAGES_TTL, new SessionRequest<String>() {
+            @Override
+            public Request.Builder create(String sessionToken) {
+                return pagesRequest(token, null, null).create(sessionToken);
+            }
+
+            @Override
+            public String parse(byte[] body) throws IOException {
+                //没有书名时返回"",返回null会被当作缓存无效而删除
+                String title = parseTitle(new ByteArrayInputStream(body));
+                return title == null ? "" : title;
+            }
+        });
+        return cached == null || cached.value.isEmpty() ? null : cached.value;
+    }
+
+    /**
+     * 从服务器取得书籍的page列表
+     *
+     * @param token 书籍token
+     * @return 与缓存相同时返回null
+     * @throws GetDataFailException
+     * @throws IOException
+     */
+    public static List<Page> pages(String token) throws GetDataFailException, IOException {
+        return pages(token, null);
+    }
+
+    /**
+     * 从服务器取得书籍的page列表,响应还没读完时每解析出一个page就通知listener(在调用的线程中)
+     *
+     * @param token    书籍token
+     * @param listener 可以为null
+     * @return 与缓存相同时返回null
+     * @throws GetDataFailException
+     * @throws IOException
+     */
+    public static List<Page> pages(String token, OnPageListener listener) throws GetDataFailException, IOException {
         Log.d(TAG, "取得书籍详细内容.");
-        String token = /*"mm1qk0kqrf6hs6r82dbkli6fb4";//*/ token();
-        Document document = Jsoup.connect(DouJinMoeUrl.detailUrl(book.token))
-                .cookie(TOKEN_KEY, token)
-                .data("action", "get")
-                .timeout(TIME_OUT)
-                .post();
+        return fetch(DouJinMoeUrl.detailUrl(token), pagesRequest(token, listener, null));
+    }
 
-        if (document == null) throw new GetDataFailException("取不到书籍详细页面的数据");
+    /**
+     * 预先取得page列表放入缓存,打开详细页时可以直接显示.缓存未过期时不访问服务器
+     *
+     * @param token 书籍token
+     * @param tag   用于cancel
+     * @return 是否访问了服务器
+     * @throws GetDataFailException
+     * @throws IOException
+     */
+    public static boolean prefetchPages(String token, Object tag) throws GetDataFailException, IOException {
+        if (isFresh(DouJinMoeUrl.detailUrl(token), PAGES_TTL)) return false;
+        fetch(DouJinMoeUrl.detailUrl(token), pagesRequest(token, null, tag), RequestScheduler.Priority.PREFETCH);
+        return true;
+    }
 
-        Element  foldercontent = document.getElementById("foldercontent");
-        Elements djms          = foldercontent.select("djm");
+    private static StreamingSessionRequest<List<Page>> pagesRequest(String token, OnPageListener listener, Object tag) {
+        String url = DouJinMoeUrl.detailUrl(token);
+        return new StreamingSessionRequest<List<Page>>() {
+            @Override
+            public Request.Builder create(String sessionToken) {
+                return new Request.Builder()
+                        .url(url)
+                        .tag(tag)
+                        .header("Cookie", TOKEN_KEY + "=" + sessionToken)
+                        .post(new FormEncodingBuilder().add("action", "get").build());
+            }
 
-        for (Element djm : djms) {
-            Page page = new Page();
-            page.preview = djm.attr("thumb");
-            page.href = djm.attr("file");
+            @Override
+            public List<Page> parse(byte[] body) throws IOException {
+                return parsePages(new ByteArrayInputStream(body), null);
+            }
 
-            Log.d(TAG, page.toString());
-            book.pages.add(page);
-        }
+            @Override
+            public List<Page> parse(InputStream body) throws IOException {
+                return parsePages(body, listener);
+            }
+        };
+    }
 
-        return null;
+    /**
+     * 从详细页中取出page列表(#foldercontent中的djm标签)
+     *
+     * @param body
+     * @param listener 可以为null
+     * @return 会话失效时返回的页面中没有书籍内容, 返回null
+     * @throws IOException
+     */
+    static List<Page> parsePages(InputStream body, OnPageListener listener) throws IOException {
+        List<Page> pages = new ArrayList<>();
+        int count = DjmExtractor.extract(new InputStreamReader(body, "UTF-8"), "foldercontent", (thumb, file) -> {
+            Page page = new Page();
+            page.preview = thumb;
+            page.href = file;
+            if (listener != null) listener.onPage(pages.size(), page);
+            pages.add(page);
+        });
+        if (count < 0) return null;
+        Log.d(TAG, "page数:" + count);
+        return pages;
+    }
+
+    /**
+     * 详细页&lt;title&gt;中的书名,去掉末尾的网站名
+     *
+     * @param body
+     * @return 没有时返回null
+     * @throws IOException
+     */
+    static String parseTitle(InputStream body) throws IOException {
+        String title = DjmExtractor.extractTitle(new InputStreamReader(body, "UTF-8"));
+        if (title == null) return null;
+        if (title.endsWith(TITLE_SUFFIX)) title = title.substring(0, title.length() - TITLE_SUFFIX.length()).trim();
+        return title.isEmpty() ? null : title;
     }
 
     public static boolean isCached(Context context, String url) {
@@ -69,6 +184,10 @@ public class PageApi extends BaseApi {
         return FileCacheManager.getInstance(context).isPageDownloaded(book, index);
     }
 
+    public static int getDownloadedPageCount(Context context, Book book) {
+        return FileCacheManager.getInstance(context).getDownloadedPageCount(book);
+    }
+
     public static boolean downloadPage(Context context, Book book, int index) {
         FileCacheManager m = FileCacheManager.getInstance(context);
 
@@ -76,32 +195,12 @@ public class PageApi extends BaseApi {
 
         if (pageFile == null) return false;
 
-        Page page = book.pages.get(index);
-
-        //download file
-        OkHttpClient client  = new OkHttpClient();
-        Request      request = new Request.Builder().url(page.href).build();
-        Response     response;
-        BufferedSink sink    = null;
-        try {
-            response = client.newCall(request).execute();
-            sink = Okio.buffer(Okio.sink(pageFile));
-            sink.writeAll(response.body().source());
-            Log.d(TAG, "第 " + (index + 1) + "/" + book.pages.size() + " 张图片下载完成.");
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (sink != null) {
-                try {
-                    sink.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        if (!PageDownloader.download(CompactPageList.href(book.pages, index), pageFile)) return false;
 
-        return false;
+        m.markPageDownloaded(book, index);
+        StorageQuotaManager.getInstance(context).onPageWritten(book.token, pageFile.length());
+        Log.d(TAG, "第 " + (index + 1) + "/" + book.pages.size() + " 张图片下载完成.");
+        return true;
     }
 
     public static File getPageFile(Context context, Book book, int index) {
@@ -119,7 +218,7 @@ public class PageApi extends BaseApi {
      * @param index
      */
     public static String getPageName(Book book, int index) {
-        return NumberUtil.formatPrefix(index) + "." + getExtension(book.pages.get(index));
+        return PageNameUtil.getPageName(book, index);
     }
 
     /**
@@ -129,12 +228,14 @@ public class PageApi extends BaseApi {
      * @return
      */
     public static String getExtension(Page page) {
-        if (page == null || page.preview == null) return "";// FIXME: 15/11/20 preview 和 href 的文件 扩展名是一致的么???
-
-        String[] parts = page.preview.split("\\.");
-
-        if (parts.length < 2) return "";
+        return PageNameUtil.getExtension(page);
+    }
 
-        return parts[parts.length - 1];
+    public interface OnPageListener {
+        /**
+         * @param index 第几个page
+         * @param page
+         */
+        void onPage(int index, Page page);
     }
 }
@@ -0,0 +1,238 @@
+package com.fanhl.doujinMoe.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.fanhl.doujinMoe.api.common.DouJinMoeUrl;
+import com.fanhl.doujinMoe.util.FileUtil;
+import com.fanhl.doujinMoe.util.RequestScheduler;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 网站会话(PHPSESSID)的管理
+ * <p>
+ * 同一时间只有一个线程去取新的会话,其它线程等待它的结果,并发的请求不会一起去访问首页.
+ * 会话从取得时起 TOKEN_TIME_OUT 后过期,快过期时先返回当前的会话,同时在后台提前更新;
+ * 服务器拒绝时由调用方invalidate,下次取得时更新.
+ * 取得的cookie保存在filesDir/session中,重启后未过期的会话可以继续使用.
+ */
+public class SessionManager {
+    public static final String TAG = SessionManager.class.getSimpleName();
+
+    public static final String SESSION_FILENAME = "session";
+
+    /*距过期不到这个时间时在后台提前更新*/
+    static final long REFRESH_AHEAD = 60 * 1000;
+
+    private static SessionManager mInstance;
+
+    /*为null时只保存在内存中*/
+    private final File          cookieFile;
+    private final Object        refreshLock = new Object();
+    /*后台提前更新中*/
+    private final AtomicBoolean refreshing  = new AtomicBoolean();
+
+    /*cookie名 -> 值*/
+    private final Map<String, String> cookies = new LinkedHashMap<>();
+
+    private volatile String  token;
+    /*取得会话的时间(System.currentTimeMillis(),重启后也有效)*/
+    private volatile long    fetchedAt;
+    private volatile boolean loaded;
+
+    public static synchronized SessionManager getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new SessionManager(new File(context.getFilesDir(), SESSION_FILENAME));
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * 还没有用Context初始化时,会话只保存在内存中
+     *
+     * @return
+     */
+    static synchronized SessionManager getInstance() {
+        if (mInstance == null) {
+            mInstance = new SessionManager(null);
+        }
+
+        return mInstance;
+    }
+
+    SessionManager(File cookieFile) {
+        this.cookieFile = cookieFile;
+    }
+
+    /**
+     * 取得有效的会话,过期时更新(会访问网络,不能在UI线程中调用)
+     *
+     * @return
+     * @throws IOException
+     */
+    public String token() throws IOException {
+        String current = validToken();
+        if (current != null) {
+            if (age() > BaseApi.TOKEN_TIME_OUT - REFRESH_AHEAD) refreshInBackground();
+            return current;
+        }
+
+        synchronized (refreshLock) {
+            //等待期间其它线程可能已经更新
+            current = validToken();
+            if (current != null) return current;
+            return refresh();
+        }
+    }
+
+    /**
+     * 服务器拒绝了会话(已失效),下次取得时更新.
+     * 只有失效的会话仍是当前会话时才清除,避免并发失败的请求把刚取得的新会话也清掉
+     *
+     * @param staleToken 请求时使用的会话
+     */
+    public void invalidate(String staleToken) {
+        synchronized (refreshLock) {
+            if (staleToken == null || !staleToken.equals(token)) return;
+            Log.d(TAG, "会话已失效:" + staleToken);
+            token = null;
+            fetchedAt = 0;
+        }
+    }
+
+    private String validToken() {
+        if (!loaded) {
+            synchronized (refreshLock) {
+                if (!loaded) load();
+            }
+        }
+        String current = token;
+        return current != null && age() < BaseApi.TOKEN_TIME_OUT ? current : null;
+    }
+
+    private long age() {
+        long age = System.currentTimeMillis() - fetchedAt;
+        //系统时间被调回时视为过期
+        return age < 0 ? Long.MAX_VALUE : age;
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) return;
+        Thread thread = new Thread(() -> {
+            try {
+                synchronized (refreshLock) {
+                    //前台已经更新过
+                    if (age() <= BaseApi.TOKEN_TIME_OUT - REFRESH_AHEAD) return;
+                    refresh();
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "提前更新会话失败.");
+            } finally {
+                refreshing.set(false);
+            }
+        }, "SessionThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 只请求首页的响应头,从Set-Cookie中取得会话(HEAD取不到时再GET,但不读取页面内容).
+     * 调用时需持有refreshLock
+     *
+     * @return
+     * @throws IOException
+     */
+    private String refresh() throws IOException {
+        Log.d(TAG, "取得新的会话.");
+        cookies.remove(BaseApi.TOKEN_KEY);
+        int code = fetchCookies(new Request.Builder().url(DouJinMoeUrl.home()).head().build());
+        if (!cookies.containsKey(BaseApi.TOKEN_KEY)) {
+            code = fetchCookies(new Request.Builder().url(DouJinMoeUrl.home()).build());
+        }
+
+        String newToken = cookies.get(BaseApi.TOKEN_KEY);
+        if (newToken == null) throw new IOException("取不到会话:" + code);
+
+        token = newToken;
+        fetchedAt = System.currentTimeMillis();
+        save();
+        return newToken;
+    }
+
+    private int fetchCookies(Request request) throws IOException {
+        //其它请求都在等会话,与屏幕上的请求同等优先
+        RequestScheduler.Permit permit = RequestScheduler.getInstance().acquire(RequestScheduler.Priority.VISIBLE, request.urlString());
+        Response                response = null;
+        try {
+            response = BaseApi.httpClient().newCall(request).execute();
+            //重定向前的响应也可能设置cookie
+            for (Response r = response; r != null; r = r.priorResponse()) {
+                for (String header : r.headers("Set-Cookie")) {
+                    parseCookie(header);
+                }
+            }
+            return response.code();
+        } finally {
+            if (response != null) response.body().close();
+            permit.release();
+        }
+    }
+
+    /**
+     * 只取 名字=值 部分,path,expires等属性不用
+     *
+     * @param header
+     */
+    private void parseCookie(String header) {
+        int    end   = header.indexOf(';');
+        String pair  = end < 0 ? header : header.substring(0, end);
+        int    equal = pair.indexOf('=');
+        if (equal <= 0) return;
+        cookies.put(pair.substring(0, equal).trim(), pair.substring(equal + 1).trim());
+    }
+
+    /**
+     * 文件格式:第一行为取得会话的时间,之后每行 名字\t值
+     */
+    private void load() {
+        String text = cookieFile == null ? null : FileUtil.readFile(cookieFile);
+        loaded = true;
+        if (text == null) return;
+
+        String[] lines = text.split("\n");
+        try {
+            fetchedAt = Long.parseLong(lines[0].trim());
+        } catch (NumberFormatException e) {
+            Log.d(TAG, "读取会话失败.");
+            return;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int tab = lines[i].indexOf('\t');
+            if (tab > 0) cookies.put(lines[i].substring(0, tab), lines[i].substring(tab + 1));
+        }
+        token = cookies.get(BaseApi.TOKEN_KEY);
+        Log.d(TAG, "读入保存的会话:" + token);
+    }
+
+    private void save() {
+        if (cookieFile == null) return;
+        StringBuilder sb = new StringBuilder();
+        sb.append(fetchedAt).append('\n');
+        for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+            sb.append(cookie.getKey()).append('\t').append(cookie.getValue()).append('\n');
+        }
+        try {
+            if (!FileUtil.writeFileAtomic(cookieFile, sb.toString().getBytes("UTF-8"))) Log.d(TAG, "保存会话失败.");
+        } catch (IOException e) {
+            Log.d(TAG, "保存会话失败.");
+        }
+    }
+}
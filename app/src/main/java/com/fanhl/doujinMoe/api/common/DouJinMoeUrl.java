@@ -4,15 +4,64 @@ package com.fanhl.doujinMoe.api.common;
  * Created by fanhl on 15/11/8.
  */
 public class DouJinMoeUrl {
-    public static final String HOME   = "http://www.doujinmoe.us/";
-    public static final String NEWEST = HOME + "ajax/newest.php";
-    public static final String BEST   = HOME + "best";
+    public static final String DEFAULT_HOME   = "http://www.doujinmoe.us/";
+    public static final String DEFAULT_STATIC = "http://static.doujin-moe.us/";
+
+    /*测试和基准测试时换成本地的替身服务器(setBaseUrls)*/
+    private static volatile String home       = DEFAULT_HOME;
+    private static volatile String staticBase = DEFAULT_STATIC;
+
+    /**
+     * 替换网站和图片服务器的地址
+     *
+     * @param homeUrl   以/结尾
+     * @param staticUrl 以/结尾
+     */
+    public static void setBaseUrls(String homeUrl, String staticUrl) {
+        home = homeUrl;
+        staticBase = staticUrl;
+    }
+
+    public static String home() {
+        return home;
+    }
+
+    public static String newest() {
+        return home + "ajax/newest.php";
+    }
+
+    public static String best() {
+        return home + "best";
+    }
+
+    public static String staticBase() {
+        return staticBase;
+    }
 
     public static String previewUrl(String token) {
-        return "http://static.doujin-moe.us/f-" + token + ".jpg";
+        return coverPrefix() + token + ".jpg";
+    }
+
+    /**
+     * 是否放入磁盘图片缓存(只缓存封面和缩略图,page原图太大不缓存)
+     *
+     * @param url
+     * @return
+     */
+    public static boolean isCacheableImage(String url) {
+        return url != null && (url.startsWith(coverPrefix()) || url.startsWith(thumbnailPrefix()));
     }
 
     public static String detailUrl(String token) {
-        return HOME + token;
+        return home + token;
+    }
+
+    /*封面(f-)与page缩略图(t-)的文件名前缀*/
+    private static String coverPrefix() {
+        return staticBase + "f-";
+    }
+
+    private static String thumbnailPrefix() {
+        return staticBase + "t-";
     }
 }
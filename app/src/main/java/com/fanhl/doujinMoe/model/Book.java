@@ -1,6 +1,7 @@
 package com.fanhl.doujinMoe.model;
 
-import java.util.ArrayList;
+import com.fanhl.doujinMoe.util.CompactPageList;
+
 import java.util.Date;
 import java.util.List;
 
@@ -28,7 +29,7 @@ public class Book {
     public int downloadedPosition = -1;
 
     public Book() {
-        pages = new ArrayList<>();
+        pages = new CompactPageList();
     }
 
     @Override
@@ -48,6 +49,16 @@ public class Book {
         return status == Status.WAIT_DOWNLOAD;
     }
 
+    /**
+     * 是否同一本书(按token比较,排行榜中的书籍在打开详细页前没有书名)
+     *
+     * @param other
+     * @return
+     */
+    public boolean isSameToken(Book other) {
+        return other != null && token != null && token.equals(other.token);
+    }
+
     public enum Status {
         NONE, WAIT_DOWNLOAD, DOWNLOADING, DOWNLOADED
     }
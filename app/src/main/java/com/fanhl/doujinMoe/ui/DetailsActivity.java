@@ -18,21 +18,26 @@ import android.view.MenuItem;
 import android.widget.ImageView;
 
 import com.fanhl.doujinMoe.R;
-import com.fanhl.doujinMoe.api.BookApi;
 import com.fanhl.doujinMoe.api.PageApi;
 import com.fanhl.doujinMoe.api.common.DouJinMoeUrl;
 import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
 import com.fanhl.doujinMoe.ui.adapter.PageListRecyclerAdapter;
 import com.fanhl.doujinMoe.ui.common.AbsActivity;
+import com.fanhl.doujinMoe.util.BookStore;
+import com.fanhl.doujinMoe.util.CacheThenNetwork;
+import com.fanhl.doujinMoe.util.StorageQuotaManager;
+import com.fanhl.doujinMoe.util.ThumbnailAtlas;
 import com.fanhl.util.GsonUtil;
 import com.google.gson.Gson;
 import com.squareup.picasso.Picasso;
 
+import java.util.List;
+
 import butterknife.Bind;
 import butterknife.ButterKnife;
-import rx.Observable;
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
 
 public class DetailsActivity extends AbsActivity {
     public static final String TAG = DetailsActivity.class.getSimpleName();
@@ -55,14 +60,22 @@ public class DetailsActivity extends AbsActivity {
     SwipeRefreshLayout      mSwipeRefreshLayout;
 
     private MenuItem downloadItem;
+    private MenuItem pinItem;
 
     //custom
 
     private   Book                    book;
     protected PageListRecyclerAdapter mAdapter;
+    /*page缩略图集*/
+    private   ThumbnailAtlas          atlas;
 
+    /*已从本地读入完整的书籍*/
+    boolean      bookLoaded    = false;
     /*初始数据已刷新*/
-    boolean dataRefreshed = false;
+    boolean      dataRefreshed = false;
+    Subscription loadSubscription;
+    Subscription refreshSubscription;
+    Subscription atlasSubscription;
 
 
     public static void launch(Activity activity, Book book) {
@@ -85,7 +98,6 @@ public class DetailsActivity extends AbsActivity {
 
         Intent intent = getIntent();
         book = new Gson().fromJson(intent.getStringExtra(EXTRA_BOOK_DATA), Book.class);
-        book = BookApi.getBookFormJson(this, book);
 
         ActionBar actionBar = getSupportActionBar();
         if (actionBar != null) {
@@ -117,6 +129,26 @@ public class DetailsActivity extends AbsActivity {
             GalleryActivity.launch(DetailsActivity.this, book);
         });
 
+        //本地的书籍信息在后台读取,读完之前显示刷新中
+        Book cached = BookStore.getInstance(this).getCached(book.token);
+        if (cached != null) {
+            onBookLoaded(cached);
+        } else {
+            mSwipeRefreshLayout.setRefreshing(true);
+            loadSubscription = BookStore.getInstance(this).load(book)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(this::onBookLoaded, throwable -> {
+                        Log.e(TAG, Log.getStackTraceString(throwable));
+                        onBookLoaded(book);
+                    });
+        }
+    }
+
+    private void onBookLoaded(Book local) {
+        book = local;
+        bookLoaded = true;
+        setTitle(book.name);
+        mAdapter.setBook(book);
         refreshData();
     }
 
@@ -133,33 +165,107 @@ public class DetailsActivity extends AbsActivity {
         app.getDownloadManager().unregisterOnDownloadManagerInteractionListener(this);
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        //保存浏览时新放入图集的预览图
+        if (atlas != null) atlas.saveAsync();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (loadSubscription != null) loadSubscription.unsubscribe();
+        if (refreshSubscription != null) refreshSubscription.unsubscribe();
+        if (atlasSubscription != null) atlasSubscription.unsubscribe();
+    }
+
     private void refreshData() {
+        //读入本地数据后会自动刷新
+        if (!bookLoaded) return;
         if (!mSwipeRefreshLayout.isRefreshing()) mSwipeRefreshLayout.setRefreshing(true);
-        Observable.<Void>create(subscriber -> {
-            try {
-                if (book.isDownloaded()) {
-                    Log.d(TAG, "书籍已下载:" + book.name);
-                    subscriber.onNext(null);
-                } else {
-                    subscriber.onNext(PageApi.pages(book));
-                }
-                subscriber.onCompleted();
-            } catch (Exception e) {
-                subscriber.onError(e);
-            }
-        }).subscribeOn(Schedulers.io())
+        if (book.isDownloaded()) {
+            Log.d(TAG, "书籍已下载:" + book.name);
+            mAdapter.notifyDataSetChanged();
+            onPagesRefreshed();
+            return;
+        }
+
+        //先显示缓存的page列表,过期或下拉刷新时再从服务器取得;没有缓存时边接收边显示
+        String                  token    = book.token;
+        PageApi.OnPageListener  listener = (index, page) -> runOnUiThread(() -> onPageReceived(index, page));
+        if (refreshSubscription != null) refreshSubscription.unsubscribe();
+        refreshSubscription = CacheThenNetwork.create(() -> PageApi.cachedPages(token), () -> PageApi.pages(token, listener), dataRefreshed)
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(aVoid -> {
-                    mSwipeRefreshLayout.setRefreshing(false);
-                    fab.setEnabled(true);
-                    dataRefreshed = true;
-                    refreshDownloadItem();
-                    mAdapter.notifyDataSetChanged();
-                }, throwable -> {
+                .subscribe(this::onPagesLoaded, throwable -> {
                     mSwipeRefreshLayout.setRefreshing(false);
                     Log.e(TAG, Log.getStackTraceString(throwable));
                     Snackbar.make(mSwipeRefreshLayout, R.string.refresh_fail, Snackbar.LENGTH_LONG).setAction(R.string.action_retry, v -> refreshData()).show();
-                });
+                }, this::onPagesRefreshed);
+    }
+
+    private void onPagesLoaded(List<Page> pages) {
+        fab.setEnabled(true);
+        dataRefreshed = true;
+        fillName();
+        refreshDownloadItem();
+        if (isSamePages(book.pages, pages)) return;
+
+        book.pages.clear();
+        book.pages.addAll(pages);
+        mAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * 响应还没读完时收到的page,只在列表中还没有这个位置时加入(已显示缓存或本地数据时不用)
+     *
+     * @param index
+     * @param page
+     */
+    private void onPageReceived(int index, Page page) {
+        if (book.pages.size() != index) return;
+        book.pages.add(page);
+        mAdapter.notifyItemInserted(index);
+    }
+
+    private void onPagesRefreshed() {
+        mSwipeRefreshLayout.setRefreshing(false);
+        fab.setEnabled(true);
+        dataRefreshed = true;
+        fillName();
+        refreshDownloadItem();
+        loadAtlas();
+    }
+
+    /**
+     * 排行榜中的书籍没有书名,从取得的详细页中补上(下载前,保存时用的是这个书名)
+     */
+    private void fillName() {
+        if (book.name != null) return;
+        String title = PageApi.cachedTitle(book.token);
+        if (title == null) return;
+        book.name = title;
+        setTitle(title);
+    }
+
+    private static boolean isSamePages(List<Page> lhs, List<Page> rhs) {
+        if (lhs.size() != rhs.size()) return false;
+        for (int i = 0; i < lhs.size(); i++) {
+            String l = lhs.get(i).href;
+            String r = rhs.get(i).href;
+            if (l == null ? r != null : !l.equals(r)) return false;
+        }
+        return true;
+    }
+
+    private void loadAtlas() {
+        if (atlasSubscription != null) atlasSubscription.unsubscribe();
+        atlasSubscription = ThumbnailAtlas.load(this, book)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(atlas -> {
+                    this.atlas = atlas;
+                    mAdapter.setAtlas(atlas);
+                }, throwable -> Log.e(TAG, Log.getStackTraceString(throwable)));
     }
 
     @Override
@@ -167,6 +273,7 @@ public class DetailsActivity extends AbsActivity {
         getMenuInflater().inflate(R.menu.menu_details, menu);
 
         downloadItem = menu.findItem(R.id.action_download);
+        pinItem = menu.findItem(R.id.action_pin);
         refreshDownloadItem();
 
         return true;
@@ -185,6 +292,11 @@ public class DetailsActivity extends AbsActivity {
             download(book);
             return true;
         }
+        if (id == R.id.action_pin) {
+            item.setChecked(!item.isChecked());
+            StorageQuotaManager.getInstance(this).setPinned(book.token, item.isChecked());
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -193,6 +305,12 @@ public class DetailsActivity extends AbsActivity {
             return;
         }
 
+        //只有已下载的书籍会被自动删除
+        if (pinItem != null) {
+            pinItem.setVisible(book.isDownloaded());
+            pinItem.setChecked(StorageQuotaManager.getInstance(this).isPinned(book.token));
+        }
+
         if (book.isDownloaded()) {
             downloadItem.setIcon(R.drawable.fa_download_done);
             downloadItem.setEnabled(false);
@@ -227,7 +345,7 @@ public class DetailsActivity extends AbsActivity {
             // FIXME: 15/11/20 跳转到下载列表页面.
         }).show();
 
-        if (this.book.name.equals(book.name)) {
+        if (book.isSameToken(this.book)) {
             book.status = Book.Status.DOWNLOADED;
         }
     }
@@ -236,7 +354,7 @@ public class DetailsActivity extends AbsActivity {
     public void onDMDownloadFail(Book book) {
         Snackbar.make(mRecyclerView, String.format(getString(R.string.download_book_fail), book.name), Snackbar.LENGTH_LONG).show();
 
-        if (this.book.name.equals(book.name)) {
+        if (book.isSameToken(this.book)) {
             refreshDownloadItem();
         }
     }
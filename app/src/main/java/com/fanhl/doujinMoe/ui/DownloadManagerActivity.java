@@ -13,7 +13,9 @@ import android.support.design.widget.TabLayout;
 import android.support.v13.app.FragmentPagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.support.v7.app.ActionBar;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.Toolbar;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -25,6 +27,7 @@ import com.fanhl.doujinMoe.ui.common.AbsActivity;
 import com.fanhl.doujinMoe.ui.fragment.downloadManager.DownloadFailFragment;
 import com.fanhl.doujinMoe.ui.fragment.downloadManager.DownloadSuccessFragment;
 import com.fanhl.doujinMoe.ui.fragment.downloadManager.DownloadingFragment;
+import com.fanhl.doujinMoe.util.StorageQuotaManager;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -32,7 +35,7 @@ import java.util.List;
 import butterknife.Bind;
 import butterknife.ButterKnife;
 
-public class DownloadManagerActivity extends AbsActivity {
+public class DownloadManagerActivity extends AbsActivity implements StorageQuotaManager.OnStorageChangeListener {
     public static final String TAG = DownloadManagerActivity.class.getSimpleName();
 
     @Bind(R.id.toolbar)
@@ -52,6 +55,13 @@ public class DownloadManagerActivity extends AbsActivity {
 
     List<OnDownloadManagerBookChangeListener> onDMBookChangeListeners;
 
+    /*存储上限的可选项,与storage_limit_entries对应*/
+    private static final long[] STORAGE_LIMITS = {StorageQuotaManager.NO_LIMIT, 1L << 30, 2L << 30, 5L << 30, 10L << 30};
+
+    private StorageQuotaManager storageQuotaManager;
+    /*自动删除书籍的进度*/
+    private Snackbar            evictionSnackbar;
+
     public static void launch(Activity activity) {
         Intent intent = new Intent(activity, DownloadManagerActivity.class);
 //        intent.setFlags(Intent.FLAG_ACTIVITY_MULTIPLE_TASK);
@@ -79,6 +89,15 @@ public class DownloadManagerActivity extends AbsActivity {
         fab.setOnClickListener(view -> Snackbar.make(view, "Replace with your own action", Snackbar.LENGTH_LONG)
                 .setAction("Action", null).show());
 
+        storageQuotaManager = StorageQuotaManager.getInstance(this);
+        storageQuotaManager.addOnStorageChangeListener(this);
+        onStorageUsageChanged(storageQuotaManager.getUsage(), storageQuotaManager.getLimit());
+    }
+
+    @Override
+    protected void onDestroy() {
+        storageQuotaManager.removeOnStorageChangeListener(this);
+        super.onDestroy();
 
     }
 
@@ -100,10 +119,61 @@ public class DownloadManagerActivity extends AbsActivity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_storage_limit) {
+            showStorageLimitDialog();
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
 
+    private void showStorageLimitDialog() {
+        long limit   = storageQuotaManager.getLimit();
+        int  checked = 0;
+        for (int i = 0; i < STORAGE_LIMITS.length; i++) {
+            if (STORAGE_LIMITS[i] == limit) checked = i;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_storage_limit)
+                .setSingleChoiceItems(getResources().getStringArray(R.array.storage_limit_entries), checked, (dialog, which) -> {
+                    storageQuotaManager.setLimit(STORAGE_LIMITS[which]);
+                    dialog.dismiss();
+                })
+                .setNegativeButton(R.string.action_cancel, null)
+                .show();
+    }
+
+    @Override
+    public void onStorageUsageChanged(long usage, long limit) {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar == null) return;
+        String used = Formatter.formatFileSize(this, usage);
+        actionBar.setSubtitle(limit == StorageQuotaManager.NO_LIMIT
+                ? getString(R.string.text_storage_usage, used)
+                : getString(R.string.text_storage_usage_limit, used, Formatter.formatFileSize(this, limit)));
+    }
+
+    @Override
+    public void onEvictionProgress(Book book, long deleted, long total, boolean finished) {
+        if (finished) {
+            if (evictionSnackbar != null) {
+                evictionSnackbar.dismiss();
+                evictionSnackbar = null;
+            }
+            Snackbar.make(mMainContent, getString(R.string.text_storage_evicted, Formatter.formatFileSize(this, deleted)), Snackbar.LENGTH_LONG).show();
+            return;
+        }
+
+        int    percent = total <= 0 ? 0 : (int) Math.min(100, deleted * 100 / total);
+        String text    = getString(R.string.text_storage_evicting, book.name, percent);
+        if (evictionSnackbar == null) {
+            evictionSnackbar = Snackbar.make(mMainContent, text, Snackbar.LENGTH_INDEFINITE);
+            evictionSnackbar.show();
+        } else {
+            evictionSnackbar.setText(text);
+        }
+    }
+
     @Override
     public void onDMDownloadSuccess(Book book) {
         Snackbar.make(mMainContent, String.format(getString(R.string.download_book_success), book.name), Snackbar.LENGTH_LONG).setAction(R.string.action_check, v -> {
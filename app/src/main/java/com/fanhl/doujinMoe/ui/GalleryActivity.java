@@ -2,7 +2,9 @@ package com.fanhl.doujinMoe.ui;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -13,22 +15,30 @@ import android.support.v7.app.ActionBar;
 import android.support.v7.widget.AppCompatSeekBar;
 import android.support.v7.widget.AppCompatTextView;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
+import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.SeekBar;
 
 import com.fanhl.doujinMoe.R;
-import com.fanhl.doujinMoe.api.BookApi;
 import com.fanhl.doujinMoe.model.Book;
 import com.fanhl.doujinMoe.ui.adapter.GalleryPagerAdapter;
 import com.fanhl.doujinMoe.ui.common.AbsActivity;
+import com.fanhl.doujinMoe.util.BookStore;
 import com.fanhl.doujinMoe.util.FullScreenHelper;
+import com.fanhl.doujinMoe.util.ScrubPreviewLoader;
+import com.fanhl.doujinMoe.util.StorageQuotaManager;
+import com.fanhl.doujinMoe.util.ThumbnailAtlas;
 import com.fanhl.doujinMoe.util.Utility;
 import com.fanhl.util.GsonUtil;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
 
 public class GalleryActivity extends AbsActivity {
     public static final  String TAG                    = GalleryActivity.class.getSimpleName();
@@ -47,12 +57,30 @@ public class GalleryActivity extends AbsActivity {
     AppCompatSeekBar  mSeekBar;
     @Bind(R.id.total_pages_text)
     AppCompatTextView mTotalPagesText;
+    @Bind(R.id.scrub_preview_container)
+    LinearLayout      mScrubPreviewContainer;
+    @Bind(R.id.scrub_preview)
+    ImageView         mScrubPreview;
+    @Bind(R.id.scrub_preview_text)
+    AppCompatTextView mScrubPreviewText;
+    @Bind(R.id.loading_progress)
+    ProgressBar       mLoadingProgress;
 
     //custom
 
-    private Book book;
+    private Book         book;
+    /*已从本地读入完整的书籍*/
+    private boolean      bookLoaded;
+    private Subscription loadSubscription;
+    private Subscription atlasSubscription;
 
     private FullScreenHelper mFullScreenHelper;
+    /*拖动SeekBar时的预览用缩略图集*/
+    private ThumbnailAtlas     atlas;
+    /*图集中没有的page,从preview图加载*/
+    private ScrubPreviewLoader mScrubPreviewLoader;
+    /*当前预览中的page*/
+    private int                scrubPosition = -1;
 
     public static void launch(Activity activity, Book book) {
         Intent intent = new Intent(activity, GalleryActivity.class);
@@ -88,10 +116,6 @@ public class GalleryActivity extends AbsActivity {
         Intent intent = getIntent();
         book = GsonUtil.obj(intent.getStringExtra(EXTRA_BOOK_DATA), Book.class);
         assert book != null;
-        int tmpPosition = book.position;//详细页点击第三张page时,position=2,此时本地bookJson中position=3.这种情况下使用2这个值.
-        //从本地取最新的数据
-        book = BookApi.getBookFormJson(this, book);
-        book.position = tmpPosition;
 
         ActionBar actionBar = getSupportActionBar();
         if (actionBar != null) {
@@ -100,6 +124,29 @@ public class GalleryActivity extends AbsActivity {
 
         setTitle(book.name);
 
+        //阅读中的书籍不会因超出存储上限被删除
+        StorageQuotaManager.getInstance(this).onBookOpened(book.token);
+
+        //从本地取最新的数据,在后台读取,读完之前显示加载中
+        Book cached = BookStore.getInstance(this).getCached(book.token);
+        if (cached != null) {
+            onBookLoaded(cached);
+        } else {
+            loadSubscription = BookStore.getInstance(this).load(book)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(this::onBookLoaded, throwable -> {
+                        Log.e(TAG, Log.getStackTraceString(throwable));
+                        onBookLoaded(book);
+                    });
+        }
+    }
+
+    private void onBookLoaded(Book local) {
+        local.position = book.position;//详细页点击第三张page时,position=2,此时本地bookJson中position=3.这种情况下使用2这个值.
+        book = local;
+        bookLoaded = true;
+        mLoadingProgress.setVisibility(View.GONE);
+
         GalleryPagerAdapter mPagerAdapter = new GalleryPagerAdapter(getFragmentManager(), book);
         mPager.setAdapter(mPagerAdapter);
         mPager.setCurrentItem(book.position, false);
@@ -122,17 +169,67 @@ public class GalleryActivity extends AbsActivity {
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 this.progress = progress;
                 mTotalPagesText.setText(String.format(getString(R.string.info_total_pages), progress + 1, book.count));
+                if (fromUser) showScrubPreview(progress);
             }
 
             @Override
             public void onStartTrackingTouch(SeekBar seekBar) {
+                showScrubPreview(seekBar.getProgress());
             }
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
+                hideScrubPreview();
+                //松手时才加载大图
                 mPager.setCurrentItem(progress, false);
             }
         });
+
+        mScrubPreviewLoader = new ScrubPreviewLoader(this, book,
+                getResources().getDimensionPixelSize(R.dimen.gallery_scrub_preview_width),
+                getResources().getDimensionPixelSize(R.dimen.gallery_scrub_preview_height));
+        mScrubPreviewLoader.setOnPreviewLoadedListener(this::onScrubPreviewLoaded);
+
+        if (atlasSubscription != null) atlasSubscription.unsubscribe();
+        atlasSubscription = ThumbnailAtlas.load(this, book)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(atlas -> this.atlas = atlas, throwable -> Log.e(TAG, Log.getStackTraceString(throwable)));
+    }
+
+    /**
+     * 在SeekBar的滑块上方浮动显示对应page的缩略图.
+     * 优先从图集中截取,其次用内存中的预览图,都没有时保留上一张并在后台加载.
+     *
+     * @param position
+     */
+    private void showScrubPreview(int position) {
+        scrubPosition = position;
+        mScrubPreviewText.setText(String.valueOf(position + 1));
+
+        Drawable cell = atlas == null ? null : atlas.getCellDrawable(position);
+        if (cell != null) {
+            mScrubPreview.setImageDrawable(cell);
+        } else {
+            Bitmap cached = mScrubPreviewLoader.getCached(position);
+            if (cached != null) mScrubPreview.setImageBitmap(cached);
+            else mScrubPreviewLoader.request(position);
+        }
+
+        mScrubPreviewContainer.setVisibility(View.VISIBLE);
+
+        int trackWidth = mSeekBar.getWidth() - mSeekBar.getPaddingLeft() - mSeekBar.getPaddingRight();
+        int thumbX     = mSeekBar.getLeft() + mSeekBar.getPaddingLeft() + (mSeekBar.getMax() == 0 ? 0 : trackWidth * position / mSeekBar.getMax());
+        int maxX       = ((View) mScrubPreviewContainer.getParent()).getWidth() - mScrubPreviewContainer.getWidth();
+        mScrubPreviewContainer.setTranslationX(Math.max(0, Math.min(maxX, thumbX - mScrubPreviewContainer.getWidth() / 2)));
+    }
+
+    private void hideScrubPreview() {
+        scrubPosition = -1;
+        mScrubPreviewContainer.setVisibility(View.GONE);
+    }
+
+    private void onScrubPreviewLoaded(int position, Bitmap bitmap) {
+        if (position == scrubPosition) mScrubPreview.setImageBitmap(bitmap);
     }
 
     @Override
@@ -144,7 +241,16 @@ public class GalleryActivity extends AbsActivity {
     @Override
     protected void onStop() {
         super.onStop();
-        BookApi.saveBookJson(this, book);
+        if (bookLoaded) BookStore.getInstance(this).saveProgress(book);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (loadSubscription != null) loadSubscription.unsubscribe();
+        if (atlasSubscription != null) atlasSubscription.unsubscribe();
+        if (mScrubPreviewLoader != null) mScrubPreviewLoader.release();
+        StorageQuotaManager.getInstance(this).onBookClosed(book.token);
     }
 
     public void toggle() {
@@ -178,7 +284,7 @@ public class GalleryActivity extends AbsActivity {
 
     @Override
     public void onDMDownloadSuccess(Book book) {
-        if (this.book.name.equals(book.name)) {
+        if (book.isSameToken(this.book)) {
             book.status = Book.Status.DOWNLOADED;
         }
     }
@@ -16,12 +16,15 @@ import com.fanhl.doujinMoe.R;
 import com.fanhl.doujinMoe.model.Book;
 import com.fanhl.doujinMoe.ui.adapter.MainPagerAdapter;
 import com.fanhl.doujinMoe.ui.common.AbsActivity;
+import com.fanhl.doujinMoe.util.FileCacheManager;
+import com.fanhl.doujinMoe.util.StartupTrace;
+import com.fanhl.doujinMoe.util.LibraryMigrator;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
 
 public class MainActivity extends AbsActivity
-        implements NavigationView.OnNavigationItemSelectedListener {
+        implements NavigationView.OnNavigationItemSelectedListener, LibraryMigrator.OnMigrationProgressListener {
 
     @Bind(R.id.drawer_layout)
     DrawerLayout         drawer;
@@ -37,6 +40,8 @@ public class MainActivity extends AbsActivity
     //custom
 
     MainPagerAdapter mPagerAdapter;
+    /*书库迁移的进度*/
+    Snackbar         mMigrationSnackbar;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,6 +74,15 @@ public class MainActivity extends AbsActivity
         //执行一次,初始化 显示标题, 抽屉选中项
 //        mViewpager.setCurrentItem(0);//默认为0时不用写
         mPagerAdapter.pageSelected(this, navigationView, 0);
+
+        FileCacheManager.getInstance(this).getLibraryMigrator().addOnMigrationProgressListener(this);
+        StartupTrace.mark("main_created");
+    }
+
+    @Override
+    protected void onDestroy() {
+        FileCacheManager.getInstance(this).getLibraryMigrator().removeOnMigrationProgressListener(this);
+        super.onDestroy();
     }
 
     @Override
@@ -130,6 +144,27 @@ public class MainActivity extends AbsActivity
     }
 
 
+    @Override
+    public void onMigrationProgress(int migrated, int total, boolean finished) {
+        if (finished) {
+            if (mMigrationSnackbar == null) return;
+            mMigrationSnackbar.dismiss();
+            mMigrationSnackbar = null;
+            Snackbar.make(mViewpager, R.string.text_library_migrated, Snackbar.LENGTH_SHORT).show();
+            return;
+        }
+        //没有需要迁移的目录时不提示
+        if (total == 0) return;
+
+        String text = getString(R.string.text_library_migrating, migrated, total);
+        if (mMigrationSnackbar == null) {
+            mMigrationSnackbar = Snackbar.make(mViewpager, text, Snackbar.LENGTH_INDEFINITE);
+            mMigrationSnackbar.show();
+        } else {
+            mMigrationSnackbar.setText(text);
+        }
+    }
+
     @Override
     public void onDMDownloadSuccess(Book book) {
         Snackbar.make(mViewpager, String.format(getString(R.string.download_book_success), book.name), Snackbar.LENGTH_LONG).setAction(R.string.action_check, v -> {
@@ -15,6 +15,7 @@ import com.fanhl.doujinMoe.model.Book;
 import com.fanhl.doujinMoe.ui.common.AbsRecyclerViewAdapter;
 import com.fanhl.doujinMoe.ui.widget.TextDrawable;
 import com.fanhl.doujinMoe.util.ColorGenerator;
+import com.fanhl.doujinMoe.util.PagePrefetcher;
 import com.fanhl.doujinMoe.util.Utility;
 import com.squareup.picasso.Picasso;
 
@@ -32,6 +33,8 @@ public class BookGridRecyclerAdapter extends AbsRecyclerViewAdapter<BookGridRecy
     private final List<Book>     list;
     private final ColorGenerator mColorGenerator;
 
+    private PagePrefetcher pagePrefetcher;
+
     public BookGridRecyclerAdapter(Context context, RecyclerView mRecyclerView, List<Book> list) {
         super(context, mRecyclerView);
         this.list = list;
@@ -39,6 +42,21 @@ public class BookGridRecyclerAdapter extends AbsRecyclerViewAdapter<BookGridRecy
         mColorGenerator = ColorGenerator.MATERIAL;
     }
 
+    /**
+     * 显示在屏幕上的书籍预取page列表
+     *
+     * @param pagePrefetcher
+     */
+    public void setPagePrefetcher(PagePrefetcher pagePrefetcher) {
+        this.pagePrefetcher = pagePrefetcher;
+        addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                pagePrefetcher.onScrollStateChanged(newState);
+            }
+        });
+    }
+
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(context).inflate(R.layout.list_item_book_card, parent, false);
@@ -49,7 +67,8 @@ public class BookGridRecyclerAdapter extends AbsRecyclerViewAdapter<BookGridRecy
     public void onBindViewHolder(ViewHolder holder, int position) {
         super.onBindViewHolder(holder, position);
         Book item  = list.get(position);
-        int  color = this.mColorGenerator.getColor(item.name);
+        //排行榜中的书籍没有书名,占位图的颜色和文字用token
+        int  color = this.mColorGenerator.getColor(item.name != null ? item.name : item.token);
         holder.bind(this.context, item, color);
     }
 
@@ -63,6 +82,18 @@ public class BookGridRecyclerAdapter extends AbsRecyclerViewAdapter<BookGridRecy
         super.onViewRecycled(holder);
     }
 
+    @Override
+    public void onViewAttachedToWindow(ViewHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        if (pagePrefetcher != null) pagePrefetcher.onItemVisible(holder.item);
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(ViewHolder holder) {
+        super.onViewDetachedFromWindow(holder);
+        if (pagePrefetcher != null) pagePrefetcher.onItemHidden(holder.item);
+    }
+
     public class ViewHolder extends AbsRecyclerViewAdapter.ClickableViewHolder {
         @Bind(R.id.preview)
         ImageView mPreview;
@@ -85,7 +116,7 @@ public class BookGridRecyclerAdapter extends AbsRecyclerViewAdapter<BookGridRecy
                         .load(PageApi.getPageFile(context, item, 0))
                         .into(mPreview);
             } else {
-                TextDrawable drawablePlaceHolder = TextDrawable.builder().buildRect(Utility.getFirstCharacter(item.name), color);
+                TextDrawable drawablePlaceHolder = TextDrawable.builder().buildRect(Utility.getFirstCharacter(item.name != null ? item.name : item.token), color);
                 Picasso.with(context)
                         .load(DouJinMoeUrl.previewUrl(item.token))
                         .placeholder(drawablePlaceHolder)
@@ -1,6 +1,8 @@
 package com.fanhl.doujinMoe.ui.adapter;
 
 import android.content.Context;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -11,6 +13,9 @@ import com.fanhl.doujinMoe.R;
 import com.fanhl.doujinMoe.api.PageApi;
 import com.fanhl.doujinMoe.model.Book;
 import com.fanhl.doujinMoe.ui.common.AbsRecyclerViewAdapter;
+import com.fanhl.doujinMoe.util.CompactPageList;
+import com.fanhl.doujinMoe.util.ThumbnailAtlas;
+import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
 
 import butterknife.Bind;
@@ -20,13 +25,31 @@ import butterknife.ButterKnife;
  * Created by fanhl on 15/11/6.
  */
 public class PageListRecyclerAdapter extends AbsRecyclerViewAdapter<PageListRecyclerAdapter.ViewHolder> {
-    private final Book book;
+    private Book book;
+
+    /*缩略图集,有对应格子时直接从图集中截取显示*/
+    private ThumbnailAtlas atlas;
 
     public PageListRecyclerAdapter(Context context, RecyclerView mRecyclerView, Book book) {
         super(context, mRecyclerView);
         this.book = book;
     }
 
+    /**
+     * 从本地读入完整的书籍后替换
+     *
+     * @param book
+     */
+    public void setBook(Book book) {
+        this.book = book;
+        notifyDataSetChanged();
+    }
+
+    public void setAtlas(ThumbnailAtlas atlas) {
+        this.atlas = atlas;
+        notifyDataSetChanged();
+    }
+
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(context).inflate(R.layout.list_item_page_card, parent, false);
@@ -54,14 +77,32 @@ public class PageListRecyclerAdapter extends AbsRecyclerViewAdapter<PageListRecy
         }
 
         public void bind(Context context, Book book, int position) {
+            Picasso.with(context).cancelRequest(mPreview);
+
+            Drawable cell = atlas == null ? null : atlas.getCellDrawable(position);
+            if (cell != null) {
+                mPreview.setImageDrawable(cell);
+                return;
+            }
+
             if (book.isDownloaded()) {
                 Picasso.with(context)
                         .load(PageApi.getPageFile(context, book, position))
                         .into(mPreview);
             } else {
+                ThumbnailAtlas currentAtlas = atlas;
                 Picasso.with(context)
-                        .load(book.pages.get(position).preview)
-                        .into(mPreview);
+                        .load(CompactPageList.preview(book.pages, position))
+                        .into(mPreview, new Callback.EmptyCallback() {
+                            @Override
+                            public void onSuccess() {
+                                //预览图到达后放入图集
+                                Drawable drawable = mPreview.getDrawable();
+                                if (currentAtlas != null && drawable instanceof BitmapDrawable) {
+                                    currentAtlas.offer(position, ((BitmapDrawable) drawable).getBitmap());
+                                }
+                            }
+                        });
             }
         }
     }
@@ -88,7 +88,7 @@ public abstract class AbsDownloadManagerRecyclerAdapter extends AbsRecyclerViewA
                 if (item.isWaitDownload()) {
                     mProgress.setText(R.string.wait_for_download);
                 } else if (item.isDownloading()) {
-                    mProgress.setText(context.getResources().getString(R.string.info_total_pages, item.downloadedPosition + 1, item.count));
+                    mProgress.setText(context.getResources().getString(R.string.info_total_pages, PageApi.getDownloadedPageCount(context, item), item.count));
                 } else {
                     mDownloadContainer.setVisibility(View.GONE);
                 }
@@ -114,8 +114,10 @@ public abstract class AbsDownloadManagerRecyclerAdapter extends AbsRecyclerViewA
         public void onDownloadProgressChanged(Book book) {
             if (book == null || !book.name.equals(item.name)) return;
 
+            //续传时跳过了已下载的page,进度按实际已下载的数量显示
+            int downloadedCount = PageApi.getDownloadedPageCount(context, book);
             //ui Thread
-            uihandler.post(() -> mProgress.setText(context.getResources().getString(R.string.info_total_pages, book.downloadedPosition + 1, book.count)));
+            uihandler.post(() -> mProgress.setText(context.getResources().getString(R.string.info_total_pages, downloadedCount, book.count)));
             // FIXME: 15/11/28 以下无用删除
 //            if (book.downloadedPosition + 1 == book.count) {
 //                uihandler.post(() -> mDownloadContainer.setVisibility(View.GONE));
@@ -2,9 +2,11 @@ package com.fanhl.doujinMoe.ui.fragment;
 
 import android.os.Bundle;
 import android.support.annotation.Nullable;
+import android.support.design.widget.Snackbar;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.StaggeredGridLayoutManager;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -13,17 +15,30 @@ import com.fanhl.doujinMoe.R;
 import com.fanhl.doujinMoe.model.Book;
 import com.fanhl.doujinMoe.ui.DetailsActivity;
 import com.fanhl.doujinMoe.ui.adapter.BookGridRecyclerAdapter;
+import com.fanhl.doujinMoe.util.PagePrefetcher;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
+import rx.Observable;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
 
 /**
  * Created by fanhl on 15/11/10.
  */
 public abstract class AbsBookRecyclerFragment extends AbsFragment {
+    public static final String TAG = AbsBookRecyclerFragment.class.getSimpleName();
+
+    /*内存中最多保留的书数,超过时丢弃离当前位置最远的整页*/
+    private static final int WINDOW_SIZE = 200;
+    /*连续这么多页全是重复的书时,视为服务器对超出范围的页返回了重复的内容*/
+    private static final int MAX_DUPLICATE_PAGES = 3;
+
     @Bind(R.id.swipe_refresh_layout)
     SwipeRefreshLayout mSwipeRefreshLayout;
     @Bind(R.id.recycler_view)
@@ -32,6 +47,23 @@ public abstract class AbsBookRecyclerFragment extends AbsFragment {
     protected BookGridRecyclerAdapter mAdapter;
     protected List<Book>              mBooks;
 
+    private PagePrefetcher pagePrefetcher;
+
+    /*离列表两端还剩这么多项时加载相邻的页*/
+    private int           prefetchDistance;
+    /*mBooks中第一页的页码*/
+    private int           firstPage  = 1;
+    /*mBooks中各页(去重后)的书数,依次排列*/
+    private List<Integer> pageCounts = new ArrayList<>();
+    /*一页的书数(已取得的页中最多的),比这少的页是最后一页*/
+    private int           pageSize;
+    /*连续全是重复书的页数*/
+    private int           duplicatePages;
+    private boolean       hasMore    = true;
+    private Subscription  pageSubscription;
+    /*刷新时加1,之前开始的加载结果不再使用*/
+    private int           pageGeneration;
+
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -46,6 +78,8 @@ public abstract class AbsBookRecyclerFragment extends AbsFragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        cancelPageLoads();
+        pagePrefetcher.release();
         ButterKnife.unbind(this);
     }
 
@@ -63,15 +97,229 @@ public abstract class AbsBookRecyclerFragment extends AbsFragment {
         mAdapter = new BookGridRecyclerAdapter(getActivity(), mRecyclerView, mBooks);
         mRecyclerView.setAdapter(mAdapter);
 
+        //停留在屏幕上的书籍预取page列表
+        pagePrefetcher = new PagePrefetcher();
+        mAdapter.setPagePrefetcher(pagePrefetcher);
+
         mAdapter.setOnItemClickListener((position, viewHolder) -> {
             BookGridRecyclerAdapter.ViewHolder holder = (BookGridRecyclerAdapter.ViewHolder) viewHolder;
             DetailsActivity.launch(getActivity(), holder.getItem());
         });
+
+        //分页加载
+        prefetchDistance = getResources().getInteger(R.integer.prefetch_distance);
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                checkPrefetch();
+            }
+        });
     }
 
     protected void initData() {
 
     }
 
+    /**
+     * 替换第一页的内容.先显示缓存再刷新时,通常只是顶部多了几本新书,
+     * 只通知有变化的位置,已显示的封面不用重新绑定.
+     * 已加载的后续页保留,去掉与新的第一页重复的书
+     *
+     * @param books
+     */
+    protected void setBooks(List<Book> books) {
+        pageSize = Math.max(pageSize, books.size());
+        List<Book> merged = new ArrayList<>(books);
+        if (firstPage == 1 && !pageCounts.isEmpty()) {
+            Set<String> tokens = new HashSet<>();
+            for (Book book : books) {
+                tokens.add(book.token);
+            }
+            int offset = pageCounts.get(0);
+            for (int page = 1; page < pageCounts.size(); page++) {
+                int size  = pageCounts.get(page);
+                int count = 0;
+                for (Book book : mBooks.subList(offset, offset + size)) {
+                    if (!tokens.add(book.token)) continue;
+                    merged.add(book);
+                    count++;
+                }
+                offset += size;
+                pageCounts.set(page, count);
+            }
+            pageCounts.set(0, books.size());
+        } else {
+            //已经滚动到后面的页时,回到第一页
+            firstPage = 1;
+            hasMore = true;
+            duplicatePages = 0;
+            pageCounts.clear();
+            pageCounts.add(books.size());
+        }
+
+        List<Book> old      = new ArrayList<>(mBooks);
+        int        inserted = old.isEmpty() ? -1 : indexOf(merged, old.get(0).token);
+        int        overlap  = inserted < 0 ? 0 : Math.min(old.size(), merged.size() - inserted);
+        for (int i = 0; i < overlap; i++) {
+            if (!equals(old.get(i).token, merged.get(inserted + i).token)) {
+                inserted = -1;
+                break;
+            }
+        }
+
+        mBooks.clear();
+        mBooks.addAll(merged);
+        mRecyclerView.post(this::checkPrefetch);
+        if (inserted < 0) {
+            mAdapter.notifyDataSetChanged();
+            return;
+        }
+
+        if (inserted > 0) mAdapter.notifyItemRangeInserted(0, inserted);
+        for (int i = 0; i < overlap; i++) {
+            if (!isSameItem(old.get(i), merged.get(inserted + i))) mAdapter.notifyItemChanged(inserted + i);
+        }
+        if (old.size() > overlap) mAdapter.notifyItemRangeRemoved(inserted + overlap, old.size() - overlap);
+        if (merged.size() > inserted + overlap) mAdapter.notifyItemRangeInserted(inserted + overlap, merged.size() - inserted - overlap);
+    }
+
+    /**
+     * 取得指定页的书,不分页时返回null
+     *
+     * @param pageIndex 从1开始
+     * @return
+     */
+    protected Observable<List<Book>> loadPage(int pageIndex) {
+        return null;
+    }
+
+    /**
+     * 取消加载中的页(刷新时调用)
+     */
+    protected void cancelPageLoads() {
+        pageGeneration++;
+        if (pageSubscription != null) {
+            pageSubscription.unsubscribe();
+            pageSubscription = null;
+        }
+    }
+
+    /**
+     * 离末尾不到prefetchDistance时加载下一页,离开头不到prefetchDistance且前面的页已被丢弃时重新加载上一页
+     */
+    private void checkPrefetch() {
+        if (mRecyclerView == null || pageSubscription != null || mBooks.isEmpty() || pageCounts.isEmpty()) return;
+
+        StaggeredGridLayoutManager layoutManager = (StaggeredGridLayoutManager) mRecyclerView.getLayoutManager();
+        int                        first         = Integer.MAX_VALUE;
+        int                        last          = -1;
+        for (int position : layoutManager.findFirstVisibleItemPositions(null)) {
+            if (position != RecyclerView.NO_POSITION) first = Math.min(first, position);
+        }
+        for (int position : layoutManager.findLastVisibleItemPositions(null)) {
+            last = Math.max(last, position);
+        }
+        if (last < 0) return;
+
+        if (hasMore && last >= mBooks.size() - prefetchDistance) {
+            requestPage(firstPage + pageCounts.size(), false);
+        } else if (firstPage > 1 && first < prefetchDistance) {
+            requestPage(firstPage - 1, true);
+        }
+    }
+
+    private void requestPage(int pageIndex, boolean prepend) {
+        Observable<List<Book>> observable = loadPage(pageIndex);
+        if (observable == null) {
+            hasMore = false;
+            return;
+        }
+
+        int generation = pageGeneration;
+        pageSubscription = observable
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(books -> {
+                    if (generation != pageGeneration || mRecyclerView == null) return;
+                    pageSubscription = null;
+                    onPageLoaded(pageIndex, books == null ? new ArrayList<>() : books, prepend);
+                }, throwable -> {
+                    if (generation != pageGeneration || mRecyclerView == null) return;
+                    pageSubscription = null;
+                    Log.e(TAG, Log.getStackTraceString(throwable));
+                    Snackbar.make(mSwipeRefreshLayout, getString(R.string.text_page_get_fail, pageIndex), Snackbar.LENGTH_LONG).setAction(R.string.action_retry, v -> {
+                        if (generation == pageGeneration && pageSubscription == null) requestPage(pageIndex, prepend);
+                    }).show();
+                });
+    }
+
+    /**
+     * 加入新取得的页,去掉已显示的书;超过WINDOW_SIZE时从另一端丢弃整页
+     *
+     * @param pageIndex
+     * @param books
+     * @param prepend   加在开头(往回滚动时重新加载被丢弃的页)
+     */
+    private void onPageLoaded(int pageIndex, List<Book> books, boolean prepend) {
+        Set<String> tokens = new HashSet<>();
+        for (Book book : mBooks) {
+            tokens.add(book.token);
+        }
+        List<Book> fresh = new ArrayList<>();
+        for (Book book : books) {
+            if (tokens.add(book.token)) fresh.add(book);
+        }
+
+        if (prepend) {
+            firstPage = pageIndex;
+            pageCounts.add(0, fresh.size());
+            mBooks.addAll(0, fresh);
+            mAdapter.notifyItemRangeInserted(0, fresh.size());
+            while (mBooks.size() > WINDOW_SIZE && pageCounts.size() > 1) {
+                int size  = pageCounts.remove(pageCounts.size() - 1);
+                int start = mBooks.size() - size;
+                mBooks.subList(start, mBooks.size()).clear();
+                mAdapter.notifyItemRangeRemoved(start, size);
+                hasMore = true;
+            }
+        } else {
+            //空页之后没有内容,不作为一页记录
+            if (books.isEmpty()) {
+                hasMore = false;
+                return;
+            }
+            //不满一页时是最后一页;全是重复的书(列表更新后前移的书)时也记下这一页,继续加载下一页
+            pageSize = Math.max(pageSize, books.size());
+            duplicatePages = fresh.isEmpty() ? duplicatePages + 1 : 0;
+            if (books.size() < pageSize || duplicatePages >= MAX_DUPLICATE_PAGES) hasMore = false;
+
+            int start = mBooks.size();
+            pageCounts.add(fresh.size());
+            mBooks.addAll(fresh);
+            mAdapter.notifyItemRangeInserted(start, fresh.size());
+            while (mBooks.size() > WINDOW_SIZE && pageCounts.size() > 1) {
+                int size = pageCounts.remove(0);
+                mBooks.subList(0, size).clear();
+                mAdapter.notifyItemRangeRemoved(0, size);
+                firstPage++;
+            }
+        }
+        mRecyclerView.post(this::checkPrefetch);
+    }
+
+    private static int indexOf(List<Book> books, String token) {
+        for (int i = 0; i < books.size(); i++) {
+            if (equals(books.get(i).token, token)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isSameItem(Book lhs, Book rhs) {
+        return equals(lhs.name, rhs.name) && lhs.count == rhs.count && equals(lhs.rating, rhs.rating) && equals(lhs.date, rhs.date);
+    }
+
+    private static boolean equals(Object lhs, Object rhs) {
+        return lhs == null ? rhs == null : lhs.equals(rhs);
+    }
+
     protected abstract void refreshData();
 }
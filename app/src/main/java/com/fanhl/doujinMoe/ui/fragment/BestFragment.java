@@ -6,12 +6,12 @@ import android.util.Log;
 import com.fanhl.doujinMoe.R;
 import com.fanhl.doujinMoe.api.HomeApi;
 import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.util.CacheThenNetwork;
 
 import java.util.List;
 
 import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
 
 /**
  * Top Rated
@@ -25,25 +25,29 @@ public class BestFragment extends AbsBookRecyclerFragment {
 
     @Override
     protected void refreshData() {
+        cancelPageLoads();
         if (!mSwipeRefreshLayout.isRefreshing()) mSwipeRefreshLayout.setRefreshing(true);
-        Observable.<List<Book>>create(subscriber -> {
-            try {
-                subscriber.onNext(HomeApi.best(1));
-                subscriber.onCompleted();
-            } catch (Exception e) {
-                subscriber.onError(e);
-            }
-        }).subscribeOn(Schedulers.io())
+        //第一次显示时先用缓存,之后的刷新都从服务器取得
+        boolean force = !mBooks.isEmpty();
+        CacheThenNetwork.create(() -> HomeApi.cachedBest(1), () -> HomeApi.best(1), force)
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(books -> {
-                    mSwipeRefreshLayout.setRefreshing(false);
-                    mBooks.clear();
-                    mBooks.addAll(books);
-                    mAdapter.notifyDataSetChanged();
+                    if (mSwipeRefreshLayout == null) return;
+                    setBooks(books);
                 }, throwable -> {
+                    if (mSwipeRefreshLayout == null) return;
                     mSwipeRefreshLayout.setRefreshing(false);
                     Log.e(TAG, Log.getStackTraceString(throwable));
                     Snackbar.make(mSwipeRefreshLayout, R.string.text_newest_get_fail, Snackbar.LENGTH_LONG).setAction(R.string.action_retry, v -> refreshData()).show();
+                }, () -> {
+                    if (mSwipeRefreshLayout == null) return;
+                    mSwipeRefreshLayout.setRefreshing(false);
                 });
     }
-}
\ No newline at end of file
+
+    @Override
+    protected Observable<List<Book>> loadPage(int pageIndex) {
+        return CacheThenNetwork.create(() -> HomeApi.cachedBest(pageIndex), () -> HomeApi.best(pageIndex), false)
+                .lastOrDefault(null);
+    }
+}
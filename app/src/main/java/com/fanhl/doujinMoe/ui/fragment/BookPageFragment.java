@@ -13,8 +13,8 @@ import android.widget.ImageView;
 import com.fanhl.doujinMoe.R;
 import com.fanhl.doujinMoe.api.PageApi;
 import com.fanhl.doujinMoe.model.Book;
-import com.fanhl.doujinMoe.model.Page;
 import com.fanhl.doujinMoe.ui.GalleryActivity;
+import com.fanhl.doujinMoe.util.CompactPageList;
 import com.fanhl.util.GsonUtil;
 import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
@@ -89,10 +89,10 @@ public class BookPageFragment extends Fragment {
                         }
                     });
         } else {
-            Page page = book.pages.get(position);
             Picasso.with(getActivity())
-                    .load(page.href)
+                    .load(CompactPageList.href(book.pages, position))
                             // FIXME: 15/11/10 Detail页面取得的preview
+                    .priority(Picasso.Priority.HIGH)
                     .into(mImageView, new Callback.EmptyCallback() {
                         @Override
                         public void onSuccess() {
@@ -1,28 +1,24 @@
 package com.fanhl.doujinMoe.ui.fragment;
 
-import android.os.Handler;
 import android.support.design.widget.Snackbar;
 import android.util.Log;
 
 import com.fanhl.doujinMoe.R;
 import com.fanhl.doujinMoe.model.Book;
-import com.fanhl.util.ThreadUtil;
+import com.fanhl.doujinMoe.util.LocalManager;
 
+import java.util.Collections;
 import java.util.List;
 
-import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.android.schedulers.HandlerScheduler;
 
 /**
  * 已下载
  * Created by fanhl on 15/11/20.
  */
-public class DownloadedFragment extends AbsBookRecyclerFragment {
+public class DownloadedFragment extends AbsBookRecyclerFragment implements LocalManager.OnLocalBooksChangeListener {
     public static final String TAG = DownloadedFragment.class.getSimpleName();
 
-    private Handler downloadedHandler;
-
     public static DownloadedFragment newInstance() {
         return new DownloadedFragment();
     }
@@ -30,20 +26,20 @@ public class DownloadedFragment extends AbsBookRecyclerFragment {
     @Override
     protected void initData() {
         super.initData();
-        downloadedHandler = ThreadUtil.createBackgroundHandler("已下载用线程");
+        app().getLocalManager().addOnLocalBooksChangeListener(this);
+    }
+
+    @Override
+    public void onDestroyView() {
+        app().getLocalManager().removeOnLocalBooksChangeListener(this);
+        super.onDestroyView();
     }
 
     @Override
     protected void refreshData() {
         if (!mSwipeRefreshLayout.isRefreshing()) mSwipeRefreshLayout.setRefreshing(true);
-        Observable.<List<Book>>create(subscriber -> {
-            try {
-                subscriber.onNext(app().getLocalManager().getDownloadedBooks());
-                subscriber.onCompleted();
-            } catch (Exception e) {
-                subscriber.onError(e);
-            }
-        }).subscribeOn(HandlerScheduler.from(downloadedHandler))
+        //快照与差量通知在同一线程中依次发出,快照之后的变动以差量通知过来
+        app().getLocalManager().refreshDownloadedBooks()
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(books -> {
                     mSwipeRefreshLayout.setRefreshing(false);
@@ -56,4 +52,40 @@ public class DownloadedFragment extends AbsBookRecyclerFragment {
                     Snackbar.make(mSwipeRefreshLayout, R.string.text_download_get_fail, Snackbar.LENGTH_LONG).setAction(R.string.action_retry, v -> refreshData()).show();
                 });
     }
+
+    /**
+     * 只对变更的书籍做局部更新
+     *
+     * @param changes
+     */
+    @Override
+    public void onLocalBooksChanged(List<LocalManager.BookChange> changes) {
+        if (mAdapter == null) return;
+        for (LocalManager.BookChange change : changes) {
+            int oldIndex = indexOf(change.book.token);
+            if (oldIndex >= 0) mBooks.remove(oldIndex);
+
+            if (change.type == LocalManager.BookChange.Type.REMOVED || !change.book.isDownloaded()) {
+                if (oldIndex >= 0) mAdapter.notifyItemRemoved(oldIndex);
+                continue;
+            }
+
+            int insertion = Collections.binarySearch(mBooks, change.book, LocalManager.NAME_ORDER);
+            int newIndex  = insertion < 0 ? -insertion - 1 : insertion;
+            mBooks.add(newIndex, change.book);
+            if (oldIndex < 0) {
+                mAdapter.notifyItemInserted(newIndex);
+            } else {
+                if (oldIndex != newIndex) mAdapter.notifyItemMoved(oldIndex, newIndex);
+                mAdapter.notifyItemChanged(newIndex);
+            }
+        }
+    }
+
+    private int indexOf(String token) {
+        for (int i = 0; i < mBooks.size(); i++) {
+            if (mBooks.get(i).token != null && mBooks.get(i).token.equals(token)) return i;
+        }
+        return -1;
+    }
 }
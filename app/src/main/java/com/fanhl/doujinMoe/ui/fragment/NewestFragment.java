@@ -5,11 +5,15 @@ import android.util.Log;
 
 import com.fanhl.doujinMoe.R;
 import com.fanhl.doujinMoe.api.HomeApi;
-import com.fanhl.doujinMoe.api.form.NewestForm;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.util.CacheThenNetwork;
+import com.fanhl.doujinMoe.util.NewestSnapshot;
+import com.fanhl.doujinMoe.util.StartupTrace;
+
+import java.util.List;
 
 import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
 
 /**
  * Created by fanhl on 15/11/8.
@@ -17,33 +21,52 @@ import rx.schedulers.Schedulers;
 public class NewestFragment extends AbsBookRecyclerFragment {
     public static final String TAG = NewestFragment.class.getSimpleName();
 
+    /*已从服务器(或未过期的缓存)刷新过*/
+    private boolean refreshed;
+
     public static NewestFragment newInstance() {
         return new NewestFragment();
     }
 
+    @Override
+    protected void initData() {
+        //先显示上次保存的列表,不等网络
+        List<Book> snapshot = NewestSnapshot.getInstance(getActivity()).read();
+        if (snapshot.isEmpty()) return;
+        setBooks(snapshot);
+        StartupTrace.firstContent(getActivity(), mRecyclerView, "snapshot");
+    }
+
     @Override
     protected void refreshData() {
+        cancelPageLoads();
         if (!mSwipeRefreshLayout.isRefreshing()) mSwipeRefreshLayout.setRefreshing(true);
-        Observable.<NewestForm>create(subscriber -> {
-            try {
-                subscriber.onNext(HomeApi.newest(1));
-                subscriber.onCompleted();
-            } catch (Exception e) {
-                subscriber.onError(e);
-            }
-        }).subscribeOn(Schedulers.io())
+        //第一次显示时缓存未过期就不访问服务器,之后的刷新都从服务器取得
+        boolean        force    = refreshed;
+        NewestSnapshot snapshot = NewestSnapshot.getInstance(getActivity());
+        CacheThenNetwork.create(() -> HomeApi.cachedNewest(1), () -> HomeApi.newest(1), force)
+                .doOnNext(newestForm -> snapshot.save(newestForm.newest))
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(newestForm -> {
                     if (mSwipeRefreshLayout == null) return;
-                    mSwipeRefreshLayout.setRefreshing(false);
-                    mBooks.clear();
-                    mBooks.addAll(newestForm.newest);
-                    mAdapter.notifyDataSetChanged();
+                    setBooks(newestForm.newest);
+                    StartupTrace.firstContent(getActivity(), mRecyclerView, "refresh");
                 }, throwable -> {
                     if (mSwipeRefreshLayout == null) return;
                     mSwipeRefreshLayout.setRefreshing(false);
                     Log.e(TAG, Log.getStackTraceString(throwable));
                     Snackbar.make(mSwipeRefreshLayout, R.string.text_newest_get_fail, Snackbar.LENGTH_LONG).setAction(R.string.action_retry, v -> refreshData()).show();
+                }, () -> {
+                    refreshed = true;
+                    if (mSwipeRefreshLayout == null) return;
+                    mSwipeRefreshLayout.setRefreshing(false);
                 });
     }
+
+    @Override
+    protected Observable<List<Book>> loadPage(int pageIndex) {
+        return CacheThenNetwork.create(() -> HomeApi.cachedNewest(pageIndex), () -> HomeApi.newest(pageIndex), false)
+                .lastOrDefault(null)
+                .map(newestForm -> newestForm == null ? null : newestForm.newest);
+    }
 }
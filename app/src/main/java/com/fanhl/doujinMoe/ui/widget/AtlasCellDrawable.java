@@ -0,0 +1,56 @@
+package com.fanhl.doujinMoe.ui.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * 绘制图集(sprite sheet)中的一个格子,多个Drawable共用同一张图集Bitmap
+ */
+public class AtlasCellDrawable extends Drawable {
+    private final Bitmap sheet;
+    private final Rect   src;
+    private final Paint  paint;
+
+    public AtlasCellDrawable(Bitmap sheet, Rect src) {
+        this.sheet = sheet;
+        this.src = src;
+        paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        canvas.drawBitmap(sheet, src, getBounds(), paint);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return src.width();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return src.height();
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.OPAQUE;
+    }
+}
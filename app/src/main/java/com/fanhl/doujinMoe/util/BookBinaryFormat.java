@@ -0,0 +1,372 @@
+package com.fanhl.doujinMoe.util;
+
+import android.util.Log;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
+import com.fanhl.util.GsonUtil;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 书籍信息的二进制格式(book.bin)
+ * <p>
+ * 文件头后先是摘要(书籍字段及封面),再是page列表.
+ * page的url拆成 前缀(如 http://static.doujin-moe.us/t-) + 变化部分 + 后缀(如 .jpg),
+ * 前缀和后缀各存一张表,每个url只存变化部分及两张表中的序号.
+ * 只需要摘要时读完文件头和摘要就停止,不会读入page列表.
+ * <pre>
+ * int     magic
+ * byte    version
+ * int     摘要长度
+ * byte[]  摘要
+ * varint  前缀数, 前缀...
+ * varint  后缀数, 后缀...
+ * varint  page数, (preview, href)...   url: varint 前缀序号+1(0为null), utf 变化部分, varint 后缀序号
+ * long    CRC32(之前的全部内容)
+ * </pre>
+ */
+public class BookBinaryFormat {
+    public static final String TAG = BookBinaryFormat.class.getSimpleName();
+
+    static final int  MAGIC   = 0x444a4d42;//DJMB
+    static final byte VERSION = 1;
+    /*magic,version,摘要长度*/
+    static final int  HEADER_SIZE = 4 + 1 + 4;
+
+    private static final int SUMMARY_BUFFER_SIZE = 512;
+
+    /**
+     * 读取完整的书籍信息,文件不存在或已损坏时返回null
+     *
+     * @param file
+     * @return
+     */
+    public static Book read(File file) {
+        byte[] bytes = FileUtil.readBytes(file);
+        if (bytes == null) return null;
+        try {
+            return decode(bytes);
+        } catch (IOException e) {
+            Log.d(TAG, "读取book.bin失败:" + file);
+            return null;
+        }
+    }
+
+    /**
+     * 只读取摘要(pages中只有封面一页)
+     *
+     * @param file
+     * @return
+     */
+    public static Book readSummary(File file) {
+        if (file == null || !FileUtil.recover(file)) return null;
+
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file), SUMMARY_BUFFER_SIZE);
+            return decodeSummary(in);
+        } catch (IOException e) {
+            Log.d(TAG, "读取book.bin摘要失败:" + file);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 只读入文件头和摘要部分的字节(交给decodeSummary解析),文件不存在或不完整时返回null
+     *
+     * @param file
+     * @return
+     */
+    public static byte[] readSummaryBytes(File file) {
+        if (file == null || !FileUtil.recover(file)) return null;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            byte[] header = new byte[HEADER_SIZE];
+            in.readFully(header);
+            int length = ((header[5] & 0xff) << 24) | ((header[6] & 0xff) << 16) | ((header[7] & 0xff) << 8) | (header[8] & 0xff);
+            if (length < 0 || length > file.length()) throw new IOException("摘要长度错误:" + length);
+
+            byte[] bytes = new byte[HEADER_SIZE + length];
+            System.arraycopy(header, 0, bytes, 0, HEADER_SIZE);
+            in.readFully(bytes, HEADER_SIZE, length);
+            return bytes;
+        } catch (IOException e) {
+            Log.d(TAG, "读取book.bin摘要失败:" + file);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取旧格式的json,转存为book.bin后删除json
+     *
+     * @param jsonFile
+     * @param binFile
+     * @return json中的书籍,没有或无法解析时返回null
+     */
+    public static Book migrateJson(File jsonFile, File binFile) {
+        if (!jsonFile.isFile()) return null;
+
+        Book book = GsonUtil.obj(FileUtil.readFile(jsonFile), Book.class);
+        if (book == null) return null;
+
+        if (write(binFile, book)) {
+            Log.d(TAG, "book.json已迁移为book.bin:" + book.name);
+            jsonFile.delete();
+        }
+        return book;
+    }
+
+    public static boolean write(File file, Book book) {
+        try {
+            return FileUtil.writeFileAtomic(file, encode(book));
+        } catch (IOException e) {
+            Log.d(TAG, "保存book.bin失败:" + file);
+            return false;
+        }
+    }
+
+    public static byte[] encode(Book book) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream      out = new DataOutputStream(bos);
+
+        byte[] summary = encodeSummary(book);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(summary.length);
+        out.write(summary);
+
+        List<Page> pages = book.pages == null ? new ArrayList<>() : book.pages;
+
+        //先收集前缀和后缀
+        Map<String, Integer> prefixes = new HashMap<>();
+        Map<String, Integer> suffixes = new HashMap<>();
+        List<String>         prefixList = new ArrayList<>();
+        List<String>         suffixList = new ArrayList<>();
+        for (Page page : pages) {
+            collect(page == null ? null : page.preview, prefixes, prefixList, suffixes, suffixList);
+            collect(page == null ? null : page.href, prefixes, prefixList, suffixes, suffixList);
+        }
+        writeVarInt(out, prefixList.size());
+        for (String prefix : prefixList) out.writeUTF(prefix);
+        writeVarInt(out, suffixList.size());
+        for (String suffix : suffixList) out.writeUTF(suffix);
+
+        writeVarInt(out, pages.size());
+        for (Page page : pages) {
+            writeUrl(out, page == null ? null : page.preview, prefixes, suffixes);
+            writeUrl(out, page == null ? null : page.href, prefixes, suffixes);
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bos.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    public static Book decode(byte[] bytes) throws IOException {
+        if (bytes.length < HEADER_SIZE + 8) throw new IOException("文件不完整");
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        DataInputStream tail = new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - 8, 8));
+        if (crc.getValue() != tail.readLong()) throw new IOException("校验失败");
+
+        DataInputStream in   = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        Book            book = decodeSummary(in);
+
+        String[] prefixes = new String[readVarInt(in)];
+        for (int i = 0; i < prefixes.length; i++) prefixes[i] = in.readUTF();
+        String[] suffixes = new String[readVarInt(in)];
+        for (int i = 0; i < suffixes.length; i++) suffixes[i] = in.readUTF();
+
+        int             count = readVarInt(in);
+        CompactPageList pages = new CompactPageList(count);
+        for (int i = 0; i < count; i++) {
+            Page page = new Page();
+            page.preview = readUrl(in, prefixes, suffixes);
+            page.href = readUrl(in, prefixes, suffixes);
+            pages.add(page);
+        }
+        book.pages = pages;
+        return book;
+    }
+
+    /**
+     * 读取文件头及摘要,读完后in停在page列表的开始处
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static Book decodeSummary(InputStream in) throws IOException {
+        DataInputStream data = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+        if (data.readInt() != MAGIC) throw new IOException("不是book.bin");
+        byte version = data.readByte();
+        if (version != VERSION) throw new IOException("不支持的版本:" + version);
+        data.readInt();//摘要长度,之后的版本在摘要末尾加字段时用于跳过
+
+        Book book = new Book();
+        book.token = readString(data);
+        book.name = readString(data);
+        book.count = data.readInt();
+        book.rating = readString(data);
+        book.date = readString(data);
+        book.position = data.readInt();
+        long recent = data.readLong();
+        book.recent = recent < 0 ? null : new Date(recent);
+        byte status = data.readByte();
+        book.status = status < 0 || status >= Book.Status.values().length ? null : Book.Status.values()[status];
+        book.downloadedPosition = data.readInt();
+        if (data.readBoolean()) {
+            Page cover = new Page();
+            cover.preview = readString(data);
+            cover.href = readString(data);
+            book.pages.add(cover);
+        }
+        return book;
+    }
+
+    private static byte[] encodeSummary(Book book) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream      out = new DataOutputStream(bos);
+        writeString(out, book.token);
+        writeString(out, book.name);
+        out.writeInt(book.count);
+        writeString(out, book.rating);
+        writeString(out, book.date);
+        out.writeInt(book.position);
+        out.writeLong(book.recent == null ? -1 : book.recent.getTime());
+        out.writeByte(book.status == null ? -1 : book.status.ordinal());
+        out.writeInt(book.downloadedPosition);
+        Page cover = book.pages == null || book.pages.isEmpty() ? null : book.pages.get(0);
+        out.writeBoolean(cover != null);
+        if (cover != null) {
+            writeString(out, cover.preview);
+            writeString(out, cover.href);
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static void collect(String url, Map<String, Integer> prefixes, List<String> prefixList, Map<String, Integer> suffixes, List<String> suffixList) {
+        if (url == null) return;
+        int    prefixEnd = prefixEnd(url);
+        String prefix    = url.substring(0, prefixEnd);
+        String suffix    = url.substring(suffixStart(url, prefixEnd));
+        if (!prefixes.containsKey(prefix)) {
+            prefixes.put(prefix, prefixList.size());
+            prefixList.add(prefix);
+        }
+        if (!suffixes.containsKey(suffix)) {
+            suffixes.put(suffix, suffixList.size());
+            suffixList.add(suffix);
+        }
+    }
+
+    private static void writeUrl(DataOutputStream out, String url, Map<String, Integer> prefixes, Map<String, Integer> suffixes) throws IOException {
+        if (url == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        int prefixEnd   = prefixEnd(url);
+        int suffixStart = suffixStart(url, prefixEnd);
+        writeVarInt(out, prefixes.get(url.substring(0, prefixEnd)) + 1);
+        out.writeUTF(url.substring(prefixEnd, suffixStart));
+        writeVarInt(out, suffixes.get(url.substring(suffixStart)));
+    }
+
+    private static String readUrl(DataInputStream in, String[] prefixes, String[] suffixes) throws IOException {
+        int prefix = readVarInt(in);
+        if (prefix == 0) return null;
+        String middle = in.readUTF();
+        int    suffix = readVarInt(in);
+        if (prefix > prefixes.length || suffix >= suffixes.length) throw new IOException("url序号越界");
+        return prefixes[prefix - 1] + middle + suffixes[suffix];
+    }
+
+    /**
+     * 前缀:最后一个'/'之后第一个'-'为止(没有'-'时到'/'为止)
+     *
+     * @param url
+     * @return
+     */
+    static int prefixEnd(String url) {
+        int slash = url.lastIndexOf('/');
+        int dash  = url.indexOf('-', slash + 1);
+        return (dash >= 0 ? dash : slash) + 1;
+    }
+
+    /**
+     * 后缀:前缀之后最后一个'.'开始(扩展名)
+     *
+     * @param url
+     * @param prefixEnd
+     * @return
+     */
+    static int suffixStart(String url, int prefixEnd) {
+        int dot = url.lastIndexOf('.');
+        return dot >= prefixEnd ? dot : url.length();
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("varint格式错误");
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,195 @@
+package com.fanhl.doujinMoe.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.support.v4.util.LruCache;
+
+import com.fanhl.doujinMoe.api.BookApi;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.util.ThreadUtil;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.android.schedulers.HandlerScheduler;
+
+/**
+ * 完整书籍信息的读取与保存,文件读写都在后台的BookIOThread中进行
+ * <p>
+ * 最近用到的书籍保存在内存中,详细页和Gallery之间来回切换时不用再读文件.
+ * 取得的都是副本,修改后需要调用saveAsync保存;同一本书连续保存时只写入最后一次.
+ */
+public class BookStore {
+    public static final String TAG = BookStore.class.getSimpleName();
+
+    /*内存中保留的书籍数*/
+    private static final int CACHE_SIZE = 8;
+
+    private static BookStore mInstance;
+
+    private final Context   context;
+    private final Handler   ioHandler;
+    private final Scheduler ioScheduler;
+
+    /*token -> 完整书籍*/
+    private final LruCache<String, Book> books;
+    /*token -> 等待写入的书籍*/
+    private final Map<String, Book>      pendingSaves;
+
+    public static BookStore getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new BookStore(context.getApplicationContext());
+        }
+
+        return mInstance;
+    }
+
+    private BookStore(Context context) {
+        this.context = context;
+        ioHandler = ThreadUtil.createBackgroundHandler("BookIOThread");
+        ioScheduler = HandlerScheduler.from(ioHandler);
+        books = new LruCache<>(CACHE_SIZE);
+        pendingSaves = new HashMap<>();
+    }
+
+    /**
+     * 内存中的书籍(副本),没有时返回null,不读文件
+     *
+     * @param token
+     * @return
+     */
+    public Book getCached(String token) {
+        if (token == null) return null;
+        synchronized (pendingSaves) {
+            Book pending = pendingSaves.get(token);
+            if (pending != null) return copy(pending);
+        }
+        Book cached = books.get(token);
+        return cached == null ? null : copy(cached);
+    }
+
+    /**
+     * 在后台读取完整的书籍信息,本地没有时发送传入的book
+     *
+     * @param book
+     * @return
+     */
+    public Observable<Book> load(Book book) {
+        return Observable.<Book>create(subscriber -> {
+            try {
+                subscriber.onNext(read(book));
+                subscriber.onCompleted();
+            } catch (Exception e) {
+                subscriber.onError(e);
+            }
+        }).subscribeOn(ioScheduler);
+    }
+
+    /**
+     * 在后台保存书籍
+     *
+     * @param book
+     */
+    public void saveAsync(Book book) {
+        Book snapshot = copy(book);
+        if (snapshot.token == null) {
+            ioHandler.post(() -> BookApi.saveBookJson(context, snapshot));
+            return;
+        }
+
+        boolean scheduled;
+        synchronized (pendingSaves) {
+            scheduled = pendingSaves.put(snapshot.token, snapshot) != null;
+        }
+        if (scheduled) return;
+
+        ioHandler.post(() -> {
+            Book latest;
+            synchronized (pendingSaves) {
+                latest = pendingSaves.remove(snapshot.token);
+            }
+            if (latest == null || !BookApi.saveBookJson(context, latest)) return;
+            //与saveProgress的替换依次进行
+            synchronized (pendingSaves) {
+                books.put(latest.token, latest);
+            }
+        });
+    }
+
+    /**
+     * 只保存阅读位置,并把书籍记为最近阅读(只追加一条进度记录,不重写book.bin)
+     * <p>
+     * 离开阅读页(onStop)时调用,进度立即在后台写入,不等待ProgressStore的合并延迟;
+     * 进程随后被杀掉也不会丢失位置
+     *
+     * @param book
+     */
+    public void saveProgress(Book book) {
+        if (book.token == null) return;
+        book.recent = new Date();
+
+        synchronized (pendingSaves) {
+            //内存中的书籍可能正在被BookIOThread复制,不在原对象上修改,换成修改后的副本
+            Book cached = books.get(book.token);
+            if (cached != null) {
+                Book updated = copy(cached);
+                updated.position = book.position;
+                updated.recent = book.recent;
+                books.put(book.token, updated);
+            }
+            Book pending = pendingSaves.get(book.token);
+            if (pending != null) {
+                pending.position = book.position;
+                pending.recent = book.recent;
+            }
+        }
+
+        ProgressStore progressStore = ProgressStore.getInstance(context);
+        progressStore.put(book.token, book.position, book.recent);
+        progressStore.flushAsync();
+        LocalManager.getInstance(context).notifyBookChanged(book.token);
+    }
+
+    /**
+     * 书籍在其它地方保存(如下载完成)后,丢弃内存中的旧数据
+     *
+     * @param token
+     */
+    public void evict(String token) {
+        if (token != null) books.remove(token);
+    }
+
+    private Book read(Book book) {
+        Book cached = getCached(book.token);
+        if (cached != null) return cached;
+
+        Book local = BookApi.getBookFormJson(context, book);
+        //本地没有时返回的就是传入的book,不放入内存
+        if (local != book && local.token != null) books.put(local.token, copy(local));
+        return local;
+    }
+
+    /**
+     * page列表也复制一份,UI中刷新page不会影响内存中的数据
+     *
+     * @param book
+     * @return
+     */
+    static Book copy(Book book) {
+        Book copy = new Book();
+        copy.token = book.token;
+        copy.name = book.name;
+        copy.count = book.count;
+        copy.rating = book.rating;
+        copy.date = book.date;
+        copy.pages = book.pages == null ? null : new CompactPageList(book.pages);
+        copy.position = book.position;
+        copy.recent = book.recent;
+        copy.status = book.status;
+        copy.downloadedPosition = book.downloadedPosition;
+        return copy;
+    }
+}
@@ -0,0 +1,37 @@
+package com.fanhl.doujinMoe.util;
+
+import com.fanhl.doujinMoe.api.BaseApi;
+
+import java.util.concurrent.Callable;
+
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * 先发送缓存的内容,缓存没有或已过期时再从服务器取得,内容有变化时再发送一次
+ * <p>
+ * 页面打开时马上显示上次的内容,不用等网络;更新失败时已显示的内容保持不变,只通知错误.
+ */
+public class CacheThenNetwork {
+    /**
+     * @param cache   取得缓存,没有时返回null
+     * @param network 从服务器取得,与缓存相同时返回null
+     * @param force   缓存未过期也从服务器取得(下拉刷新)
+     * @return 在io线程中执行
+     */
+    public static <T> Observable<T> create(Callable<BaseApi.Cached<T>> cache, Callable<T> network, boolean force) {
+        return Observable.<T>create(subscriber -> {
+            try {
+                BaseApi.Cached<T> cached = cache.call();
+                if (cached != null) subscriber.onNext(cached.value);
+                if (cached == null || !cached.fresh || force) {
+                    T value = network.call();
+                    if (value != null) subscriber.onNext(value);
+                }
+                subscriber.onCompleted();
+            } catch (Exception e) {
+                subscriber.onError(e);
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+}
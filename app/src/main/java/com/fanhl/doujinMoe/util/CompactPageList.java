@@ -0,0 +1,274 @@
+package com.fanhl.doujinMoe.util;
+
+import com.fanhl.doujinMoe.model.Page;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * 节省内存的page列表
+ * <p>
+ * url拆成 前缀(如 http://static.doujin-moe.us/t-) + id + 后缀(如 .jpg),
+ * 前缀和后缀放在所有列表共用的表中,每个page只保存表中的序号(short)和id.
+ * href与preview的id相同时(通常如此)只保存一份.表已满时不再登记,整个url作为id保存.
+ * get时生成新的Page,修改取得的Page不会影响列表,需要修改时用set;
+ * 只用到url时用getPreview/getHref(或preview/href),不生成Page.
+ */
+public class CompactPageList extends AbstractList<Page> implements RandomAccess {
+    private static final StringTable PREFIXES = new StringTable();
+    private static final StringTable SUFFIXES = new StringTable();
+
+    private static final short FULL_URL = -1;
+
+    /*表中的序号+1,0表示url为null,FULL_URL表示id就是整个url*/
+    private short[]  previewPrefixes;
+    private short[]  previewSuffixes;
+    private short[]  hrefPrefixes;
+    private short[]  hrefSuffixes;
+    private String[] previewIds;
+    /*null且hrefPrefixes不为0时表示与previewIds相同*/
+    private String[] hrefIds;
+    private int      size;
+
+    public CompactPageList() {
+        this(0);
+    }
+
+    public CompactPageList(int capacity) {
+        previewPrefixes = new short[capacity];
+        previewSuffixes = new short[capacity];
+        hrefPrefixes = new short[capacity];
+        hrefSuffixes = new short[capacity];
+        previewIds = new String[capacity];
+        hrefIds = new String[capacity];
+    }
+
+    public CompactPageList(Collection<? extends Page> pages) {
+        this(pages.size());
+        addAll(pages);
+    }
+
+    /**
+     * 列表中page的preview,不生成Page
+     *
+     * @param pages
+     * @param index
+     * @return
+     */
+    public static String preview(List<Page> pages, int index) {
+        if (pages instanceof CompactPageList) return ((CompactPageList) pages).getPreview(index);
+        Page page = pages.get(index);
+        return page == null ? null : page.preview;
+    }
+
+    /**
+     * 列表中page的href,不生成Page
+     *
+     * @param pages
+     * @param index
+     * @return
+     */
+    public static String href(List<Page> pages, int index) {
+        if (pages instanceof CompactPageList) return ((CompactPageList) pages).getHref(index);
+        Page page = pages.get(index);
+        return page == null ? null : page.href;
+    }
+
+    @Override
+    public Page get(int index) {
+        Page page = new Page();
+        page.preview = getPreview(index);
+        page.href = getHref(index);
+        return page;
+    }
+
+    public String getPreview(int index) {
+        checkIndex(index, size);
+        return toUrl(previewPrefixes[index], previewIds[index], previewSuffixes[index]);
+    }
+
+    public String getHref(int index) {
+        checkIndex(index, size);
+        return toUrl(hrefPrefixes[index], hrefIds[index] != null ? hrefIds[index] : previewIds[index], hrefSuffixes[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Page set(int index, Page page) {
+        Page old = get(index);
+        store(index, page);
+        return old;
+    }
+
+    @Override
+    public void add(int index, Page page) {
+        checkIndex(index, size + 1);
+        ensureCapacity(size + 1);
+        int moved = size - index;
+        if (moved > 0) {
+            System.arraycopy(previewPrefixes, index, previewPrefixes, index + 1, moved);
+            System.arraycopy(previewSuffixes, index, previewSuffixes, index + 1, moved);
+            System.arraycopy(hrefPrefixes, index, hrefPrefixes, index + 1, moved);
+            System.arraycopy(hrefSuffixes, index, hrefSuffixes, index + 1, moved);
+            System.arraycopy(previewIds, index, previewIds, index + 1, moved);
+            System.arraycopy(hrefIds, index, hrefIds, index + 1, moved);
+        }
+        size++;
+        store(index, page);
+        modCount++;
+    }
+
+    @Override
+    public Page remove(int index) {
+        Page old   = get(index);
+        int  moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(previewPrefixes, index + 1, previewPrefixes, index, moved);
+            System.arraycopy(previewSuffixes, index + 1, previewSuffixes, index, moved);
+            System.arraycopy(hrefPrefixes, index + 1, hrefPrefixes, index, moved);
+            System.arraycopy(hrefSuffixes, index + 1, hrefSuffixes, index, moved);
+            System.arraycopy(previewIds, index + 1, previewIds, index, moved);
+            System.arraycopy(hrefIds, index + 1, hrefIds, index, moved);
+        }
+        size--;
+        previewIds[size] = null;
+        hrefIds[size] = null;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(previewIds, 0, size, null);
+        Arrays.fill(hrefIds, 0, size, null);
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * 去掉多余的容量
+     */
+    public void trimToSize() {
+        if (previewIds.length == size) return;
+        resize(size);
+    }
+
+    private void store(int index, Page page) {
+        String preview = page == null ? null : page.preview;
+        String href    = page == null ? null : page.href;
+
+        String previewId = null;
+        if (preview == null) {
+            previewPrefixes[index] = 0;
+            previewSuffixes[index] = 0;
+        } else {
+            short[] parts = new short[2];
+            previewId = split(preview, parts);
+            previewPrefixes[index] = parts[0];
+            previewSuffixes[index] = parts[1];
+        }
+        previewIds[index] = previewId;
+
+        if (href == null) {
+            hrefPrefixes[index] = 0;
+            hrefSuffixes[index] = 0;
+            hrefIds[index] = null;
+        } else {
+            short[] parts  = new short[2];
+            String  hrefId = split(href, parts);
+            hrefPrefixes[index] = parts[0];
+            hrefSuffixes[index] = parts[1];
+            hrefIds[index] = hrefId.equals(previewId) ? null : hrefId;
+        }
+    }
+
+    /**
+     * 把url拆成前缀,后缀在表中的序号(放入parts)及id.表已满时序号为FULL_URL,id为整个url
+     *
+     * @param url
+     * @param parts
+     * @return id
+     */
+    private static String split(String url, short[] parts) {
+        int   prefixEnd   = BookBinaryFormat.prefixEnd(url);
+        int   suffixStart = BookBinaryFormat.suffixStart(url, prefixEnd);
+        short prefix      = PREFIXES.indexOf(url.substring(0, prefixEnd));
+        short suffix      = prefix == FULL_URL ? FULL_URL : SUFFIXES.indexOf(url.substring(suffixStart));
+        if (prefix == FULL_URL || suffix == FULL_URL) {
+            parts[0] = FULL_URL;
+            parts[1] = FULL_URL;
+            return url;
+        }
+        parts[0] = prefix;
+        parts[1] = suffix;
+        return copyOf(url.substring(prefixEnd, suffixStart));
+    }
+
+    /**
+     * 旧版本Android的substring与原字符串共用char数组,复制一份以免整个url留在内存中
+     *
+     * @param id
+     * @return
+     */
+    @SuppressWarnings("RedundantStringConstructorCall")
+    private static String copyOf(String id) {
+        return new String(id);
+    }
+
+    private static String toUrl(short prefix, String id, short suffix) {
+        if (prefix == 0) return null;
+        if (prefix == FULL_URL) return id;
+        return PREFIXES.get(prefix) + id + SUFFIXES.get(suffix);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= previewIds.length) return;
+        resize(Math.max(capacity, previewIds.length + (previewIds.length >> 1) + 1));
+    }
+
+    private void resize(int capacity) {
+        previewPrefixes = Arrays.copyOf(previewPrefixes, capacity);
+        previewSuffixes = Arrays.copyOf(previewSuffixes, capacity);
+        hrefPrefixes = Arrays.copyOf(hrefPrefixes, capacity);
+        hrefSuffixes = Arrays.copyOf(hrefSuffixes, capacity);
+        previewIds = Arrays.copyOf(previewIds, capacity);
+        hrefIds = Arrays.copyOf(hrefIds, capacity);
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + bound);
+    }
+
+    /**
+     * 只增不减的字符串表,序号从1开始,最多Short.MAX_VALUE个
+     */
+    private static class StringTable {
+        private final List<String>         strings = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        synchronized short indexOf(String s) {
+            Integer index = indexes.get(s);
+            if (index == null) {
+                if (strings.size() >= Short.MAX_VALUE) return FULL_URL;
+                strings.add(s);
+                index = strings.size();
+                indexes.put(s, index);
+            }
+            return index.shortValue();
+        }
+
+        synchronized String get(short index) {
+            return strings.get(index - 1);
+        }
+    }
+}
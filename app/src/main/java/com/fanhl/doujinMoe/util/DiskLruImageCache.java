@@ -0,0 +1,365 @@
+package com.fanhl.doujinMoe.util;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按总大小限制的磁盘LRU图片缓存
+ * <p>
+ * 以url的MD5作为文件名.每次写入都先写到临时文件,完成后再重命名,不会读到写了一半的图片.
+ * 访问顺序记录在journal中(CLEAN 写入, READ 读取, REMOVE 删除),打开时按journal重放恢复LRU顺序,
+ * 多余的记录过多时整理重写journal.
+ */
+public class DiskLruImageCache {
+    public static final String TAG = DiskLruImageCache.class.getSimpleName();
+
+    static final String JOURNAL_FILENAME = "journal";
+    static final String JOURNAL_HEADER   = "djm.DiskLruImageCache 1";
+
+    private static final String CLEAN  = "CLEAN";
+    private static final String READ   = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    /*journal中无用记录超过这个数(且多于有效条目)时重写*/
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final File dir;
+    private final File journalFile;
+    private final long maxSize;
+
+    /*key -> 文件大小,按访问顺序排列*/
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(0, 0.75f, true);
+
+    private Writer journalWriter;
+    private long   size;
+    private int    redundantOpCount;
+
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    public DiskLruImageCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        journalFile = new File(dir, JOURNAL_FILENAME);
+    }
+
+    /**
+     * 缓存中的文件,没有时返回null
+     *
+     * @param url
+     * @return
+     */
+    public synchronized File get(String url) {
+        if (!open()) return null;
+
+        String key  = toKey(url);
+        Long   size = entries.get(key);
+        File   file = new File(dir, key);
+        if (size == null || !file.isFile()) {
+            if (size != null) removeEntry(key);
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        appendJournal(READ, key, -1);
+        return file;
+    }
+
+    public synchronized boolean contains(String url) {
+        if (!open()) return false;
+        return entries.containsKey(toKey(url));
+    }
+
+    /**
+     * 写入缓存(读完in为止),成功时返回缓存中的文件
+     *
+     * @param url
+     * @param in
+     * @return
+     */
+    public File put(String url, InputStream in) {
+        synchronized (this) {
+            if (!open()) return null;
+        }
+
+        //写临时文件时不占用锁,其它线程可以继续读缓存
+        String       key     = toKey(url);
+        File         tmpFile = new File(dir, key + "." + Thread.currentThread().getId() + FileUtil.TMP_SUFFIX);
+        OutputStream out     = null;
+        long         length  = 0;
+        try {
+            out = new FileOutputStream(tmpFile);
+            length = FileUtil.copy(in, out);
+        } catch (IOException e) {
+            Log.d(TAG, "写入缓存失败:" + url);
+            close(out);
+            tmpFile.delete();
+            return null;
+        }
+        if (!close(out)) {
+            tmpFile.delete();
+            return null;
+        }
+
+        synchronized (this) {
+            File file = new File(dir, key);
+            if (!tmpFile.renameTo(file)) {
+                Log.d(TAG, "重命名缓存文件失败:" + url);
+                tmpFile.delete();
+                return null;
+            }
+
+            Long old = entries.put(key, length);
+            if (old != null) {
+                size -= old;
+                redundantOpCount++;
+            }
+            size += length;
+            putCount++;
+            appendJournal(CLEAN, key, length);
+            trimToSize();
+            return entries.containsKey(key) ? file : null;
+        }
+    }
+
+    public synchronized boolean remove(String url) {
+        if (!open()) return false;
+        return removeEntry(toKey(url));
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getPutCount() {
+        return putCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 命中率(0~1),还没有访问时为0
+     *
+     * @return
+     */
+    public synchronized float getHitRate() {
+        int total = hitCount + missCount;
+        return total == 0 ? 0 : (float) hitCount / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DiskLruImageCache[size=%d/%d,hits=%d,misses=%d,hitRate=%.2f,evictions=%d]",
+                size, maxSize, hitCount, missCount, getHitRate(), evictionCount);
+    }
+
+    private boolean open() {
+        if (journalWriter != null) return true;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.d(TAG, "缓存目录不可用:" + dir);
+            return false;
+        }
+
+        if (journalFile.isFile()) {
+            readJournal();
+            removeOrphans();
+            trimToSize();
+        }
+        return rebuildJournal();
+    }
+
+    /**
+     * 重放journal,恢复条目及访问顺序
+     */
+    private void readJournal() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(journalFile), BUFFER_SIZE);
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                Log.d(TAG, "journal版本不一致,清空缓存.");
+                return;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length < 2) continue;
+                String op  = parts[0];
+                String key = parts[1];
+                if (CLEAN.equals(op) && parts.length == 3) {
+                    Long old = entries.put(key, Long.parseLong(parts[2]));
+                    if (old != null) size -= old;
+                    size += Long.parseLong(parts[2]);
+                } else if (READ.equals(op)) {
+                    entries.get(key);
+                } else if (REMOVE.equals(op)) {
+                    Long old = entries.remove(key);
+                    if (old != null) size -= old;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            //最后一行可能写到一半,之前的记录仍然有效
+            Log.d(TAG, "读取journal中断:" + e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * 删除journal中不存在的文件,以及journal中有记录但文件已丢失的条目
+     */
+    private void removeOrphans() {
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (JOURNAL_FILENAME.equals(name) || entries.containsKey(name)) continue;
+                new File(dir, name).delete();
+            }
+        }
+
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (!new File(dir, entry.getKey()).isFile()) {
+                size -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 只保留有效条目,按访问顺序重写journal
+     *
+     * @return
+     */
+    private boolean rebuildJournal() {
+        close(journalWriter);
+        journalWriter = null;
+
+        File   tmpFile = new File(journalFile.getPath() + FileUtil.TMP_SUFFIX);
+        Writer writer  = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(tmpFile), BUFFER_SIZE);
+            writer.write(JOURNAL_HEADER + "\n");
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "重写journal失败.");
+            close(writer);
+            tmpFile.delete();
+            return false;
+        }
+        if (!close(writer) || !tmpFile.renameTo(journalFile)) {
+            tmpFile.delete();
+            return false;
+        }
+
+        try {
+            journalWriter = new BufferedWriter(new FileWriter(journalFile, true), BUFFER_SIZE);
+        } catch (IOException e) {
+            Log.d(TAG, "打开journal失败.");
+            return false;
+        }
+        redundantOpCount = 0;
+        return true;
+    }
+
+    private void appendJournal(String op, String key, long length) {
+        if (journalWriter == null) return;
+        try {
+            journalWriter.write(length < 0 ? op + " " + key + "\n" : op + " " + key + " " + length + "\n");
+            journalWriter.flush();
+        } catch (IOException e) {
+            Log.d(TAG, "写入journal失败.");
+        }
+
+        if (!CLEAN.equals(op)) redundantOpCount++;
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private boolean removeEntry(String key) {
+        Long old = entries.remove(key);
+        if (old == null) return false;
+
+        File file = new File(dir, key);
+        if (file.exists() && !file.delete()) Log.d(TAG, "删除缓存文件失败:" + key);
+        size -= old;
+        redundantOpCount++;
+        appendJournal(REMOVE, key, -1);
+        return true;
+    }
+
+    /**
+     * 从最久未访问的开始删除,直到总大小不超过上限
+     */
+    private void trimToSize() {
+        while (size > maxSize && !entries.isEmpty()) {
+            String eldest = entries.keySet().iterator().next();
+            removeEntry(eldest);
+            evictionCount++;
+        }
+    }
+
+    static String toKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[]        bytes  = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder sb     = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+
+    private static boolean close(Closeable closeable) {
+        if (closeable == null) return true;
+        try {
+            closeable.close();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.fanhl.doujinMoe.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 从详细页,排行榜的html中逐个取出&lt;djm&gt;标签的thumb和file属性
+ * <p>
+ * 不生成DOM,边读边解析,每读到一个djm标签马上通知,响应还没读完时就可以显示前面的预览图.
+ * 只处理取这两个属性需要的部分:注释,script/style的内容跳过,属性值中的常用字符实体会转换,
+ * 找到的容器元素结束时不再往下读.
+ * 另外可以只取出&lt;head&gt;中&lt;title&gt;的文字(extractTitle),读到&lt;body&gt;为止.
+ */
+public class DjmExtractor {
+    public static final String TAG_DJM = "djm";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private       int    position;
+    private       int    limit;
+    /*退回的一个字符,没有时为-1*/
+    private       int    pushback = -1;
+
+    /*标签名,属性名(小写)*/
+    private final StringBuilder tagName  = new StringBuilder();
+    private final StringBuilder attrName = new StringBuilder();
+    private final StringBuilder value    = new StringBuilder();
+
+    /*当前标签中需要的属性*/
+    private String  id;
+    private String  thumb;
+    private String  file;
+    private boolean selfClosing;
+
+    /**
+     * 取出id为containerId的元素中所有djm标签的属性
+     *
+     * @param reader
+     * @param containerId 容器元素的id
+     * @param listener    每个djm标签调用一次,属性没有时为""
+     * @return djm标签的个数,没有找到容器元素时返回-1
+     * @throws IOException
+     */
+    public static int extract(Reader reader, String containerId, OnDjmListener listener) throws IOException {
+        return new DjmExtractor(reader).run(containerId, listener);
+    }
+
+    /**
+     * 取出&lt;title&gt;的文字(字符实体已转换,去掉首尾空白)
+     *
+     * @param reader
+     * @return 在&lt;body&gt;之前没有title时返回null
+     * @throws IOException
+     */
+    public static String extractTitle(Reader reader) throws IOException {
+        return new DjmExtractor(reader).runTitle();
+    }
+
+    private DjmExtractor(Reader reader) {
+        this.reader = reader;
+    }
+
+    private int run(String containerId, OnDjmListener listener) throws IOException {
+        String containerTag = null;
+        int    depth        = 0;
+        int    count        = 0;
+        int    c;
+        while ((c = read()) != -1) {
+            if (c != '<') continue;
+
+            c = read();
+            if (c == '!') {
+                skipDeclaration();
+                continue;
+            }
+            if (c == '?') {
+                skipTo('>');
+                continue;
+            }
+            boolean endTag = c == '/';
+            if (endTag) c = read();
+            if (!isLetter(c)) {
+                //不是标签的'<'
+                unread(c);
+                continue;
+            }
+
+            readTagName(c);
+            if (endTag) {
+                skipTo('>');
+                if (containerTag != null && isName(tagName, containerTag) && --depth == 0) return count;
+                continue;
+            }
+
+            boolean djm = containerTag != null && isName(tagName, TAG_DJM);
+            readAttributes(containerTag == null, djm);
+
+            if (containerTag == null) {
+                if (containerId.equals(id) && !selfClosing) {
+                    containerTag = tagName.toString();
+                    depth = 1;
+                }
+            } else if (djm) {
+                listener.onDjm(thumb == null ? "" : thumb, file == null ? "" : file);
+                count++;
+            } else if (!selfClosing && isName(tagName, containerTag)) {
+                depth++;
+            }
+
+            if (selfClosing) continue;
+            if (isName(tagName, "script")) {
+                skipRawText("script");
+            } else if (isName(tagName, "style")) {
+                skipRawText("style");
+            }
+        }
+        return containerTag == null ? -1 : count;
+    }
+
+    private String runTitle() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') continue;
+
+            c = read();
+            if (c == '!') {
+                skipDeclaration();
+                continue;
+            }
+            if (c == '?') {
+                skipTo('>');
+                continue;
+            }
+            boolean endTag = c == '/';
+            if (endTag) c = read();
+            if (!isLetter(c)) {
+                unread(c);
+                continue;
+            }
+
+            readTagName(c);
+            if (endTag) {
+                skipTo('>');
+                continue;
+            }
+            if (isName(tagName, "body")) return null;
+            readAttributes(false, false);
+            if (selfClosing) continue;
+            if (isName(tagName, "title")) {
+                StringBuilder text = new StringBuilder();
+                readRawText("title", text);
+                return decodeEntities(text).trim();
+            } else if (isName(tagName, "script")) {
+                skipRawText("script");
+            } else if (isName(tagName, "style")) {
+                skipRawText("style");
+            }
+        }
+        return null;
+    }
+
+    private int read() throws IOException {
+        if (pushback != -1) {
+            int c = pushback;
+            pushback = -1;
+            return c;
+        }
+        if (position == limit) {
+            limit = reader.read(buffer, 0, BUFFER_SIZE);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private void unread(int c) {
+        pushback = c;
+    }
+
+    private void skipTo(char end) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != end);
+    }
+
+    /**
+     * &lt;!--注释--&gt; 或 &lt;!DOCTYPE ...&gt;
+     */
+    private void skipDeclaration() throws IOException {
+        int c = read();
+        if (c != '-') {
+            if (c != '>') skipTo('>');
+            return;
+        }
+        c = read();
+        if (c != '-') {
+            if (c != '>') skipTo('>');
+            return;
+        }
+        int dashes = 0;
+        while ((c = read()) != -1) {
+            if (c == '>' && dashes >= 2) return;
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    /**
+     * 跳过script,style的内容,直到对应的结束标签
+     */
+    private void skipRawText(String tag) throws IOException {
+        readRawText(tag, null);
+    }
+
+    /**
+     * 读到对应的结束标签为止
+     *
+     * @param tag
+     * @param text 放入读到的内容(不含结束标签),为null时丢弃
+     * @throws IOException
+     */
+    private void readRawText(String tag, StringBuilder text) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') {
+                if (text != null) text.append((char) c);
+                continue;
+            }
+            c = read();
+            if (c != '/') {
+                if (text != null) text.append('<');
+                unread(c);
+                continue;
+            }
+            int i = 0;
+            while (i < tag.length() && (c = read()) != -1 && Character.toLowerCase((char) c) == tag.charAt(i)) {
+                i++;
+            }
+            if (i == tag.length()) {
+                skipTo('>');
+                return;
+            }
+            if (text != null) text.append("</").append(tag, 0, i);
+            unread(c);
+        }
+    }
+
+    private void readTagName(int first) throws IOException {
+        tagName.setLength(0);
+        int c = first;
+        while (c != -1 && !isWhitespace(c) && c != '>' && c != '/') {
+            tagName.append(Character.toLowerCase((char) c));
+            c = read();
+        }
+        unread(c);
+    }
+
+    /**
+     * 读到标签结束,只保留需要的属性
+     *
+     * @param wantId    需要id(还没找到容器元素)
+     * @param wantFiles 需要thumb和file(djm标签)
+     * @throws IOException
+     */
+    private void readAttributes(boolean wantId, boolean wantFiles) throws IOException {
+        id = null;
+        thumb = null;
+        file = null;
+        selfClosing = false;
+
+        int c;
+        while ((c = read()) != -1) {
+            if (isWhitespace(c)) continue;
+            if (c == '>') return;
+            if (c == '/') {
+                c = read();
+                if (c == '>') {
+                    selfClosing = true;
+                    return;
+                }
+                unread(c);
+                continue;
+            }
+
+            //属性名
+            attrName.setLength(0);
+            while (c != -1 && !isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+                attrName.append(Character.toLowerCase((char) c));
+                c = read();
+            }
+            while (isWhitespace(c)) {
+                c = read();
+            }
+            int attribute = wantId && isName(attrName, "id") ? 1
+                    : wantFiles && isName(attrName, "thumb") ? 2
+                    : wantFiles && isName(attrName, "file") ? 3 : 0;
+            if (c != '=') {
+                //没有值的属性
+                unread(c);
+                store(attribute, "");
+                continue;
+            }
+
+            //属性值
+            c = read();
+            while (isWhitespace(c)) {
+                c = read();
+            }
+            value.setLength(0);
+            if (c == '"' || c == '\'') {
+                int quote = c;
+                while ((c = read()) != -1 && c != quote) {
+                    if (attribute != 0) value.append((char) c);
+                }
+            } else {
+                while (c != -1 && !isWhitespace(c) && c != '>') {
+                    if (attribute != 0) value.append((char) c);
+                    c = read();
+                }
+                unread(c);
+            }
+            if (attribute != 0) store(attribute, decodeEntities(value));
+        }
+    }
+
+    private void store(int attribute, String s) {
+        //同名属性只用第一个
+        switch (attribute) {
+            case 1:
+                if (id == null) id = s;
+                break;
+            case 2:
+                if (thumb == null) thumb = s;
+                break;
+            case 3:
+                if (file == null) file = s;
+                break;
+        }
+    }
+
+    private static boolean isName(StringBuilder name, String s) {
+        if (name.length() != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (name.charAt(i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 转换属性值中的 &amp;amp; &amp;lt; &amp;gt; &amp;quot; &amp;apos; 和数字字符实体,其它的保持原样
+     *
+     * @param s
+     * @return
+     */
+    static String decodeEntities(CharSequence s) {
+        int amp = -1;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '&') {
+                amp = i;
+                break;
+            }
+        }
+        if (amp < 0) return s.toString();
+
+        StringBuilder sb = new StringBuilder(s.length());
+        sb.append(s, 0, amp);
+        int i = amp;
+        while (i < s.length()) {
+            char ch = s.charAt(i);
+            int  semi;
+            if (ch != '&' || (semi = indexOf(s, ';', i + 1, i + 10)) < 0) {
+                sb.append(ch);
+                i++;
+                continue;
+            }
+            int decoded = decodeEntity(s, i + 1, semi);
+            if (decoded < 0) {
+                sb.append(ch);
+                i++;
+                continue;
+            }
+            sb.appendCodePoint(decoded);
+            i = semi + 1;
+        }
+        return sb.toString();
+    }
+
+    private static int decodeEntity(CharSequence s, int start, int end) {
+        String entity = s.subSequence(start, end).toString();
+        switch (entity) {
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+        }
+        if (entity.length() < 2 || entity.charAt(0) != '#') return -1;
+        try {
+            boolean hex = entity.charAt(1) == 'x' || entity.charAt(1) == 'X';
+            int     cp  = hex ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+            return Character.isValidCodePoint(cp) ? cp : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int indexOf(CharSequence s, char ch, int from, int to) {
+        for (int i = from; i < s.length() && i < to; i++) {
+            if (s.charAt(i) == ch) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    public interface OnDjmListener {
+        /**
+         * @param thumb 预览图
+         * @param file  原图
+         */
+        void onDjm(String thumb, String file);
+    }
+}
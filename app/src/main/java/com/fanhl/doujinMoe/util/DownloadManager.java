@@ -158,7 +158,6 @@ public class DownloadManager {
                 if (isAllDownloaded[0]) {
                     book.status = Book.Status.DOWNLOADED;
                     BookApi.saveBookJson(context, book);
-                    localManager.refresh();
                     onDownloadSuccessListener.onDownloadSuccess();
                 } else onDownloadFailListener.onDownloadFail();
             }
@@ -217,13 +216,13 @@ public class DownloadManager {
     /*判断当前书籍是否 加入 要下载列表 或者 正在下载中*/
     public boolean isAccepted(Book book) {// FIXME: 15/11/20 加锁?
         for (Book waitBook : waitBooks) {
-            if (waitBook.name.equals(book.name)) {
+            if (waitBook.isSameToken(book)) {
                 return true;
             }
         }
 
         if (downloadingBook != null) {
-            if (downloadingBook.name.equals(book.name)) {
+            if (downloadingBook.isSameToken(book)) {
                 return true;
             }
         }
@@ -1,6 +1,10 @@
 package com.fanhl.doujinMoe.util;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Environment;
 import android.util.Log;
@@ -8,24 +12,48 @@ import android.util.Log;
 import com.fanhl.doujinMoe.api.PageApi;
 import com.fanhl.doujinMoe.model.Book;
 import com.fanhl.doujinMoe.model.Page;
-import com.fanhl.util.GsonUtil;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class FileCacheManager {
     private static final String TAG            = FileCacheManager.class.getSimpleName();
     public static final  String PROJECT_FOLDER = "Doujin-Moe";
     public static final  String IMAGE_FOLDER   = "images";
-
-    public static final String BOOK_JSON_FILENAME = "book.json";
+    public static final  String IMAGE_CACHE_FOLDER = "image_cache";
+    /*封面/缩略图磁盘缓存的上限*/
+    public static final  long   IMAGE_CACHE_SIZE   = 50 * 1024 * 1024;
+
+    /*旧格式,读到时迁移为book.bin*/
+    public static final String BOOK_JSON_FILENAME     = "book.json";
+    public static final String BOOK_BIN_FILENAME      = "book.bin";
+    public static final String LIBRARY_INDEX_FILENAME = "library.idx";
+    /*书库目录中 目录名->书名 的对照表*/
+    public static final String NAMES_FILENAME         = "names.txt";
+    /*按书名存放的旧目录已全部迁移*/
+    public static final String MIGRATION_DONE_FILENAME = "library_migrated";
 
     private static FileCacheManager mInstance;
 
     private File mCacheDir, mExternalDir;
 
+    private final Resources resources;
+    /*封面,缩略图的磁盘缓存*/
+    private final DiskLruImageCache imageCache;
+
+    /*本地书籍索引*/
+    private final LibraryIndex libraryIndex;
+    /*旧目录的迁移*/
+    private final LibraryMigrator libraryMigrator;
+    /*阅读进度,比book.bin中的新*/
+    private final ProgressStore   progressStore;
+    /*token -> 已下载的page(第一次用到时列一次目录生成,之后随下载更新)*/
+    private final Map<String, BitSet> downloadedPages = new HashMap<>();
+
     public static FileCacheManager getInstance(Context context) {
         if (mInstance == null) {
             mInstance = new FileCacheManager(context);
@@ -47,6 +75,11 @@ public class FileCacheManager {
         if (mExternalDir == null) {
             mExternalDir = new File(Environment.getExternalStorageDirectory().getPath(), PROJECT_FOLDER);
         }
+        resources = context.getResources();
+        imageCache = new DiskLruImageCache(new File(mCacheDir, IMAGE_CACHE_FOLDER), IMAGE_CACHE_SIZE);
+        libraryIndex = new LibraryIndex(new File(context.getFilesDir(), LIBRARY_INDEX_FILENAME), mExternalDir, new File(mExternalDir, NAMES_FILENAME));
+        progressStore = ProgressStore.getInstance(context);
+        libraryMigrator = new LibraryMigrator(mExternalDir, new File(context.getFilesDir(), MIGRATION_DONE_FILENAME));
     }
 
     /**
@@ -56,47 +89,99 @@ public class FileCacheManager {
      * @return
      */
     public boolean isCached(String loadUri) {
-        // FIXME: 15/11/19
-        return false;
+        return imageCache.contains(loadUri);
     }
 
     public Drawable getCachedDrawable(String url) {
-        if (!isCached(url)) {
+        File file = imageCache.get(url);
+        if (file == null) {
             return null;
         }
 
-        // FIXME: 15/11/19
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            Log.d(TAG, "缓存的图片无法解码:" + url);
+            imageCache.remove(url);
+            return null;
+        }
+        return new BitmapDrawable(resources, bitmap);
+    }
 
-        return null;
+    public DiskLruImageCache getImageCache() {
+        return imageCache;
     }
 
     public File getmCacheDir() {
         return mCacheDir;
     }
 
+    /**
+     * 书库目录(不存在时创建)
+     *
+     * @return
+     */
+    public File getLibraryDir() {
+        if (!mExternalDir.isDirectory() && !mExternalDir.mkdirs()) Log.d(TAG, "生成书库目录失败.");
+        return mExternalDir;
+    }
+
+    public LibraryMigrator getLibraryMigrator() {
+        return libraryMigrator;
+    }
+
     public File createBookDir(Book book) {
         Log.d(TAG, "生成书籍存放路径(若有则直接返回):" + book);
-        File bookDir = new File(mExternalDir, book.name);// FIXME: 15/11/17 是否需要 replace 特殊字符
+        File bookDir = getBookDir(book);
+        if (bookDir != null) return bookDir;
 
-        if (bookDir.exists() && bookDir.isDirectory()) {
-            return bookDir;
+        if (book.token == null) {
+            Log.d(TAG, "书籍没有token,无法生成存放路径:" + book);
+            return null;
         }
+        bookDir = new File(getLibraryDir(), LibraryMigrator.toDirName(book.token));
+        long libraryModified = mExternalDir.lastModified();
         if (bookDir.mkdirs()) {
+            libraryIndex.onLibraryDirModified(libraryModified);
             return bookDir;
         }
         Log.d(TAG, "生成书籍存放路径失败:" + book);
         return null;
     }
 
+    /**
+     * 书籍目录以token命名.旧版本按书名存放的目录在第一次用到时移动过来
+     *
+     * @param book
+     * @return
+     */
     private File getBookDir(Book book) {
-        Log.d(TAG, "获取书籍存放路径(若无则返回null):" + book);
-        File bookDir = new File(mExternalDir, book.name);// FIXME: 15/11/17 是否需要 replace 特殊字符
+        if (book.token == null) return null;
+        File bookDir = new File(mExternalDir, LibraryMigrator.toDirName(book.token));
+        if (bookDir.isDirectory()) return bookDir;
+
+        File legacyDir = libraryMigrator.getLegacyDir(book);
+        if (legacyDir == null) return null;
+
+        long libraryModified = mExternalDir.lastModified();
+        File migrated        = libraryMigrator.migrate(legacyDir, book.token);
+        if (migrated == null) return legacyDir;
+        libraryIndex.onLibraryDirModified(libraryModified);
+        return migrated;
+    }
 
-        if (bookDir.exists() && bookDir.isDirectory()) {
-            return bookDir;
+    /**
+     * 取得书籍缩略图集的存放路径.已下载的书籍放在书籍目录下,其它放在缓存目录中
+     *
+     * @param book
+     * @return
+     */
+    public File getAtlasDir(Book book) {
+        if (book.isDownloaded()) {
+            File bookDir = getBookDir(book);
+            if (bookDir != null) return new File(bookDir, ThumbnailAtlas.ATLAS_FOLDER);
         }
-
-        return null;
+        if (book.token == null) return null;
+        return new File(new File(mCacheDir, ThumbnailAtlas.ATLAS_FOLDER), book.token);
     }
 
     public File createBookImagesDir(Book book) {
@@ -135,20 +220,46 @@ public class FileCacheManager {
         return null;
     }
 
+    /**
+     * 从本地取得完整的book信息(book.bin,没有时读取旧的book.json并迁移),取不到时返回传入的book
+     *
+     * @param book
+     * @return
+     */
     public Book getBookFormJson(Book book) {
-        Log.d(TAG, "从json中取得book信息:" + book.name);
-        File bookDir  = getBookDir(book);
-        File bookFile = new File(bookDir, BOOK_JSON_FILENAME);
-        if (bookFile.exists() && bookFile.isFile()) {
-            String bookJson = FileUtil.readFile(bookFile);
-            Book book1 = GsonUtil.obj(bookJson, Book.class);
-            Log.d(TAG, "取得json成功");
-            return book1;
-        }
-        Log.d(TAG, "取得json失败");
+        Log.d(TAG, "从本地取得book信息:" + book.name);
+        File bookDir = getBookDir(book);
+        if (bookDir == null) {
+            Log.d(TAG, "取得book信息失败");
+            return book;
+        }
+
+        Book local = BookBinaryFormat.read(new File(bookDir, BOOK_BIN_FILENAME));
+        if (local == null) local = migrateBookJson(bookDir);
+        if (local != null) {
+            Log.d(TAG, "取得book信息成功");
+            return applyProgress(local);
+        }
+        Log.d(TAG, "取得book信息失败");
         return book;
     }
 
+    /**
+     * 读取旧格式的book.json,并转存为book.bin
+     *
+     * @param bookDir
+     * @return
+     */
+    private Book migrateBookJson(File bookDir) {
+        return BookBinaryFormat.migrateJson(new File(bookDir, BOOK_JSON_FILENAME), new File(bookDir, BOOK_BIN_FILENAME));
+    }
+
+    /**
+     * 保存书籍信息(book.bin)并更新书库索引
+     *
+     * @param book
+     * @return
+     */
     public boolean saveBookJson(Book book) {
         Log.d(TAG, "保存书籍:" + book.name);
         File bookDir = getBookDir(book);
@@ -158,34 +269,182 @@ public class FileCacheManager {
             return false;
         }
 
-        File f = new File(bookDir, BOOK_JSON_FILENAME);
+        if (!BookBinaryFormat.write(new File(bookDir, BOOK_BIN_FILENAME), book)) return false;
 
-        if (f.exists() && !f.delete()) {
-            Log.d(TAG, "删除旧的book.json失败");
-            return false;
-        }
+        File jsonFile = new File(bookDir, BOOK_JSON_FILENAME);
+        if (jsonFile.exists() && !jsonFile.delete()) Log.d(TAG, "删除旧的book.json失败");
 
+        if (!libraryIndex.upsert(book, getBookSize(book))) Log.d(TAG, "更新书库索引失败:" + book);
+        return true;
+    }
 
-        String json = GsonUtil.json(book);
+    /**
+     * 书籍图片占用的空间
+     *
+     * @param book
+     * @return
+     */
+    private long getBookSize(Book book) {
+        File bookImagesDir = getBookImagesDir(book);
+        if (bookImagesDir == null) return 0;
 
-        return FileUtil.writeFile(f, json);
+        long   size  = 0;
+        File[] files = bookImagesDir.listFiles();
+        if (files == null) return 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        return size;
     }
 
-    public boolean isPageDownloaded(Book book, int index) {
+    /**
+     * 书库索引中记录的书籍占用空间,不在书库中时返回-1
+     *
+     * @param token
+     * @return
+     */
+    public long getLocalBookSize(String token) {
+        if (!libraryIndex.isConsistent()) getLocalBooks();
+        LibraryIndex.Entry entry = libraryIndex.getEntry(token);
+        return entry == null ? -1 : entry.size;
+    }
+
+    /**
+     * 书库中所有书籍的占用空间
+     *
+     * @return token -> 占用空间
+     */
+    public Map<String, Long> getLocalBookSizes() {
+        if (!libraryIndex.isConsistent()) getLocalBooks();
+        return libraryIndex.getSizes();
+    }
+
+    /**
+     * 书籍最后写入图片的时间(下载完成后一直没读过的书以此代替最近阅读时间)
+     *
+     * @param book
+     * @return
+     */
+    public long getBookModified(Book book) {
         File bookImagesDir = getBookImagesDir(book);
-        if (bookImagesDir == null) return false;
+        return bookImagesDir == null ? 0 : bookImagesDir.lastModified();
+    }
+
+    /**
+     * 删除整个书籍目录并从书库索引中移除
+     *
+     * @param book
+     * @param listener 每删除一个文件通知一次,可以为null
+     * @return
+     */
+    public boolean deleteBook(Book book, FileUtil.OnFileDeletedListener listener) {
+        Log.d(TAG, "删除书籍:" + book);
+        File bookDir = getBookDir(book);
+        boolean deleted = bookDir == null || FileUtil.deleteDirectory(bookDir, listener);
+        invalidateDownloadedPages(book);
+        if (!deleted) {
+            Log.d(TAG, "删除书籍目录失败:" + bookDir);
+            return false;
+        }
+        if (!libraryIndex.remove(book.token)) Log.d(TAG, "更新书库索引失败:" + book);
+        return true;
+    }
 
+    public boolean isPageDownloaded(Book book, int index) {
         List<Page> pages = book.pages;
-        if (pages == null || index >= pages.size()) return false;
-        Page page = pages.get(index);
-        if (page == null || page.href == null) return false;
-        //page: http://static.doujin-moe.us/t-p9grmmtq.jpg
-        //1.jpg
-        String pageName = PageApi.getPageName(book, index);
+        if (pages == null || index < 0 || index >= pages.size()) return false;
+        if (CompactPageList.href(pages, index) == null) return false;
 
-        File pageFile = new File(bookImagesDir, pageName);
-        return pageFile.exists() && pageFile.isFile();
+        synchronized (downloadedPages) {
+            return getDownloadedPages(book).get(index);
+        }
+    }
+
+    /**
+     * 已下载的page数
+     *
+     * @param book
+     * @return
+     */
+    public int getDownloadedPageCount(Book book) {
+        int count = book.pages == null ? 0 : book.pages.size();
+        synchronized (downloadedPages) {
+            BitSet pages = getDownloadedPages(book);
+            //目录中可能有多出的文件,只计算书籍范围内的
+            return pages.length() <= count ? pages.cardinality() : pages.get(0, count).cardinality();
+        }
+    }
+
+    /**
+     * page图片已写入
+     *
+     * @param book
+     * @param index
+     */
+    public void markPageDownloaded(Book book, int index) {
+        synchronized (downloadedPages) {
+            getDownloadedPages(book).set(index);
+        }
+    }
+
+    /**
+     * page图片已删除
+     *
+     * @param book
+     * @param index
+     */
+    public void markPageDeleted(Book book, int index) {
+        synchronized (downloadedPages) {
+            getDownloadedPages(book).clear(index);
+        }
+    }
+
+    /**
+     * 书籍目录被整体删除或在外部变更时,丢弃记录的page状态,下次用到时重新列目录
+     *
+     * @param book
+     */
+    public void invalidateDownloadedPages(Book book) {
+        synchronized (downloadedPages) {
+            downloadedPages.remove(book.token);
+        }
+    }
 
+    private BitSet getDownloadedPages(Book book) {
+        BitSet pages = downloadedPages.get(book.token);
+        if (pages == null) {
+            pages = scanDownloadedPages(book);
+            downloadedPages.put(book.token, pages);
+        }
+        return pages;
+    }
+
+    /**
+     * 列一次图片目录,按文件名的序号(0001.jpg -> 0)记录已下载的page
+     *
+     * @param book
+     * @return
+     */
+    private BitSet scanDownloadedPages(Book book) {
+        BitSet pages         = new BitSet();
+        File   bookImagesDir = getBookImagesDir(book);
+        if (bookImagesDir == null) return pages;
+
+        String[] names = bookImagesDir.list();
+        if (names == null) return pages;
+        for (String name : names) {
+            //下载中的临时文件不算
+            if (name.endsWith(FileUtil.TMP_SUFFIX)) continue;
+            int dot = name.indexOf('.');
+            if (dot <= 0) continue;
+            try {
+                int number = Integer.parseInt(name.substring(0, dot));
+                if (number > 0) pages.set(number - 1);
+            } catch (NumberFormatException e) {
+                Log.d(TAG, "不是page图片:" + name);
+            }
+        }
+        return pages;
     }
 
     /**
@@ -212,24 +471,57 @@ public class FileCacheManager {
     }
 
     /**
-     * 取得本地书籍(已下载,喜爱...)
+     * 取得本地书籍(已下载,喜爱...)的摘要.
+     * 从书库索引中读取,索引不存在或与磁盘不一致时重新扫描重建.
      *
      * @return
      */
     public List<Book> getLocalBooks() {
-        List<Book> list = new ArrayList<>();
+        if (!libraryIndex.isConsistent()) {
+            List<LibraryScanner.Entry> entries = new LibraryScanner(LibraryScanner.defaultThreads(), BOOK_BIN_FILENAME, BOOK_JSON_FILENAME, IMAGE_FOLDER).scan(mExternalDir);
+            List<Book>                 books   = new ArrayList<>(entries.size());
+            long[]                     sizes   = new long[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                books.add(entries.get(i).book);
+                sizes[i] = entries.get(i).size;
+            }
+            if (!libraryIndex.rebuild(books, sizes)) Log.d(TAG, "保存书库索引失败.");
+            //书库在外部有变动,记录的page状态也可能已过期
+            synchronized (downloadedPages) {
+                downloadedPages.clear();
+            }
+        }
+        List<Book> books = libraryIndex.getBooks();
+        for (Book book : books) {
+            applyProgress(book);
+        }
+        return books;
+    }
 
-        File[] files = mExternalDir.listFiles(File::isDirectory);
-        if (files == null) return list;
-        Arrays.sort(files, (lhs, rhs) -> lhs.getName().compareTo(rhs.getName()));// FIXME: 15/11/20 不排序?
+    /**
+     * 从书库索引中取得一本书的摘要,不存在时返回null
+     *
+     * @param token
+     * @return
+     */
+    public Book getLocalBook(String token) {
+        if (!libraryIndex.isConsistent()) getLocalBooks();
+        LibraryIndex.Entry entry = libraryIndex.getEntry(token);
+        return entry == null ? null : applyProgress(entry.toBook());
+    }
 
-        for (File file : files) {
-            File bookJsonFile = new File(file, BOOK_JSON_FILENAME);
-            if (bookJsonFile.exists()) {
-                String bookJson = FileUtil.readFile(bookJsonFile);
-                list.add(GsonUtil.obj(bookJson, Book.class));
-            }
+    /**
+     * 阅读位置和最近阅读时间以进度记录为准
+     *
+     * @param book
+     * @return
+     */
+    private Book applyProgress(Book book) {
+        ProgressStore.Progress progress = progressStore.get(book.token);
+        if (progress != null) {
+            book.position = progress.position;
+            book.recent = progress.getRecent();
         }
-        return list;
+        return book;
     }
 }
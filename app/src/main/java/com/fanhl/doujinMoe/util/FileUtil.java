@@ -2,18 +2,52 @@ package com.fanhl.doujinMoe.util;
 
 import android.util.Log;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
+ * 文件读写
+ * <p>
+ * 书籍信息,索引等元数据都通过writeFileAtomic写入:先写临时文件并fsync,再重命名覆盖,
+ * 任何时候中断,原文件要么是旧的完整内容,要么是新的完整内容.
+ * 重命名不能覆盖已有文件时(部分外置存储),先把旧文件改名为.bak,读取时发现只剩.bak则恢复.
+ * 临时文件每次写入都用不同的名字(文件名.随机数.tmp),同一文件同时写入时不会互相覆盖;中断后留下的由之后的写入删除.
  * Created by fanhl on 15/11/17.
  */
 public class FileUtil {
-    public static final String TAG = FileUtil.class.getSimpleName();
+    public static final String TAG        = FileUtil.class.getSimpleName();
+    /*写入中的临时文件后缀*/
+    public static final String TMP_SUFFIX = ".tmp";
+    /*覆盖时暂存的旧文件后缀*/
+    public static final String BAK_SUFFIX = ".bak";
+
+    /*超过这个大小时用内存映射读取*/
+    static final int MAP_THRESHOLD = 256 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    /*每次写入channel的最大长度*/
+    private static final int WRITE_CHUNK = 64 * 1024;
+    /*比这更早的临时文件当作中断后留下的*/
+    static final long STALE_TMP_AGE = 10 * 60 * 1000;
+
+    /*复制流时每个线程复用的缓冲区*/
+    private static final ThreadLocal<byte[]> copyBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    /*测试用:在写入的各个步骤模拟中断*/
+    static volatile FaultInjector faultInjector;
 
     /**
      * 仅用于读取小文件(json文件)
@@ -22,40 +56,83 @@ public class FileUtil {
      * @return
      */
     public static String readFile(File file) {
-        if (file == null || !file.exists() || !file.isFile()) return null;
+        byte[] b = readBytes(file);
+        return b == null ? null : new String(b);
+    }
+
+    /**
+     * 读取文件的全部内容(循环读到文件末尾,较大的文件用内存映射)
+     *
+     * @param file
+     * @return
+     */
+    public static byte[] readBytes(File file) {
+        if (file == null || !recover(file)) return null;
 
-        InputStream ins = null;
+        FileInputStream ins = null;
         try {
             ins = new FileInputStream(file);
-            byte b[] = new byte[(int) file.length()];
-            ins.read(b);
+            FileChannel channel = ins.getChannel();
+            long        size    = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("文件过大:" + size);
 
-            return new String(b);
+            byte[] b = new byte[(int) size];
+            if (size >= MAP_THRESHOLD) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                mapped.get(b);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(b);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) == -1) throw new IOException("文件长度已变化:" + file);
+                }
+            }
+            return b;
         } catch (Exception e) {
             Log.d(TAG, "读取文件失败.");
             e.printStackTrace();
         } finally {
-            if (ins != null) {
-                try {
-                    ins.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            close(ins);
         }
 
         return null;
     }
 
+    /**
+     * 文件是否可读.上次覆盖时中断,只留下.bak时恢复为原文件
+     *
+     * @param file
+     * @return
+     */
+    public static boolean recover(File file) {
+        if (file.isFile()) return true;
+
+        File bakFile = new File(file.getPath() + BAK_SUFFIX);
+        if (!bakFile.isFile()) return false;
+        Log.d(TAG, "从.bak恢复文件:" + file);
+        return bakFile.renameTo(file);
+    }
+
     public static boolean deleteDirectory(File directory) {
+        return deleteDirectory(directory, null);
+    }
+
+    /**
+     * 逐个删除目录中的文件,每删除一个文件通知一次
+     *
+     * @param directory
+     * @param listener  可以为null
+     * @return
+     */
+    public static boolean deleteDirectory(File directory, OnFileDeletedListener listener) {
         if (directory.exists()) {
             File[] files = directory.listFiles();
             if (null != files) {
                 for (File file : files) {
                     if (file.isDirectory()) {
-                        deleteDirectory(file);
+                        deleteDirectory(file, listener);
                     } else {
-                        file.delete();
+                        long length = file.length();
+                        if (file.delete() && listener != null) listener.onFileDeleted(file, length);
                     }
                 }
             }
@@ -64,34 +141,174 @@ public class FileUtil {
     }
 
     /**
-     * 将文本(json小文本)
+     * 复制流直到in结束,使用当前线程复用的缓冲区
+     *
+     * @param in
+     * @param out
+     * @return 复制的字节数
+     * @throws IOException
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = copyBuffer.get();
+        long   length = 0;
+        int    read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * 先写入临时文件再重命名,避免写到一半时留下不完整的文件
      *
      * @param file
      * @param text
      * @return
      */
-    static boolean writeFile(File file, String text) {
-        return writeFile(file, text.getBytes());
+    public static boolean writeFileAtomic(File file, String text) {
+        return writeFileAtomic(file, text.getBytes());
+    }
+
+    public static boolean writeFileAtomic(File file, byte[] bytes) {
+        File tmpFile;
+        try {
+            tmpFile = File.createTempFile(file.getName() + ".", TMP_SUFFIX, file.getAbsoluteFile().getParentFile());
+        } catch (IOException e) {
+            Log.d(TAG, "生成临时文件失败:" + file);
+            return false;
+        }
+        if (!writeFileSync(tmpFile, bytes)) {
+            tmpFile.delete();
+            return false;
+        }
+        inject(FaultInjector.Step.BEFORE_RENAME);
+        if (canRenameOver() && tmpFile.renameTo(file)) {
+            deleteStaleTempFiles(file);
+            return true;
+        }
+
+        //不能覆盖时先移走旧文件,中断后由recover恢复
+        File bakFile = new File(file.getPath() + BAK_SUFFIX);
+        bakFile.delete();
+        if (file.exists() && !file.renameTo(bakFile)) {
+            Log.d(TAG, "重命名临时文件失败.");
+            tmpFile.delete();
+            return false;
+        }
+        inject(FaultInjector.Step.AFTER_BACKUP);
+        if (!tmpFile.renameTo(file)) {
+            Log.d(TAG, "重命名临时文件失败.");
+            bakFile.renameTo(file);
+            tmpFile.delete();
+            return false;
+        }
+        bakFile.delete();
+        deleteStaleTempFiles(file);
+        return true;
+    }
+
+    /**
+     * 删除这个文件中断后留下的临时文件(其它线程正在写的还很新,不删除)
+     *
+     * @param file
+     */
+    private static void deleteStaleTempFiles(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null) return;
+        String   prefix = file.getName() + ".";
+        String[] names  = dir.list();
+        if (names == null) return;
+        long threshold = System.currentTimeMillis() - STALE_TMP_AGE;
+        for (String name : names) {
+            if (!name.startsWith(prefix) || !name.endsWith(TMP_SUFFIX)) continue;
+            File tmpFile = new File(dir, name);
+            if (tmpFile.lastModified() < threshold && tmpFile.delete()) Log.d(TAG, "删除残留的临时文件:" + tmpFile);
+        }
     }
 
-    private static boolean writeFile(File file, byte[] bytes) {
-        OutputStream out = null;
+    /**
+     * 写入并fsync
+     */
+    private static boolean writeFileSync(File file, byte[] bytes) {
+        FileOutputStream out     = null;
+        boolean          written = false;
         try {
             out = new FileOutputStream(file);
-            out.write(bytes);
+            FileChannel channel = out.getChannel();
+            ByteBuffer  buffer  = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                buffer.limit(Math.min(bytes.length, buffer.position() + WRITE_CHUNK));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.limit(bytes.length);
+                inject(FaultInjector.Step.WRITE);
+            }
+            inject(FaultInjector.Step.BEFORE_SYNC);
+            channel.force(true);
+            written = true;
         } catch (IOException e) {
             e.printStackTrace();
             Log.d(TAG, "保存文件失败.");
-            return false;
         } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            if (!close(out)) written = false;
         }
-        return true;
+        return written;
+    }
+
+    private static boolean canRenameOver() {
+        FaultInjector injector = faultInjector;
+        return injector == null || injector.canRenameOver();
+    }
+
+    private static void inject(FaultInjector.Step step) {
+        FaultInjector injector = faultInjector;
+        if (injector != null) injector.onStep(step);
+    }
+
+    private static boolean close(Closeable closeable) {
+        if (closeable == null) return true;
+        try {
+            closeable.close();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 删除目录时的进度
+     */
+    public interface OnFileDeletedListener {
+        /**
+         * @param file
+         * @param length 删除前的文件大小
+         */
+        void onFileDeleted(File file, long length);
+    }
+
+    /**
+     * 测试用,在writeFileAtomic的各个步骤抛出异常模拟进程中断
+     */
+    interface FaultInjector {
+        enum Step {
+            /*写入了一部分临时文件*/
+            WRITE,
+            /*临时文件写完,还没fsync*/
+            BEFORE_SYNC,
+            /*临时文件已完成,还没重命名*/
+            BEFORE_RENAME,
+            /*旧文件已改名为.bak,新文件还没重命名*/
+            AFTER_BACKUP
+        }
+
+        void onStep(Step step);
+
+        /**
+         * 返回false时模拟重命名不能覆盖已有文件的存储
+         */
+        boolean canRenameOver();
     }
 }
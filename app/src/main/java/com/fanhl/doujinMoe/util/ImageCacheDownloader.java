@@ -0,0 +1,98 @@
+package com.fanhl.doujinMoe.util;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.fanhl.doujinMoe.api.common.DouJinMoeUrl;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.ResponseBody;
+import com.squareup.picasso.Downloader;
+import com.squareup.picasso.NetworkPolicy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picasso用的下载器
+ * <p>
+ * 封面和预览图先查磁盘缓存,没有时下载并写入缓存后再从缓存读出;page原图等其它图片直接下载,不进缓存.
+ */
+public class ImageCacheDownloader implements Downloader {
+    public static final String TAG = ImageCacheDownloader.class.getSimpleName();
+
+    private static final int TIME_OUT = 15;
+
+    private final DiskLruImageCache cache;
+    private final OkHttpClient      client;
+
+    public ImageCacheDownloader(DiskLruImageCache cache) {
+        this.cache = cache;
+        client = new OkHttpClient();
+        client.setConnectTimeout(TIME_OUT, TimeUnit.SECONDS);
+        client.setReadTimeout(TIME_OUT, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Response load(Uri uri, int networkPolicy) throws IOException {
+        String  url       = uri.toString();
+        boolean cacheable = DouJinMoeUrl.isCacheableImage(url);
+
+        if (cacheable && NetworkPolicy.shouldReadFromDiskCache(networkPolicy)) {
+            File file = cache.get(url);
+            if (file != null) return new Response(new FileInputStream(file), true, file.length());
+        }
+        if (NetworkPolicy.isOfflineOnly(networkPolicy)) {
+            throw new ResponseException("缓存中没有:" + url, networkPolicy, 504);
+        }
+
+        //封面和预览图是屏幕上的图片,其它的是阅读中的page原图
+        RequestScheduler.Priority priority = cacheable ? RequestScheduler.Priority.VISIBLE : RequestScheduler.Priority.READER;
+        if (cacheable && NetworkPolicy.shouldWriteToDiskCache(networkPolicy)) {
+            RequestScheduler.Permit permit = RequestScheduler.getInstance().acquire(priority, url);
+            File                    file;
+            try {
+                ResponseBody body = fetch(url, networkPolicy);
+                try {
+                    file = cache.put(url, body.byteStream());
+                } finally {
+                    body.close();
+                }
+            } finally {
+                permit.release();
+            }
+            if (file != null) return new Response(new FileInputStream(file), false, file.length());
+            Log.d(TAG, "写入缓存失败,重新下载:" + url);
+        }
+
+        //边读边解码,关闭流时释放许可
+        RequestScheduler.Permit permit = RequestScheduler.getInstance().acquire(priority, url);
+        ResponseBody            body;
+        long                    length;
+        try {
+            body = fetch(url, networkPolicy);
+            length = body.contentLength();
+        } catch (IOException e) {
+            permit.release();
+            throw e;
+        }
+        return new Response(permit.releaseOnClose(body.byteStream()), false, length);
+    }
+
+    private ResponseBody fetch(String url, int networkPolicy) throws IOException {
+        com.squareup.okhttp.Response response = client.newCall(new Request.Builder().url(url).build()).execute();
+        int                          code     = response.code();
+        if (code >= 300) {
+            response.body().close();
+            throw new ResponseException(code + " " + response.message(), networkPolicy, code);
+        }
+        return response.body();
+    }
+
+    @Override
+    public void shutdown() {
+        Log.d(TAG, cache.toString());
+    }
+}
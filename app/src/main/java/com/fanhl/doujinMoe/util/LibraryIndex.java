@@ -0,0 +1,358 @@
+package com.fanhl.doujinMoe.util;
+
+import android.util.Log;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 本地书籍的索引
+ * <p>
+ * 每本书只保存一行摘要(token,名字,状态,页数,最近阅读,阅读位置,占用空间,封面),
+ * 打开书库时只读这一个文件,不再逐个读取解析 book.json.
+ * 每次变更都整体重写到临时文件后再重命名,所以文件总是完整的.
+ * 文件中记录了书库目录的修改时间,与实际不一致(例如有书籍目录在外部被增删)时需要从磁盘重建.
+ * 书籍目录以token命名,另在书库目录中写一份 token->书名 的文本(names.txt),方便在文件管理器中查找.
+ */
+public class LibraryIndex {
+    public static final String TAG = LibraryIndex.class.getSimpleName();
+
+    private static final int MAGIC   = 0x444a4d4c;//DJML
+    private static final int VERSION = 1;
+    /*magic,version,书库修改时间,行数*/
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    private final File indexFile;
+    private final File libraryDir;
+    private final File namesFile;
+
+    private final Map<String, Entry> entries;
+
+    private boolean loaded;
+    /*书名有变动,需要重写names.txt*/
+    private boolean namesChanged;
+    /*写入索引时书库目录的修改时间*/
+    private long    libraryModified;
+
+    public LibraryIndex(File indexFile, File libraryDir, File namesFile) {
+        this.indexFile = indexFile;
+        this.libraryDir = libraryDir;
+        this.namesFile = namesFile;
+        entries = new HashMap<>();
+    }
+
+    /**
+     * 索引是否已读入且与书库目录一致
+     *
+     * @return
+     */
+    public synchronized boolean isConsistent() {
+        if (!loaded && !load()) return false;
+        return libraryModified == libraryDir.lastModified();
+    }
+
+    /**
+     * 用扫描磁盘得到的书籍重建索引
+     *
+     * @param books
+     * @param sizes 与books一一对应的占用空间
+     * @return
+     */
+    public synchronized boolean rebuild(List<Book> books, long[] sizes) {
+        Log.d(TAG, "重建书库索引:" + books.size());
+        entries.clear();
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            if (book == null || book.token == null) continue;
+            entries.put(book.token, Entry.from(book, sizes[i]));
+        }
+        loaded = true;
+        namesChanged = true;
+        return commit();
+    }
+
+    /**
+     * 书库目录由本应用修改(如新建书籍目录)后调用,
+     * 修改前索引与书库一致时只更新记录的修改时间,避免下次打开时无谓地重建
+     *
+     * @param modifiedBefore 修改前书库目录的修改时间
+     * @return
+     */
+    public synchronized boolean onLibraryDirModified(long modifiedBefore) {
+        if (!loaded && !load()) return false;
+        if (libraryModified != modifiedBefore) return false;
+        return commit();
+    }
+
+    /**
+     * 更新一本书的摘要.索引读不出来(不存在,损坏,旧版本)时不写入,
+     * 否则会写出只有这一本书却与书库目录一致的索引;保持不一致,下次读取时从磁盘重建
+     *
+     * @param book
+     * @param size
+     * @return
+     */
+    public synchronized boolean upsert(Book book, long size) {
+        if (book.token == null) return false;
+        if (!loaded && !load()) return false;
+        Entry old = entries.put(book.token, Entry.from(book, size));
+        if (old == null || !equals(old.name, book.name)) namesChanged = true;
+        return commit();
+    }
+
+    /**
+     * 删除一本书的摘要,与upsert相同,索引读不出来时不写入
+     *
+     * @param token
+     * @return
+     */
+    public synchronized boolean remove(String token) {
+        if (!loaded && !load()) return false;
+        if (entries.remove(token) == null) return true;
+        namesChanged = true;
+        return commit();
+    }
+
+    /**
+     * 按名字排序的摘要书籍
+     *
+     * @return
+     */
+    public synchronized List<Book> getBooks() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        Collections.sort(list, (lhs, rhs) -> compareName(lhs.name, rhs.name));
+
+        List<Book> books = new ArrayList<>(list.size());
+        for (Entry entry : list) {
+            books.add(entry.toBook());
+        }
+        return books;
+    }
+
+    public synchronized Entry getEntry(String token) {
+        return entries.get(token);
+    }
+
+    /**
+     * @return token -> 占用空间
+     */
+    public synchronized Map<String, Long> getSizes() {
+        Map<String, Long> sizes = new HashMap<>(entries.size() * 2);
+        for (Entry entry : entries.values()) {
+            sizes.put(entry.token, entry.size);
+        }
+        return sizes;
+    }
+
+    private static boolean equals(String lhs, String rhs) {
+        return lhs == null ? rhs == null : lhs.equals(rhs);
+    }
+
+    private static int compareName(String lhs, String rhs) {
+        if (lhs == null) return rhs == null ? 0 : -1;
+        if (rhs == null) return 1;
+        return lhs.compareTo(rhs);
+    }
+
+    private boolean load() {
+        byte[] bytes = FileUtil.readBytes(indexFile);
+        if (bytes == null || bytes.length < HEADER_SIZE + 8) return false;
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.d(TAG, "索引版本不一致.");
+                return false;
+            }
+
+            long modified = in.readLong();
+            int  count    = in.readInt();
+
+            //末尾8字节为CRC
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            DataInputStream tail = new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - 8, 8));
+            if (crc.getValue() != tail.readLong()) {
+                Log.d(TAG, "索引校验失败.");
+                return false;
+            }
+
+            Map<String, Entry> map = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                Entry entry = Entry.read(in);
+                map.put(entry.token, entry);
+            }
+
+            entries.clear();
+            entries.putAll(map);
+            libraryModified = modified;
+            loaded = true;
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "读取索引失败.");
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private boolean commit() {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream      out = new DataOutputStream(bos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            //names.txt也在书库目录中,先写入再取修改时间
+            if (namesChanged && writeNames()) namesChanged = false;
+            //本次写入对应的书库状态
+            long modified = libraryDir.lastModified();
+            out.writeLong(modified);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                entry.write(out);
+            }
+            out.flush();
+
+            CRC32 crc = new CRC32();
+            crc.update(bos.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+
+            if (!FileUtil.writeFileAtomic(indexFile, bos.toByteArray())) return false;
+            libraryModified = modified;
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "保存索引失败.");
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 按书名排序写入 token\t书名,只是给人看的,程序中不读取
+     *
+     * @return
+     */
+    private boolean writeNames() {
+        if (!libraryDir.isDirectory()) return false;
+
+        List<Entry> list = new ArrayList<>(entries.values());
+        Collections.sort(list, (lhs, rhs) -> compareName(lhs.name, rhs.name));
+
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : list) {
+            sb.append(LibraryMigrator.toDirName(entry.token)).append('\t').append(entry.name == null ? "" : entry.name).append('\n');
+        }
+        try {
+            return FileUtil.writeFileAtomic(namesFile, sb.toString().getBytes("UTF-8"));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 索引中的一行
+     */
+    public static class Entry {
+        public String      token;
+        public String      name;
+        public Book.Status status;
+        public int         count;
+        public Date        recent;
+        public int         position;
+        /*占用空间(byte)*/
+        public long        size;
+        /*封面(第一页)*/
+        public String      coverPreview;
+        public String      coverHref;
+
+        static Entry from(Book book, long size) {
+            Entry entry = new Entry();
+            entry.token = book.token;
+            entry.name = book.name;
+            entry.status = book.status;
+            entry.count = book.count;
+            entry.recent = book.recent;
+            entry.position = book.position;
+            entry.size = size;
+            if (book.pages != null && !book.pages.isEmpty()) {
+                Page cover = book.pages.get(0);
+                entry.coverPreview = cover.preview;
+                entry.coverHref = cover.href;
+            }
+            return entry;
+        }
+
+        /**
+         * 生成摘要书籍,pages中只有封面一页,需要完整数据时从本地json中读取
+         *
+         * @return
+         */
+        public Book toBook() {
+            Book book = new Book();
+            book.token = token;
+            book.name = name;
+            book.status = status;
+            book.count = count;
+            book.recent = recent;
+            book.position = position;
+            if (coverPreview != null || coverHref != null) {
+                Page cover = new Page();
+                cover.preview = coverPreview;
+                cover.href = coverHref;
+                book.pages.add(cover);
+            }
+            return book;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeString(out, token);
+            writeString(out, name);
+            out.writeByte(status == null ? -1 : status.ordinal());
+            out.writeInt(count);
+            out.writeLong(recent == null ? -1 : recent.getTime());
+            out.writeInt(position);
+            out.writeLong(size);
+            writeString(out, coverPreview);
+            writeString(out, coverHref);
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            Entry entry = new Entry();
+            entry.token = readString(in);
+            entry.name = readString(in);
+            byte status = in.readByte();
+            entry.status = status < 0 || status >= Book.Status.values().length ? null : Book.Status.values()[status];
+            entry.count = in.readInt();
+            long recent = in.readLong();
+            entry.recent = recent < 0 ? null : new Date(recent);
+            entry.position = in.readInt();
+            entry.size = in.readLong();
+            entry.coverPreview = readString(in);
+            entry.coverHref = readString(in);
+            return entry;
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            out.writeBoolean(s != null);
+            if (s != null) out.writeUTF(s);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+}
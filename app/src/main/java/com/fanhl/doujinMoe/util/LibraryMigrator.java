@@ -0,0 +1,318 @@
+package com.fanhl.doujinMoe.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.util.GsonUtil;
+import com.fanhl.util.ThreadUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 把旧版本按书名存放的书籍目录移动到按token命名的目录
+ * <p>
+ * 每本书都用renameTo整体移动(同一存储中不复制数据,不会占用双倍空间).
+ * 目标目录已存在时(迁移前已按新布局开始下载)逐个移动其中没有的文件,再删除旧目录.
+ * 每一步都是原子的重命名,中途被打断后重新扫描即可从剩下的目录继续;全部完成后写入标记文件,之后不再扫描.
+ * 书名中带'/'的旧目录是多层的,扫描时会进入没有书籍信息的子目录查找.
+ */
+public class LibraryMigrator {
+    public static final String TAG = LibraryMigrator.class.getSimpleName();
+
+    /*书名中有'/'时旧目录的最大层数*/
+    private static final int MAX_DEPTH = 4;
+
+    private final File libraryDir;
+    private final File doneFile;
+
+    private final Handler migrateHandler;
+    private final Handler uiHandler;
+
+    private final List<OnMigrationProgressListener> mOnMigrationProgressListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean finished;
+    private boolean          started;
+
+    private int migratedCount;
+    private int totalCount;
+
+    /**
+     * @param libraryDir 书库目录
+     * @param doneFile   迁移完成的标记文件
+     */
+    public LibraryMigrator(File libraryDir, File doneFile) {
+        this.libraryDir = libraryDir;
+        this.doneFile = doneFile;
+        finished = doneFile.exists();
+
+        migrateHandler = ThreadUtil.createBackgroundHandler("MigrateThread");
+        uiHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * 新布局中书籍的目录名:token中文件名不能用的字符写成 %XXXX,不同的token不会得到相同的目录名
+     *
+     * @param token
+     * @return
+     */
+    public static String toDirName(String token) {
+        StringBuilder sb = null;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (isSafe(c)) {
+                if (sb != null) sb.append(c);
+                continue;
+            }
+            if (sb == null) sb = new StringBuilder(token.length() + 8).append(token, 0, i);
+            sb.append('%').append(Character.forDigit((c >> 12) & 0xf, 16)).append(Character.forDigit((c >> 8) & 0xf, 16))
+                    .append(Character.forDigit((c >> 4) & 0xf, 16)).append(Character.forDigit(c & 0xf, 16));
+        }
+        //"." ".." 也不能作为目录名
+        String name = sb == null ? token : sb.toString();
+        return name.isEmpty() || name.startsWith(".") ? "%" + name : name;
+    }
+
+    private static boolean isSafe(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.';
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 开始在后台迁移(已完成或已开始时什么都不做)
+     */
+    public synchronized void start() {
+        if (finished || started) return;
+        started = true;
+        migrateHandler.post(this::migrateAll);
+    }
+
+    /**
+     * 书籍的旧目录(按书名),不存在或已迁移时返回null
+     *
+     * @param book
+     * @return
+     */
+    public File getLegacyDir(Book book) {
+        if (finished || book.name == null || book.name.isEmpty() || book.name.contains("..")) return null;
+        File legacyDir = new File(libraryDir, book.name);
+        if (!legacyDir.isDirectory()) return null;
+        //不同书籍的目录名可能相同(书名就是token,或书名重复),以书籍信息中的token为准
+        String token = readToken(legacyDir);
+        if (token == null || !token.equals(book.token) || legacyDir.equals(new File(libraryDir, toDirName(token)))) return null;
+        return legacyDir;
+    }
+
+    /**
+     * 把一本书的旧目录移动到新目录
+     *
+     * @param legacyDir
+     * @param token
+     * @return 新目录,失败或合并没有完成(有文件没能移动,旧目录保留)时返回null
+     */
+    public synchronized File migrate(File legacyDir, String token) {
+        File bookDir = new File(libraryDir, toDirName(token));
+        if (legacyDir.equals(bookDir)) return bookDir;
+
+        if (!bookDir.exists()) {
+            if (legacyDir.renameTo(bookDir)) {
+                Log.d(TAG, "书籍目录已迁移:" + legacyDir.getName() + " -> " + bookDir.getName());
+                deleteEmptyParents(legacyDir.getParentFile());
+                return bookDir;
+            }
+            Log.d(TAG, "移动书籍目录失败:" + legacyDir);
+            return null;
+        }
+
+        //新目录中已有的文件较新,保留新目录中的.
+        //书籍信息最后移动:没有合并完时留在旧目录中,下次启动时还能找到这个旧目录,从剩下的文件继续
+        if (!mergeInto(legacyDir, bookDir, true) || !moveBookInfo(legacyDir, bookDir)) {
+            //算作失败,不写完成标记
+            Log.d(TAG, "合并书籍目录未完成:" + legacyDir);
+            return null;
+        }
+        FileUtil.deleteDirectory(legacyDir);
+        deleteEmptyParents(legacyDir.getParentFile());
+        Log.d(TAG, "书籍目录已合并:" + legacyDir.getName() + " -> " + bookDir.getName());
+        return bookDir;
+    }
+
+    /**
+     * 迁移所有旧目录,全部成功时写入完成标记(在MigrateThread中调用)
+     */
+    void migrateAll() {
+        List<File>   legacyDirs = new ArrayList<>();
+        List<String> tokens     = new ArrayList<>();
+        findLegacyDirs(libraryDir, 0, legacyDirs, tokens);
+
+        synchronized (this) {
+            migratedCount = 0;
+            totalCount = legacyDirs.size();
+        }
+        Log.d(TAG, "需要迁移的书籍目录:" + legacyDirs.size());
+        dispatchProgress();
+
+        int failed = 0;
+        for (int i = 0; i < legacyDirs.size(); i++) {
+            File legacyDir = legacyDirs.get(i);
+            //可能已在读写这本书时被迁移
+            if (legacyDir.isDirectory() && migrate(legacyDir, tokens.get(i)) == null) failed++;
+            synchronized (this) {
+                migratedCount++;
+            }
+            dispatchProgress();
+        }
+
+        if (failed > 0) {
+            //下次启动时重新扫描,从失败的目录继续
+            Log.d(TAG, "书籍目录迁移失败:" + failed);
+            return;
+        }
+        if (!FileUtil.writeFileAtomic(doneFile, String.valueOf(System.currentTimeMillis()))) {
+            Log.d(TAG, "保存迁移标记失败.");
+        }
+        finished = true;
+        dispatchProgress();
+    }
+
+    /**
+     * 查找旧目录:有书籍信息但目录名不是token的,没有书籍信息的目录再往下一层查找
+     */
+    private void findLegacyDirs(File dir, int depth, List<File> legacyDirs, List<String> tokens) {
+        File[] children = dir.listFiles(File::isDirectory);
+        if (children == null) return;
+        for (File child : children) {
+            String token = readToken(child);
+            if (token == null) {
+                if (depth + 1 < MAX_DEPTH) findLegacyDirs(child, depth + 1, legacyDirs, tokens);
+                continue;
+            }
+            if (depth == 0 && child.getName().equals(toDirName(token))) continue;
+            legacyDirs.add(child);
+            tokens.add(token);
+        }
+    }
+
+    /**
+     * 从book.bin(没有时从旧的book.json)中读取token
+     *
+     * @param dir
+     * @return
+     */
+    static String readToken(File dir) {
+        Book book = BookBinaryFormat.readSummary(new File(dir, FileCacheManager.BOOK_BIN_FILENAME));
+        if (book == null) {
+            File jsonFile = new File(dir, FileCacheManager.BOOK_JSON_FILENAME);
+            if (jsonFile.isFile()) book = GsonUtil.obj(FileUtil.readFile(jsonFile), Book.class);
+        }
+        return book == null ? null : book.token;
+    }
+
+    /**
+     * 把from中to没有的文件逐个移动过去
+     *
+     * @param skipBookInfo 不移动书籍信息(书籍目录的第一层)
+     * @return 全部移动完成
+     */
+    private static boolean mergeInto(File from, File to, boolean skipBookInfo) {
+        File[] files = from.listFiles();
+        if (files == null) return false;
+
+        boolean complete = true;
+        for (File file : files) {
+            if (skipBookInfo && isBookInfo(file.getName())) continue;
+            File target = new File(to, file.getName());
+            if (file.isDirectory()) {
+                if (!target.exists()) {
+                    if (!file.renameTo(target)) complete = false;
+                } else if (target.isDirectory()) {
+                    complete &= mergeInto(file, target, false);
+                } else {
+                    //同名的是文件,不能合并
+                    complete = false;
+                }
+            } else if (!target.exists() && !file.renameTo(target)) {
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * 新目录中没有书籍信息时,把旧目录中的移动过去
+     *
+     * @return
+     */
+    private static boolean moveBookInfo(File from, File to) {
+        for (String name : new String[]{FileCacheManager.BOOK_BIN_FILENAME, FileCacheManager.BOOK_JSON_FILENAME}) {
+            File file   = new File(from, name);
+            File target = new File(to, name);
+            if (file.isFile() && !target.exists() && !file.renameTo(target)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isBookInfo(String name) {
+        return name.equals(FileCacheManager.BOOK_BIN_FILENAME) || name.equals(FileCacheManager.BOOK_JSON_FILENAME);
+    }
+
+    /**
+     * 书名中有'/'时,移走后删除留下的空的上层目录
+     */
+    private void deleteEmptyParents(File dir) {
+        while (dir != null && !dir.equals(libraryDir) && isChildOf(dir, libraryDir)) {
+            String[] names = dir.list();
+            if (names == null || names.length > 0 || !dir.delete()) return;
+            dir = dir.getParentFile();
+        }
+    }
+
+    private static boolean isChildOf(File file, File dir) {
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(dir)) return true;
+        }
+        return false;
+    }
+
+    private void dispatchProgress() {
+        int     migrated;
+        int     total;
+        boolean done = finished;
+        synchronized (this) {
+            migrated = migratedCount;
+            total = totalCount;
+        }
+        uiHandler.post(() -> {
+            for (OnMigrationProgressListener listener : mOnMigrationProgressListeners) {
+                listener.onMigrationProgress(migrated, total, done);
+            }
+        });
+    }
+
+    public void addOnMigrationProgressListener(OnMigrationProgressListener listener) {
+        mOnMigrationProgressListeners.add(listener);
+    }
+
+    public void removeOnMigrationProgressListener(OnMigrationProgressListener listener) {
+        mOnMigrationProgressListeners.remove(listener);
+    }
+
+    /**
+     * 迁移进度(UI线程)
+     */
+    public interface OnMigrationProgressListener {
+        /**
+         * @param migrated 已处理的目录数
+         * @param total    需要迁移的目录数
+         * @param finished 全部完成
+         */
+        void onMigrationProgress(int migrated, int total, boolean finished);
+    }
+}
@@ -0,0 +1,163 @@
+package com.fanhl.doujinMoe.util;
+
+import android.util.Log;
+
+import com.fanhl.doujinMoe.model.Book;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程扫描书库目录(没有索引或索引过期时用来重建)
+ * <p>
+ * 分三步:在调用线程中列出书籍目录并按名字排序,读线程读入book.bin的摘要部分(及统计图片大小),
+ * 解析线程解析摘要(只有旧的book.json时读取并迁移).
+ * 已读入还未解析的摘要数有上限,书库很大时内存占用也不会增长;结果按目录名排序,与单线程扫描一致.
+ */
+public class LibraryScanner {
+    public static final String TAG = LibraryScanner.class.getSimpleName();
+
+    /*每个线程最多积压的已读未解析的摘要数*/
+    private static final int BUFFERED_PER_THREAD = 4;
+
+    private final int    threads;
+    private final String binFilename;
+    private final String jsonFilename;
+    private final String imageFolder;
+
+    /**
+     * @param threads      读线程和解析线程各自的数量
+     * @param binFilename  书籍目录中的book.bin
+     * @param jsonFilename 旧格式的book.json
+     * @param imageFolder  图片目录,用于统计占用空间
+     */
+    public LibraryScanner(int threads, String binFilename, String jsonFilename, String imageFolder) {
+        this.threads = Math.max(1, threads);
+        this.binFilename = binFilename;
+        this.jsonFilename = jsonFilename;
+        this.imageFolder = imageFolder;
+    }
+
+    /**
+     * 按CPU核数决定线程数
+     */
+    public static int defaultThreads() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 扫描书库
+     *
+     * @param libraryDir
+     * @return 按目录名排序的书籍摘要,不是书籍的目录不在其中
+     */
+    public List<Entry> scan(File libraryDir) {
+        File[] dirs = libraryDir.listFiles(File::isDirectory);
+        if (dirs == null || dirs.length == 0) return new ArrayList<>();
+        Arrays.sort(dirs, (lhs, rhs) -> lhs.getName().compareTo(rhs.getName()));
+
+        Entry[]          entries       = new Entry[dirs.length];
+        Semaphore        buffered      = new Semaphore(threads * BUFFERED_PER_THREAD);
+        CountDownLatch   done          = new CountDownLatch(dirs.length);
+        ExecutorService  readExecutor  = newExecutor(threads);
+        ExecutorService  parseExecutor = newExecutor(threads);
+        try {
+            for (int i = 0; i < dirs.length; i++) {
+                //积压已满时等待解析线程
+                buffered.acquire();
+                int  index = i;
+                File dir   = dirs[i];
+                readExecutor.execute(() -> {
+                    byte[] summary;
+                    long   size;
+                    try {
+                        summary = BookBinaryFormat.readSummaryBytes(new File(dir, binFilename));
+                        size = getImagesSize(dir);
+                    } catch (RuntimeException e) {
+                        Log.d(TAG, "读取书籍目录失败:" + dir);
+                        buffered.release();
+                        done.countDown();
+                        return;
+                    }
+                    parseExecutor.execute(() -> {
+                        try {
+                            Book book = parse(dir, summary);
+                            if (book != null) entries[index] = new Entry(book, size);
+                        } catch (RuntimeException e) {
+                            //读不出来的书跳过,不能让done等不到
+                            Log.d(TAG, "解析书籍失败:" + dir);
+                        } finally {
+                            buffered.release();
+                            done.countDown();
+                        }
+                    });
+                });
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Log.d(TAG, "扫描书库被中断.");
+            Thread.currentThread().interrupt();
+        } finally {
+            readExecutor.shutdownNow();
+            parseExecutor.shutdownNow();
+        }
+
+        List<Entry> list = new ArrayList<>(dirs.length);
+        for (Entry entry : entries) {
+            if (entry != null) list.add(entry);
+        }
+        return list;
+    }
+
+    private Book parse(File dir, byte[] summary) {
+        if (summary != null) {
+            try {
+                return BookBinaryFormat.decodeSummary(new ByteArrayInputStream(summary));
+            } catch (IOException e) {
+                Log.d(TAG, "解析book.bin摘要失败:" + dir);
+            }
+        }
+        return BookBinaryFormat.migrateJson(new File(dir, jsonFilename), new File(dir, binFilename));
+    }
+
+    private long getImagesSize(File dir) {
+        File[] files = new File(dir, imageFolder).listFiles();
+        if (files == null) return 0;
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        //任务数由Semaphore限制,队列不用设上限
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    }
+
+    /**
+     * 扫描到的一本书
+     */
+    public static class Entry {
+        /*摘要书籍(pages中只有封面)*/
+        public final Book book;
+        /*图片占用的空间*/
+        public final long size;
+
+        Entry(Book book, long size) {
+            this.book = book;
+            this.size = size;
+        }
+    }
+}
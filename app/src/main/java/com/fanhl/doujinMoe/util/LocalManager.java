@@ -1,7 +1,9 @@
 package com.fanhl.doujinMoe.util;
 
 import android.content.Context;
+import android.os.FileObserver;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.fanhl.doujinMoe.api.BookApi;
@@ -10,27 +12,64 @@ import com.fanhl.doujinMoe.model.Book;
 import com.fanhl.util.ThreadUtil;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import rx.Observable;
 import rx.android.schedulers.HandlerScheduler;
 
 /**
  * 本地管理(最近阅读,喜爱,已下载)
+ * <p>
+ * 启动时从书库索引读入一次,之后只根据变更通知(保存book.json,删除书籍)增量更新,
+ * 书库目录在外部被修改时由FileObserver触发一次合并.
+ * 所有修改都在localHandler线程中进行,变更以差量的形式在UI线程通知给监听者.
  * Created by fanhl on 15/11/20.
  */
 public class LocalManager {
     public static final String TAG = LocalManager.class.getSimpleName();
 
+    /*书库目录有变动后,等待合并的时间*/
+    private static final long RECONCILE_DELAY = 1000;
+
+    /*最近阅读:新的在前*/
+    public static final Comparator<Book> RECENT_ORDER = (lhs, rhs) -> {
+        long l = lhs.recent == null ? 0 : lhs.recent.getTime();
+        long r = rhs.recent == null ? 0 : rhs.recent.getTime();
+        return l > r ? -1 : (l == r ? 0 : 1);
+    };
+    /*按名字*/
+    public static final Comparator<Book> NAME_ORDER   = (lhs, rhs) -> {
+        if (lhs.name == null) return rhs.name == null ? 0 : -1;
+        if (rhs.name == null) return 1;
+        return lhs.name.compareTo(rhs.name);
+    };
+
     private static LocalManager mInstance;
 
     private final Handler localHandler;
+    private final Handler uiHandler;
 
     private final Context context;
 
-    List<Book> recentBooks;
-    List<Book> loveBooks;
-    List<Book> downloadedBooks;
+    /*token -> 摘要书籍*/
+    private final Map<String, Book> books;
+
+    SortedBookList recentBooks;
+    SortedBookList loveBooks;
+    SortedBookList downloadedBooks;
+
+    private final List<OnLocalBooksChangeListener> mOnLocalBooksChangeListeners;
+
+    /*书库目录的外部变更*/
+    private final FileObserver libraryObserver;
+    private final Runnable     reconcileRunnable = this::reconcile;
 
     public static LocalManager getInstance(Context context) {
         if (mInstance == null) {
@@ -41,51 +80,190 @@ public class LocalManager {
     }
 
     private LocalManager(Context context) {
-        localHandler = ThreadUtil.createBackgroundHandler("DownloadThread");
+        localHandler = ThreadUtil.createBackgroundHandler("LocalThread");
+        uiHandler = new Handler(Looper.getMainLooper());
 
         this.context = context;
 
-        recentBooks = new ArrayList<>();
-        loveBooks = new ArrayList<>();
-        downloadedBooks = new ArrayList<>();
+        books = new ConcurrentHashMap<>();
+        recentBooks = new SortedBookList(RECENT_ORDER);
+        loveBooks = new SortedBookList(NAME_ORDER);
+        downloadedBooks = new SortedBookList(NAME_ORDER);
+        mOnLocalBooksChangeListeners = new CopyOnWriteArrayList<>();
+
+        String libraryPath = FileCacheManager.getInstance(context).getLibraryDir().getPath();
+        libraryObserver = new FileObserver(libraryPath, FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO) {
+            @Override
+            public void onEvent(int event, String path) {
+                //对照表和临时文件是本应用写的,不影响书籍
+                if (path == null || path.startsWith(FileCacheManager.NAMES_FILENAME) || path.endsWith(FileUtil.TMP_SUFFIX)) return;
+                localHandler.removeCallbacks(reconcileRunnable);
+                localHandler.postDelayed(reconcileRunnable, RECONCILE_DELAY);
+            }
+        };
+        libraryObserver.startWatching();
 
         refresh();
     }
 
-    void refresh() {
-        Observable.<List<Book>>create(subscriber -> {
-            recentBooks.clear();
-            loveBooks.clear();
-            downloadedBooks.clear();
-            try {
-                subscriber.onNext(BookApi.getLocalBooks(context));
-                subscriber.onCompleted();
-            } catch (GetBookFailException e) {
-                subscriber.onError(e);
+    /**
+     * 与书库重新合并一次(索引与磁盘不一致时会重建索引)
+     */
+    public void refresh() {
+        localHandler.post(reconcileRunnable);
+    }
+
+    /**
+     * 合并一次后取得已下载书籍的快照
+     * <p>
+     * 快照在localHandler线程中取得,在UI线程中观察时,之前的差量通知先于快照到达,之后的差量通知在快照之后到达.
+     *
+     * @return
+     */
+    public Observable<List<Book>> refreshDownloadedBooks() {
+        return Observable.<List<Book>>create(subscriber -> {
+            reconcile();
+            subscriber.onNext(downloadedBooks.snapshot());
+            subscriber.onCompleted();
+        }).subscribeOn(HandlerScheduler.from(localHandler));
+    }
+
+    /**
+     * 通知书籍已保存(新增或更新)
+     *
+     * @param token
+     */
+    public void notifyBookChanged(String token) {
+        if (token == null) return;
+        localHandler.post(() -> {
+            Book       book   = BookApi.getLocalBook(context, token);
+            BookChange change = book == null ? applyRemove(token) : apply(book);
+            if (change != null) dispatchOnLocalBooksChanged(Collections.singletonList(change));
+        });
+    }
+
+    /**
+     * 通知书籍已删除
+     *
+     * @param token
+     */
+    public void notifyBookRemoved(String token) {
+        if (token == null) return;
+        localHandler.post(() -> {
+            BookChange change = applyRemove(token);
+            if (change != null) dispatchOnLocalBooksChanged(Collections.singletonList(change));
+        });
+    }
+
+    private void reconcile() {
+        List<Book> localBooks;
+        try {
+            localBooks = BookApi.getLocalBooks(context);
+        } catch (GetBookFailException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+            return;
+        }
+
+        List<BookChange> changes = new ArrayList<>();
+        Set<String>      tokens  = new HashSet<>();
+        for (Book book : localBooks) {
+            tokens.add(book.token);
+            BookChange change = apply(book);
+            if (change != null) changes.add(change);
+        }
+        for (String token : new ArrayList<>(books.keySet())) {
+            if (tokens.contains(token)) continue;
+            BookChange change = applyRemove(token);
+            if (change != null) changes.add(change);
+        }
+
+        dispatchOnLocalBooksChanged(changes);
+    }
+
+    private BookChange apply(Book book) {
+        Book old = books.put(book.token, book);
+        if (old != null && isSameSummary(old, book)) return null;
+
+        recentBooks.remove(book.token);
+        if (book.recent != null) recentBooks.put(book);
+        downloadedBooks.remove(book.token);
+        if (book.isDownloaded()) downloadedBooks.put(book);
+
+        return new BookChange(old == null ? BookChange.Type.ADDED : BookChange.Type.UPDATED, book);
+    }
+
+    private BookChange applyRemove(String token) {
+        Book old = books.remove(token);
+        if (old == null) return null;
+
+        recentBooks.remove(token);
+        loveBooks.remove(token);
+        downloadedBooks.remove(token);
+
+        return new BookChange(BookChange.Type.REMOVED, old);
+    }
+
+    private static boolean isSameSummary(Book lhs, Book rhs) {
+        return equals(lhs.name, rhs.name) && lhs.status == rhs.status && lhs.count == rhs.count
+                && lhs.position == rhs.position && equals(lhs.recent, rhs.recent);
+    }
+
+    private static boolean equals(Object lhs, Object rhs) {
+        return lhs == null ? rhs == null : lhs.equals(rhs);
+    }
+
+    private void dispatchOnLocalBooksChanged(List<BookChange> changes) {
+        if (changes.isEmpty()) return;
+        Log.d(TAG, "本地书籍变更:" + changes.size());
+        uiHandler.post(() -> {
+            for (OnLocalBooksChangeListener listener : mOnLocalBooksChangeListeners) {
+                listener.onLocalBooksChanged(changes);
             }
-        }).subscribeOn(HandlerScheduler.from(localHandler))
-                .flatMap(Observable::<Book>from)
-                .subscribe(book -> {
-                    if (book.recent != null) {
-                        recentBooks.add(book);
-                    }
-                    if (book.isDownloaded()) {
-                        downloadedBooks.add(book);
-                    }
-                }, throwable -> Log.e(TAG, Log.getStackTraceString(throwable)), () -> {
-                    // FIXME: 15/11/20 recentBooks.sort desc
-                });
+        });
+    }
+
+    public void addOnLocalBooksChangeListener(OnLocalBooksChangeListener listener) {
+        mOnLocalBooksChangeListeners.add(listener);
+    }
+
+    public void removeOnLocalBooksChangeListener(OnLocalBooksChangeListener listener) {
+        mOnLocalBooksChangeListeners.remove(listener);
     }
 
     public List<Book> getRecentBooks() {
-        return recentBooks;
+        return recentBooks.snapshot();
     }
 
     public List<Book> getLoveBooks() {
-        return loveBooks;
+        return loveBooks.snapshot();
     }
 
     public List<Book> getDownloadedBooks() {
-        return downloadedBooks;
+        return downloadedBooks.snapshot();
+    }
+
+    /**
+     * 书籍的一次变更
+     */
+    public static class BookChange {
+        public enum Type {
+            ADDED, UPDATED, REMOVED
+        }
+
+        public final Type type;
+        /*变更后的摘要书籍(REMOVED时为删除前的)*/
+        public final Book book;
+
+        public BookChange(Type type, Book book) {
+            this.type = type;
+            this.book = book;
+        }
+    }
+
+    /**
+     * 用于通知本地书籍的变更(UI线程)
+     */
+    public interface OnLocalBooksChangeListener {
+        void onLocalBooksChanged(List<BookChange> changes);
     }
 }
@@ -0,0 +1,341 @@
+package com.fanhl.doujinMoe.util;
+
+import com.fanhl.doujinMoe.api.form.NewestForm;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Book,Page,NewestForm 的手写TypeAdapter,不走反射,字段名与反射时一致(与已有json兼容).
+ * 未知字段跳过;数字字段也接受带引号的写法(如 newest 中的 "count":"24"),读不成int时保留默认值.
+ */
+public class ModelTypeAdapterFactory implements TypeAdapterFactory {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType == Page.class) {
+            return (TypeAdapter<T>) new PageAdapter();
+        }
+        if (rawType == Book.class) {
+            //日期沿用Gson默认的格式,以兼容已保存的数据
+            return (TypeAdapter<T>) new BookAdapter(gson.getAdapter(Date.class), new PageAdapter());
+        }
+        if (rawType == NewestForm.class) {
+            return (TypeAdapter<T>) new NewestFormAdapter(gson.getAdapter(Book.class));
+        }
+        return null;
+    }
+
+    static class PageAdapter extends TypeAdapter<Page> {
+        @Override
+        public void write(JsonWriter out, Page page) throws IOException {
+            if (page == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("preview").value(page.preview);
+            out.name("href").value(page.href);
+            out.endObject();
+        }
+
+        @Override
+        public Page read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Page page = new Page();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "preview":
+                        page.preview = nextString(in);
+                        break;
+                    case "href":
+                        page.href = nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return page;
+        }
+    }
+
+    static class BookAdapter extends TypeAdapter<Book> {
+        private final TypeAdapter<Date> dateAdapter;
+        private final TypeAdapter<Page> pageAdapter;
+
+        BookAdapter(TypeAdapter<Date> dateAdapter, TypeAdapter<Page> pageAdapter) {
+            this.dateAdapter = dateAdapter;
+            this.pageAdapter = pageAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, Book book) throws IOException {
+            if (book == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("token").value(book.token);
+            out.name("name").value(book.name);
+            out.name("count").value(book.count);
+            out.name("rating").value(book.rating);
+            out.name("date").value(book.date);
+            out.name("pages");
+            if (book.pages == null) {
+                out.nullValue();
+            } else {
+                out.beginArray();
+                for (Page page : book.pages) {
+                    pageAdapter.write(out, page);
+                }
+                out.endArray();
+            }
+            out.name("position").value(book.position);
+            out.name("recent");
+            dateAdapter.write(out, book.recent);
+            out.name("status").value(book.status == null ? null : book.status.name());
+            out.name("downloadedPosition").value(book.downloadedPosition);
+            out.endObject();
+        }
+
+        @Override
+        public Book read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Book book = new Book();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "token":
+                        book.token = nextString(in);
+                        break;
+                    case "name":
+                        book.name = nextString(in);
+                        break;
+                    case "count":
+                        book.count = nextInt(in, book.count);
+                        break;
+                    case "rating":
+                        book.rating = nextString(in);
+                        break;
+                    case "date":
+                        book.date = nextString(in);
+                        break;
+                    case "pages":
+                        book.pages = readPages(in);
+                        break;
+                    case "position":
+                        book.position = nextInt(in, book.position);
+                        break;
+                    case "recent":
+                        book.recent = dateAdapter.read(in);
+                        break;
+                    case "status":
+                        book.status = nextStatus(in);
+                        break;
+                    case "downloadedPosition":
+                        book.downloadedPosition = nextInt(in, book.downloadedPosition);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return book;
+        }
+
+        private List<Page> readPages(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            CompactPageList pages = new CompactPageList();
+            in.beginArray();
+            while (in.hasNext()) {
+                pages.add(pageAdapter.read(in));
+            }
+            in.endArray();
+            pages.trimToSize();
+            return pages;
+        }
+
+        private static Book.Status nextStatus(JsonReader in) throws IOException {
+            String name = nextString(in);
+            if (name == null) return null;
+            try {
+                return Book.Status.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    static class NewestFormAdapter extends TypeAdapter<NewestForm> {
+        private final TypeAdapter<Book> bookAdapter;
+
+        NewestFormAdapter(TypeAdapter<Book> bookAdapter) {
+            this.bookAdapter = bookAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, NewestForm form) throws IOException {
+            if (form == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("success").value(form.success);
+            out.name("message").value(form.message);
+            out.name("top");
+            writeTokenName(out, form.top);
+            out.name("artist");
+            writeTokenName(out, form.artist);
+            out.name("newest");
+            if (form.newest == null) {
+                out.nullValue();
+            } else {
+                out.beginArray();
+                for (Book book : form.newest) {
+                    bookAdapter.write(out, book);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public NewestForm read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            NewestForm form = new NewestForm();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "success":
+                        form.success = nextBoolean(in);
+                        break;
+                    case "message":
+                        form.message = nextString(in);
+                        break;
+                    case "top":
+                        form.top = readTokenName(in);
+                        break;
+                    case "artist":
+                        form.artist = readTokenName(in);
+                        break;
+                    case "newest":
+                        form.newest = readBooks(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return form;
+        }
+
+        private List<Book> readBooks(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            List<Book> books = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                books.add(bookAdapter.read(in));
+            }
+            in.endArray();
+            return books;
+        }
+
+        private static void writeTokenName(JsonWriter out, NewestForm.TokenName tokenName) throws IOException {
+            if (tokenName == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("token").value(tokenName.token);
+            out.name("name").value(tokenName.name);
+            out.endObject();
+        }
+
+        private static NewestForm.TokenName readTokenName(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            NewestForm.TokenName tokenName = new NewestForm.TokenName();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "token":
+                        tokenName.token = nextString(in);
+                        break;
+                    case "name":
+                        tokenName.name = nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return tokenName;
+        }
+    }
+
+    private static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static int nextInt(JsonReader in, int defaultValue) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return defaultValue;
+        }
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException | IllegalStateException e) {
+            //"24.5","abc",对象等读不成int的值跳过,与字符串字段一样宽松处理
+            in.skipValue();
+            return defaultValue;
+        }
+    }
+
+    private static boolean nextBoolean(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return false;
+            case STRING:
+                return Boolean.parseBoolean(in.nextString());
+            default:
+                return in.nextBoolean();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.fanhl.doujinMoe.util;
+
+import android.content.Context;
+import android.os.StrictMode;
+import android.util.Log;
+
+import com.fanhl.doujinMoe.model.Book;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 上次取得的最新书籍列表(第一页)
+ * <p>
+ * 只保存列表中显示的字段(token,名字,页数,评分,日期),几十本书只有几KB,
+ * 启动时在UI线程直接读入,第一帧就能显示,之后再用服务器的数据更新.
+ */
+public class NewestSnapshot {
+    public static final String TAG = NewestSnapshot.class.getSimpleName();
+
+    public static final String SNAPSHOT_FILENAME = "newest.snapshot";
+
+    private static final int MAGIC   = 0x444a4d4e;//DJMN
+    private static final int VERSION = 1;
+
+    private static NewestSnapshot mInstance;
+
+    private final File file;
+
+    /*最后一次读入或保存的列表,内容相同时不重复写入*/
+    private List<Book> books;
+
+    public static synchronized NewestSnapshot getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new NewestSnapshot(new File(context.getFilesDir(), SNAPSHOT_FILENAME));
+        }
+
+        return mInstance;
+    }
+
+    NewestSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 读入保存的列表,没有时返回空列表.
+     * 文件很小,允许在UI线程中调用
+     *
+     * @return
+     */
+    public synchronized List<Book> read() {
+        if (books == null) {
+            StrictMode.ThreadPolicy policy = StrictMode.allowThreadDiskReads();
+            try {
+                books = decode(FileUtil.readBytes(file));
+            } finally {
+                StrictMode.setThreadPolicy(policy);
+            }
+        }
+        return new ArrayList<>(books);
+    }
+
+    /**
+     * 保存列表(内容没有变化时不写入),会写文件,不要在UI线程中调用
+     *
+     * @param newest
+     * @return
+     */
+    public synchronized boolean save(List<Book> newest) {
+        if (books != null && isSameList(books, newest)) return true;
+        try {
+            if (!FileUtil.writeFileAtomic(file, encode(newest))) return false;
+            books = new ArrayList<>(newest);
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "保存最新书籍失败.");
+        }
+        return false;
+    }
+
+    static byte[] encode(List<Book> books) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(books.size() * 64 + 16);
+        DataOutputStream      out = new DataOutputStream(bos);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(books.size());
+        for (Book book : books) {
+            writeString(out, book.token);
+            writeString(out, book.name);
+            out.writeInt(book.count);
+            writeString(out, book.rating);
+            writeString(out, book.date);
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    static List<Book> decode(byte[] bytes) {
+        List<Book> list = new ArrayList<>();
+        if (bytes == null) return list;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return list;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Book book = new Book();
+                book.token = readString(in);
+                book.name = readString(in);
+                book.count = in.readInt();
+                book.rating = readString(in);
+                book.date = readString(in);
+                list.add(book);
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "读取最新书籍失败.");
+            list.clear();
+        }
+        return list;
+    }
+
+    private static boolean isSameList(List<Book> lhs, List<Book> rhs) {
+        if (lhs.size() != rhs.size()) return false;
+        for (int i = 0; i < lhs.size(); i++) {
+            Book l = lhs.get(i);
+            Book r = rhs.get(i);
+            if (!equals(l.token, r.token) || !equals(l.name, r.name) || l.count != r.count
+                    || !equals(l.rating, r.rating) || !equals(l.date, r.date)) return false;
+        }
+        return true;
+    }
+
+    private static boolean equals(String lhs, String rhs) {
+        return lhs == null ? rhs == null : lhs.equals(rhs);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,76 @@
+package com.fanhl.doujinMoe.util;
+
+import android.util.Log;
+
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.File;
+import java.io.IOException;
+
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * 下载一张page原图到文件
+ * <p>
+ * 先写入临时文件,完成后再重命名,目录中不会留下下载到一半的page.
+ * 不依赖Context,下载的负载测试(benchmark)也直接使用这里的实现.
+ */
+public class PageDownloader {
+    public static final String TAG = PageDownloader.class.getSimpleName();
+
+    private static final OkHttpClient client = new OkHttpClient();
+
+    /**
+     * @param url      page原图地址
+     * @param pageFile 保存的文件
+     * @return 是否下载完成(服务器返回错误,中途断开时为false,不留下文件)
+     */
+    public static boolean download(String url, File pageFile) {
+        File         tmpFile  = new File(pageFile.getPath() + FileUtil.TMP_SUFFIX);
+        Request      request  = new Request.Builder().url(url).build();
+        Response     response = null;
+        BufferedSink sink     = null;
+        boolean      complete = false;
+        //批量下载的优先级最低,不影响正在看的page和预览图
+        RequestScheduler.Permit permit = null;
+        try {
+            permit = RequestScheduler.getInstance().acquire(RequestScheduler.Priority.DOWNLOAD, url);
+            response = client.newCall(request).execute();
+            if (response.isSuccessful()) {
+                sink = Okio.buffer(Okio.sink(tmpFile));
+                sink.writeAll(response.body().source());
+                complete = true;
+            } else {
+                Log.d(TAG, "下载失败:" + response.code() + " " + url);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (response != null) {
+                try {
+                    response.body().close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (permit != null) permit.release();
+            if (sink != null) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    complete = false;
+                }
+            }
+        }
+
+        if (!complete || !tmpFile.renameTo(pageFile)) {
+            tmpFile.delete();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,47 @@
+package com.fanhl.doujinMoe.util;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
+
+/**
+ * 下载的page文件名
+ * <p>
+ * 不依赖Android,benchmark中直接测量这里的实现.
+ */
+public class PageNameUtil {
+    /**
+     * 生成page名字
+     *
+     * @param book
+     * @param index
+     */
+    public static String getPageName(Book book, int index) {
+        return NumberUtil.formatPrefix(index) + "." + getExtension(CompactPageList.preview(book.pages, index));
+    }
+
+    /**
+     * 取得书籍扩展名
+     *
+     * @param page
+     * @return
+     */
+    public static String getExtension(Page page) {
+        return getExtension(page == null ? null : page.preview);
+    }
+
+    /**
+     * 取得preview地址的扩展名
+     *
+     * @param preview
+     * @return
+     */
+    public static String getExtension(String preview) {
+        if (preview == null) return "";// FIXME: 15/11/20 preview 和 href 的文件 扩展名是一致的么???
+
+        String[] parts = preview.split("\\.");
+
+        if (parts.length < 2) return "";
+
+        return parts[parts.length - 1];
+    }
+}
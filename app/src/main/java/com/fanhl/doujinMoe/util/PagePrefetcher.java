@@ -0,0 +1,158 @@
+package com.fanhl.doujinMoe.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.fanhl.doujinMoe.api.PageApi;
+import com.fanhl.doujinMoe.model.Book;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 书籍列表中page列表的预取
+ * <p>
+ * 停止滚动后,在屏幕上停留超过 DWELL_TIME 的书籍在后台取得page列表放入缓存,打开详细页时马上就有内容.
+ * 同时进行的请求数不超过 MAX_CONCURRENT,线程为后台优先级;书籍滚出屏幕时取消还没完成的请求.
+ * 已下载的书籍和缓存未过期的不请求.方法都在UI线程中调用.
+ */
+public class PagePrefetcher {
+    public static final String TAG = PagePrefetcher.class.getSimpleName();
+
+    /*停止滚动后停留这么久才预取*/
+    private static final long DWELL_TIME     = 300;
+    private static final int  MAX_CONCURRENT = 2;
+
+    private static final ExecutorService executor;
+
+    static {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "PagePrefetchThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        threadPool.allowCoreThreadTimeOut(true);
+        executor = threadPool;
+    }
+
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    /*显示中的书籍 token -> book*/
+    private final Map<String, Book>      visible  = new LinkedHashMap<>();
+    /*进行中的预取 token -> 任务*/
+    private final Map<String, Task>      tasks    = new HashMap<>();
+    /*已预取过的*/
+    private final Set<String>            finished = new HashSet<>();
+
+    private boolean idle = true;
+    private boolean released;
+
+    private final Runnable prefetchVisible = this::prefetchVisible;
+
+    /**
+     * 书籍显示到屏幕上
+     *
+     * @param book
+     */
+    public void onItemVisible(Book book) {
+        if (released || book == null || book.token == null) return;
+        visible.put(book.token, book);
+        if (idle) schedule();
+    }
+
+    /**
+     * 书籍滚出屏幕,取消它的预取
+     *
+     * @param book
+     */
+    public void onItemHidden(Book book) {
+        if (book == null || book.token == null) return;
+        visible.remove(book.token);
+        cancel(book.token);
+    }
+
+    public void onScrollStateChanged(int newState) {
+        idle = newState == RecyclerView.SCROLL_STATE_IDLE;
+        if (idle) {
+            schedule();
+        } else {
+            uiHandler.removeCallbacks(prefetchVisible);
+        }
+    }
+
+    /**
+     * 取消所有预取(页面销毁时调用)
+     */
+    public void release() {
+        released = true;
+        uiHandler.removeCallbacks(prefetchVisible);
+        for (String token : new HashSet<>(tasks.keySet())) {
+            cancel(token);
+        }
+        visible.clear();
+    }
+
+    private void schedule() {
+        uiHandler.removeCallbacks(prefetchVisible);
+        uiHandler.postDelayed(prefetchVisible, DWELL_TIME);
+    }
+
+    private void prefetchVisible() {
+        if (released || !idle) return;
+        for (Book book : visible.values()) {
+            String token = book.token;
+            if (book.isDownloaded() || finished.contains(token) || tasks.containsKey(token)) continue;
+
+            Task task = new Task();
+            task.future = executor.submit(() -> {
+                if (task.cancelled) return;
+                boolean success = false;
+                try {
+                    if (PageApi.prefetchPages(token, task)) Log.d(TAG, "预取page列表:" + token);
+                    success = true;
+                } catch (Exception e) {
+                    //取消或失败时,打开详细页时再取得
+                    Log.d(TAG, "预取page列表失败:" + token);
+                }
+                boolean result = success;
+                uiHandler.post(() -> {
+                    if (tasks.get(token) == task) tasks.remove(token);
+                    if (result) finished.add(token);
+                });
+            });
+            tasks.put(token, task);
+        }
+    }
+
+    private void cancel(String token) {
+        Task task = tasks.remove(token);
+        if (task == null) return;
+        task.cancelled = true;
+        //还在队列中的直接取消,等待请求许可中的被中断,已经开始的请求由OkHttp取消(用task作为请求的tag)
+        //(已经开始的任务cancel也返回true,所以总是取消请求)
+        task.future.cancel(true);
+        PageApi.cancel(task);
+    }
+
+    /**
+     * 一本书的预取
+     */
+    private static class Task {
+        Future<?>        future;
+        volatile boolean cancelled;
+    }
+}
@@ -0,0 +1,272 @@
+package com.fanhl.doujinMoe.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import com.fanhl.util.ThreadUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 阅读进度(阅读位置,最近阅读时间)
+ * <p>
+ * 不再为了保存阅读位置重写整个book.bin,而是在进度文件末尾追加一条记录(约几十字节).
+ * 记录先放在内存中,由后台线程延迟一段时间后批量追加并sync;每条记录带CRC,
+ * 读取时遇到写了一半的记录就截断,之前的记录不受影响.
+ * 同一本书的记录只有最后一条有效,无用的记录过多时整体重写一次.
+ */
+public class ProgressStore {
+    public static final String TAG = ProgressStore.class.getSimpleName();
+
+    public static final String PROGRESS_FILENAME = "progress.log";
+
+    /*写入前等待的时间,期间的多次修改合并为一次写入*/
+    private static final long FLUSH_DELAY = 2000;
+    /*文件中的记录数超过有效条目数的这个倍数时重写*/
+    private static final int  COMPACT_RATIO = 4;
+    /*记录数少于这个数时不重写*/
+    private static final int  COMPACT_MIN_RECORDS = 256;
+
+    private static ProgressStore mInstance;
+
+    private final File    progressFile;
+    private final Handler ioHandler;
+    private final Runnable flushRunnable = this::flush;
+
+    /*token -> 进度*/
+    private final Map<String, Progress> progresses = new HashMap<>();
+    /*还没写入文件的进度*/
+    private final Map<String, Progress> dirty      = new LinkedHashMap<>();
+
+    private boolean loaded;
+    /*文件中的记录数*/
+    private int     recordCount;
+
+    public static ProgressStore getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new ProgressStore(new File(context.getFilesDir(), PROGRESS_FILENAME));
+        }
+
+        return mInstance;
+    }
+
+    ProgressStore(File progressFile) {
+        this.progressFile = progressFile;
+        ioHandler = ThreadUtil.createBackgroundHandler("ProgressThread");
+    }
+
+    /**
+     * 记录阅读进度,稍后在后台写入(翻页时频繁调用,合并为一次写入);需要立即写入时再调用flushAsync
+     *
+     * @param token
+     * @param position
+     * @param recent
+     */
+    public void put(String token, int position, Date recent) {
+        if (token == null) return;
+        Progress progress = new Progress(position, recent == null ? -1 : recent.getTime());
+        synchronized (this) {
+            //内存中的进度立即生效,不用等文件读完
+            progresses.put(token, progress);
+            dirty.put(token, progress);
+        }
+        ioHandler.removeCallbacks(flushRunnable);
+        ioHandler.postDelayed(flushRunnable, FLUSH_DELAY);
+    }
+
+    /**
+     * 尽快写入(如离开阅读页时)
+     */
+    public void flushAsync() {
+        ioHandler.removeCallbacks(flushRunnable);
+        ioHandler.post(flushRunnable);
+    }
+
+    /**
+     * 取得记录的进度,没有时返回null(第一次调用时读取文件,不要在UI线程中调用)
+     *
+     * @param token
+     * @return
+     */
+    public synchronized Progress get(String token) {
+        load();
+        return progresses.get(token);
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+
+        byte[] bytes = FileUtil.readBytes(progressFile);
+        if (bytes == null) return;
+
+        //文件中的记录比之前put的旧
+        Map<String, Progress> unsaved = new HashMap<>(progresses);
+        DataInputStream       in      = new DataInputStream(new ByteArrayInputStream(bytes));
+        int                   valid   = 0;
+        try {
+            while (valid < bytes.length) {
+                int    length  = in.readUnsignedShort();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                long crc = in.readInt() & 0xffffffffL;
+                if (crc != crc32(payload)) break;
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                String          token  = record.readUTF();
+                progresses.put(token, new Progress(record.readInt(), record.readLong()));
+                recordCount++;
+                valid += 2 + length + 4;
+            }
+        } catch (IOException e) {
+            //最后一条写到一半
+        }
+        progresses.putAll(unsaved);
+
+        if (valid < bytes.length) {
+            Log.d(TAG, "截断不完整的进度记录:" + (bytes.length - valid));
+            truncate(valid);
+        }
+    }
+
+    private void flush() {
+        Map<String, Progress> records;
+        boolean               compact;
+        synchronized (this) {
+            load();
+            if (dirty.isEmpty()) return;
+            records = new LinkedHashMap<>(dirty);
+            dirty.clear();
+            recordCount += records.size();
+            compact = recordCount >= COMPACT_MIN_RECORDS && recordCount > progresses.size() * COMPACT_RATIO;
+            if (compact) records = new LinkedHashMap<>(progresses);
+        }
+
+        if (compact ? rewrite(records) : append(records)) return;
+
+        //写入失败,下次再写
+        synchronized (this) {
+            for (Map.Entry<String, Progress> entry : records.entrySet()) {
+                if (!dirty.containsKey(entry.getKey())) dirty.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private boolean append(Map<String, Progress> records) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(progressFile, true);
+            out.write(encode(records));
+            out.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "追加进度记录失败.");
+            return false;
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * 每本书只保留一条记录重写文件
+     */
+    private boolean rewrite(Map<String, Progress> records) {
+        try {
+            if (!FileUtil.writeFileAtomic(progressFile, encode(records))) return false;
+        } catch (IOException e) {
+            return false;
+        }
+        Log.d(TAG, "重写进度文件:" + records.size());
+        synchronized (this) {
+            recordCount = records.size();
+        }
+        return true;
+    }
+
+    private void truncate(int length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(progressFile, "rw");
+            file.setLength(length);
+        } catch (IOException e) {
+            Log.d(TAG, "截断进度文件失败.");
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录: ushort 长度, (utf token, int 位置, long 最近阅读时间), int CRC32
+     */
+    private static byte[] encode(Map<String, Progress> records) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream      out = new DataOutputStream(bos);
+        for (Map.Entry<String, Progress> entry : records.entrySet()) {
+            ByteArrayOutputStream payloadBos = new ByteArrayOutputStream();
+            DataOutputStream      payload    = new DataOutputStream(payloadBos);
+            payload.writeUTF(entry.getKey());
+            payload.writeInt(entry.getValue().position);
+            payload.writeLong(entry.getValue().recent);
+            payload.flush();
+
+            byte[] bytes = payloadBos.toByteArray();
+            out.writeShort(bytes.length);
+            out.write(bytes);
+            out.writeInt((int) crc32(bytes));
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static long crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static void close(FileOutputStream out) {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 一本书的阅读进度
+     */
+    public static class Progress {
+        public final int  position;
+        /*最近阅读时间,没有时为-1*/
+        public final long recent;
+
+        Progress(int position, long recent) {
+            this.position = position;
+            this.recent = recent;
+        }
+
+        public Date getRecent() {
+            return recent < 0 ? null : new Date(recent);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.fanhl.doujinMoe.util;
+
+import com.squareup.okhttp.HttpUrl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 所有网络请求共用的调度
+ * <p>
+ * 请求前取得许可(acquire),读完响应后释放(release).等待中的请求按优先级排序,
+ * 有空位时先给优先级高的,后来的高优先级请求排在已等待的低优先级请求前面.
+ * 每个host同时进行的请求数有上限,低优先级的请求不能占满:屏幕上的预览图留出1个,预取留出2个,
+ * 下载留出3个,批量下载时打开的page和屏幕上的预览图不用等下载完,大量预览图也不会挡住阅读中的page.
+ */
+public class RequestScheduler {
+    public static final String TAG = RequestScheduler.class.getSimpleName();
+
+    /*每个host同时进行的请求数*/
+    static final int MAX_PER_HOST = 4;
+    /*全部host同时进行的请求数*/
+    static final int MAX_TOTAL    = 8;
+
+    public enum Priority {
+        /*阅读中的page原图*/
+        READER(0),
+        /*屏幕上的封面,预览图,列表和详细页*/
+        VISIBLE(1),
+        /*详细页的预取*/
+        PREFETCH(2),
+        /*书籍下载*/
+        DOWNLOAD(3);
+
+        /*给更高优先级留出的空位*/
+        final int reserved;
+
+        Priority(int reserved) {
+            this.reserved = reserved;
+        }
+    }
+
+    private static RequestScheduler mInstance;
+
+    private final int maxPerHost;
+    private final int maxTotal;
+
+    /*等待中的请求,按优先级,先后排列*/
+    private final TreeSet<Permit>      waiting = new TreeSet<>(new Comparator<Permit>() {
+        @Override
+        public int compare(Permit lhs, Permit rhs) {
+            if (lhs.priority != rhs.priority) return lhs.priority.ordinal() - rhs.priority.ordinal();
+            return lhs.sequence < rhs.sequence ? -1 : lhs.sequence == rhs.sequence ? 0 : 1;
+        }
+    });
+    /*host -> 进行中的请求数*/
+    private final Map<String, Integer> running = new HashMap<>();
+    private       int                  total;
+    private       long                 sequence;
+
+    public static synchronized RequestScheduler getInstance() {
+        if (mInstance == null) {
+            mInstance = new RequestScheduler(MAX_PER_HOST, MAX_TOTAL);
+        }
+
+        return mInstance;
+    }
+
+    RequestScheduler(int maxPerHost, int maxTotal) {
+        this.maxPerHost = maxPerHost;
+        this.maxTotal = maxTotal;
+    }
+
+    /**
+     * 等到可以发送请求为止(不能在UI线程中调用)
+     *
+     * @param priority
+     * @param url      按其中的host限制同时进行的请求数
+     * @return 用完后必须release
+     * @throws InterruptedIOException 等待中被中断
+     */
+    public Permit acquire(Priority priority, String url) throws InterruptedIOException {
+        synchronized (this) {
+            Permit permit = new Permit(priority, host(url), sequence++);
+            waiting.add(permit);
+            dispatch();
+            try {
+                while (!permit.granted) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                if (!permit.granted) {
+                    waiting.remove(permit);
+                    throw new InterruptedIOException("等待请求许可时被中断:" + url);
+                }
+                //已经取得许可,保留中断状态继续
+                Thread.currentThread().interrupt();
+            }
+            return permit;
+        }
+    }
+
+    /**
+     * 进行中的请求数(测试用)
+     *
+     * @param url
+     * @return
+     */
+    synchronized int running(String url) {
+        Integer count = running.get(host(url));
+        return count == null ? 0 : count;
+    }
+
+    synchronized int waiting() {
+        return waiting.size();
+    }
+
+    private synchronized void release(Permit permit) {
+        if (!permit.granted || permit.released) return;
+        permit.released = true;
+        int count = running.get(permit.host) - 1;
+        if (count == 0) {
+            running.remove(permit.host);
+        } else {
+            running.put(permit.host, count);
+        }
+        total--;
+        dispatch();
+    }
+
+    /**
+     * 按优先级顺序给有空位的请求许可.
+     * 同一host中高优先级的请求没有空位时,优先级更低的(上限更小)也不会有空位
+     */
+    private void dispatch() {
+        boolean granted = false;
+        for (Iterator<Permit> it = waiting.iterator(); it.hasNext() && total < maxTotal; ) {
+            Permit  permit = it.next();
+            Integer count  = running.get(permit.host);
+            int     n      = count == null ? 0 : count;
+            if (n >= Math.max(1, maxPerHost - permit.priority.reserved)) continue;
+
+            it.remove();
+            permit.granted = true;
+            running.put(permit.host, n + 1);
+            total++;
+            granted = true;
+        }
+        if (granted) notifyAll();
+    }
+
+    private static String host(String url) {
+        HttpUrl httpUrl = url == null ? null : HttpUrl.parse(url);
+        return httpUrl == null ? String.valueOf(url) : httpUrl.host();
+    }
+
+    /**
+     * 发送请求的许可
+     */
+    public class Permit {
+        final Priority priority;
+        final String   host;
+        final long     sequence;
+
+        boolean granted;
+        boolean released;
+
+        Permit(Priority priority, String host, long sequence) {
+            this.priority = priority;
+            this.host = host;
+            this.sequence = sequence;
+        }
+
+        /**
+         * 请求结束(响应已读完或出错),可以多次调用
+         */
+        public void release() {
+            RequestScheduler.this.release(this);
+        }
+
+        /**
+         * 响应体边读边用时,关闭流时释放
+         *
+         * @param in
+         * @return
+         */
+        public InputStream releaseOnClose(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release();
+                    }
+                }
+            };
+        }
+    }
+}
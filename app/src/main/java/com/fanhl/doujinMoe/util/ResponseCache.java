@@ -0,0 +1,286 @@
+package com.fanhl.doujinMoe.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 列表,详细页等接口响应的缓存
+ * <p>
+ * 每个响应一个文件(文件名为key的MD5),内容为取得时间,key,ETag,Last-Modified和响应体,通过writeFileAtomic写入;
+ * 取得时间在固定位置,服务器返回304时只改写这8个字节.
+ * 打开页面时先显示缓存,过期后再用条件请求(If-None-Match/If-Modified-Since)更新.
+ * 最近用到的几条同时保存在内存中;文件数超过上限时删除最久没有更新的.
+ * 内存部分用this同步,文件的读写不持有这个锁,写文件之间用diskLock依次进行,UI线程读取缓存时不会等待写入.
+ */
+public class ResponseCache {
+    public static final String TAG = ResponseCache.class.getSimpleName();
+
+    public static final String CACHE_FOLDER = "http_cache";
+
+    private static final int MAGIC   = 0x444a4d52;//DJMR
+    private static final int VERSION = 2;
+    /*magic,version之后是取得时间*/
+    private static final int FETCHED_AT_OFFSET = 4 + 4;
+
+    /*内存中保留的条数*/
+    private static final int MEMORY_ENTRIES = 16;
+    /*磁盘上保留的条数*/
+    private static final int MAX_ENTRIES    = 200;
+
+    private static ResponseCache mInstance;
+
+    /*为null时只保存在内存中*/
+    private final File   dir;
+    /*写入,删除文件时持有*/
+    private final Object diskLock = new Object();
+
+    private final Map<String, Entry> memory = new LinkedHashMap<String, Entry>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    public static synchronized ResponseCache getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new ResponseCache(new File(context.getCacheDir(), CACHE_FOLDER));
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * 还没有用Context初始化时,只缓存在内存中
+     *
+     * @return
+     */
+    public static synchronized ResponseCache getInstance() {
+        if (mInstance == null) {
+            mInstance = new ResponseCache(null);
+        }
+
+        return mInstance;
+    }
+
+    ResponseCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * 缓存的响应(不论是否过期),没有时返回null
+     *
+     * @param key
+     * @return
+     */
+    public Entry get(String key) {
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null || dir == null) return entry;
+        }
+
+        Entry entry = read(new File(dir, DiskLruImageCache.toKey(key)), key);
+        if (entry == null) return null;
+        synchronized (this) {
+            //读文件期间有新的put时以内存为准
+            Entry newer = memory.get(key);
+            if (newer != null) return newer;
+            memory.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * 保存响应
+     *
+     * @param key
+     * @param entry
+     * @return 与原来缓存的响应体不同时返回true
+     */
+    public boolean put(String key, Entry entry) {
+        Entry   old     = get(key);
+        boolean changed = old == null || !Arrays.equals(old.body, entry.body);
+        synchronized (this) {
+            memory.put(key, entry);
+        }
+        if (dir != null) {
+            synchronized (diskLock) {
+                if (write(key, entry)) trim();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 服务器返回304时,只更新取得时间(文件中只改写取得时间)
+     *
+     * @param key
+     * @param fetchedAt
+     * @return 缓存已不存在(期间被删除)时返回false
+     */
+    public boolean touch(String key, long fetchedAt) {
+        Entry old = get(key);
+        if (old == null) return false;
+        Entry entry = new Entry(old.body, old.etag, old.lastModified, fetchedAt);
+        synchronized (this) {
+            memory.put(key, entry);
+        }
+        if (dir != null) {
+            synchronized (diskLock) {
+                //文件已被trim删除时整体写入
+                if (!writeFetchedAt(new File(dir, DiskLruImageCache.toKey(key)), fetchedAt) && write(key, entry)) trim();
+            }
+        }
+        return true;
+    }
+
+    public void remove(String key) {
+        synchronized (this) {
+            memory.remove(key);
+        }
+        if (dir != null) {
+            synchronized (diskLock) {
+                new File(dir, DiskLruImageCache.toKey(key)).delete();
+            }
+        }
+    }
+
+    private boolean write(String key, Entry entry) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.d(TAG, "生成缓存目录失败:" + dir);
+            return false;
+        }
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(entry.body.length + 256);
+            DataOutputStream      out = new DataOutputStream(bos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(entry.fetchedAt);
+            out.writeUTF(key);
+            writeString(out, entry.etag);
+            writeString(out, entry.lastModified);
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+            out.flush();
+            return FileUtil.writeFileAtomic(new File(dir, DiskLruImageCache.toKey(key)), bos.toByteArray());
+        } catch (IOException e) {
+            Log.d(TAG, "保存缓存失败:" + key);
+        }
+        return false;
+    }
+
+    /**
+     * 只改写文件中的取得时间,同时更新了文件的修改时间(trim按修改时间删除)
+     *
+     * @param file
+     * @param fetchedAt
+     * @return 文件不存在或不是当前版本时返回false
+     */
+    private static boolean writeFetchedAt(File file, long fetchedAt) {
+        if (!file.isFile()) return false;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() < FETCHED_AT_OFFSET + 8 || raf.readInt() != MAGIC || raf.readInt() != VERSION) return false;
+            raf.seek(FETCHED_AT_OFFSET);
+            raf.writeLong(fetchedAt);
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "更新缓存时间失败:" + file);
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static Entry read(File file, String key) {
+        byte[] bytes = FileUtil.readBytes(file);
+        if (bytes == null) return null;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            //MD5相同的其它key也当作没有缓存
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long fetchedAt = in.readLong();
+            if (!key.equals(in.readUTF())) return null;
+            String etag         = readString(in);
+            String lastModified = readString(in);
+            byte[] body         = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(body, etag, lastModified, fetchedAt);
+        } catch (IOException e) {
+            Log.d(TAG, "读取缓存失败:" + key);
+        }
+        return null;
+    }
+
+    /**
+     * 文件数超过上限时,删除最久没有更新的
+     */
+    private void trim() {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= MAX_ENTRIES) return;
+
+        long[] modified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+        }
+        long[] sorted = modified.clone();
+        Arrays.sort(sorted);
+        long threshold = sorted[files.length - MAX_ENTRIES];
+        for (int i = 0; i < files.length; i++) {
+            if (modified[i] < threshold) files[i].delete();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * 缓存的一条响应
+     */
+    public static class Entry {
+        public final byte[] body;
+        public final String etag;
+        public final String lastModified;
+        /*取得(或最后一次确认未变更)的时间*/
+        public final long   fetchedAt;
+
+        public Entry(byte[] body, String etag, String lastModified, long fetchedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * @param ttl 有效时间
+         * @return 取得后是否还没超过有效时间
+         */
+        public boolean isFresh(long ttl) {
+            long age = System.currentTimeMillis() - fetchedAt;
+            return age >= 0 && age < ttl;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.fanhl.doujinMoe.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.fanhl.doujinMoe.api.PageApi;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.util.ThreadUtil;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gallery拖动SeekBar时的预览图加载
+ * <p>
+ * 使用书籍的小预览图(preview),在后台线程解码并缓存在内存中.
+ * 拖动过程中只加载最后一次请求的page,中间划过的page直接跳过,加载完后顺带预取相邻的几页.
+ */
+public class ScrubPreviewLoader {
+    public static final String TAG = ScrubPreviewLoader.class.getSimpleName();
+
+    /*预取相邻page的数量(单侧)*/
+    private static final int PREFETCH_DISTANCE = 2;
+
+    private final Context context;
+    private final Book    book;
+    private final int     width;
+    private final int     height;
+
+    private final Handler                  loadHandler;
+    private final Handler                  uiHandler;
+    private final LruCache<Integer, Bitmap> memoryCache;
+
+    private OnPreviewLoadedListener listener;
+
+    /*最后一次请求的page,-1表示没有待加载的请求*/
+    private final AtomicInteger pendingPosition = new AtomicInteger(-1);
+
+    public ScrubPreviewLoader(Context context, Book book, int width, int height) {
+        this.context = context.getApplicationContext();
+        this.book = book;
+        this.width = width;
+        this.height = height;
+
+        loadHandler = ThreadUtil.createBackgroundHandler("ScrubPreviewThread");
+        uiHandler = new Handler(Looper.getMainLooper());
+
+        int maxSize = (int) (Runtime.getRuntime().maxMemory() / 16);
+        memoryCache = new LruCache<Integer, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+    }
+
+    public void setOnPreviewLoadedListener(OnPreviewLoadedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 取得内存中已缓存的预览图
+     *
+     * @param position
+     * @return
+     */
+    public Bitmap getCached(int position) {
+        return memoryCache.get(position);
+    }
+
+    /**
+     * 请求加载预览图,完成后在UI线程回调.只保留最后一次请求.
+     *
+     * @param position
+     */
+    public void request(int position) {
+        if (position < 0 || position >= book.pages.size()) return;
+
+        if (pendingPosition.getAndSet(position) == -1) loadHandler.post(this::loadPending);
+    }
+
+    public void release() {
+        pendingPosition.set(-1);
+        loadHandler.removeCallbacksAndMessages(null);
+        loadHandler.getLooper().quit();
+        memoryCache.evictAll();
+        listener = null;
+    }
+
+    private void loadPending() {
+        int position = pendingPosition.get();
+        if (position == -1) return;
+
+        Bitmap bitmap = load(position);
+        //加载期间又有新的请求时继续加载最新的,否则结束
+        boolean done = pendingPosition.compareAndSet(position, -1);
+        if (!done) loadHandler.post(this::loadPending);
+
+        if (bitmap != null) {
+            uiHandler.post(() -> {
+                if (listener != null) listener.onPreviewLoaded(position, bitmap);
+            });
+        }
+
+        if (done) prefetch(position);
+    }
+
+    private void prefetch(int position) {
+        for (int i = 1; i <= PREFETCH_DISTANCE; i++) {
+            if (pendingPosition.get() != -1) return;
+            load(position + i);
+            if (pendingPosition.get() != -1) return;
+            load(position - i);
+        }
+    }
+
+    private Bitmap load(int position) {
+        if (position < 0 || position >= book.pages.size()) return null;
+
+        Bitmap bitmap = memoryCache.get(position);
+        if (bitmap != null) return bitmap;
+
+        try {
+            bitmap = book.isDownloaded() ? decodePageFile(position) : decodePreview(CompactPageList.preview(book.pages, position));
+        } catch (IOException e) {
+            Log.d(TAG, "取得预览图失败:" + position);
+        }
+
+        if (bitmap != null) memoryCache.put(position, bitmap);
+        return bitmap;
+    }
+
+    private Bitmap decodePreview(String preview) throws IOException {
+        if (preview == null) return null;
+        return Picasso.with(context)
+                .load(preview)
+                .resize(width, height)
+                .centerInside()
+                .onlyScaleDown()
+                .get();
+    }
+
+    private Bitmap decodePageFile(int position) {
+        File pageFile = PageApi.getPageFile(context, book, position);
+        if (!pageFile.isFile()) return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(pageFile.getPath(), options);
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(pageFile.getPath(), options);
+    }
+
+    public interface OnPreviewLoadedListener {
+        void onPreviewLoaded(int position, Bitmap bitmap);
+    }
+}
@@ -0,0 +1,66 @@
+package com.fanhl.doujinMoe.util;
+
+import com.fanhl.doujinMoe.model.Book;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 按指定顺序排列,以token区分的线程安全书籍列表.
+ * 读取时返回快照,不会与后台线程的修改冲突.
+ */
+public class SortedBookList {
+    private final Comparator<Book> comparator;
+    private final List<Book>       books;
+
+    public SortedBookList(Comparator<Book> comparator) {
+        this.comparator = comparator;
+        books = new ArrayList<>();
+    }
+
+    /**
+     * 加入或替换(token相同)书籍
+     *
+     * @param book
+     */
+    public synchronized void put(Book book) {
+        int index = indexOf(book.token);
+        if (index >= 0) books.remove(index);
+
+        int insertion = Collections.binarySearch(books, book, comparator);
+        books.add(insertion < 0 ? -insertion - 1 : insertion, book);
+    }
+
+    public synchronized boolean remove(String token) {
+        int index = indexOf(token);
+        if (index < 0) return false;
+        books.remove(index);
+        return true;
+    }
+
+    public synchronized boolean contains(String token) {
+        return indexOf(token) >= 0;
+    }
+
+    public synchronized void clear() {
+        books.clear();
+    }
+
+    public synchronized int size() {
+        return books.size();
+    }
+
+    public synchronized List<Book> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(books));
+    }
+
+    private int indexOf(String token) {
+        if (token == null) return -1;
+        for (int i = 0; i < books.size(); i++) {
+            if (token.equals(books.get(i).token)) return i;
+        }
+        return -1;
+    }
+}
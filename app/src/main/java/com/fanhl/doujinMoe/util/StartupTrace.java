@@ -0,0 +1,73 @@
+package com.fanhl.doujinMoe.util;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * 启动耗时的记录
+ * <p>
+ * 从Application.onCreate开始计时,各阶段用mark记录,第一次显示出内容(绘制前)时输出一行汇总日志:
+ * <pre>StartupTrace: first_content(snapshot) 212ms [app_created 35ms, main_created 140ms]</pre>
+ * 内容的来源(snapshot:启动快照,refresh:缓存或服务器)用来比较有无快照时的差别.
+ * API 19以上同时调用reportFullyDrawn(systrace中可以看到).
+ * 不使用Trace.beginSection/endSection:section必须在同一线程的同一调用内开始和结束,
+ * 这里的开始(Application.onCreate)和结束(绘制前的回调)不满足,没有内容时也不会结束.
+ */
+public class StartupTrace {
+    public static final String TAG = StartupTrace.class.getSimpleName();
+
+    private static long          startTime = -1;
+    private static StringBuilder stages;
+    private static boolean       finished;
+
+    /**
+     * Application.onCreate开始时调用
+     */
+    public static void start() {
+        startTime = SystemClock.uptimeMillis();
+        stages = new StringBuilder();
+        finished = false;
+    }
+
+    /**
+     * 记录一个阶段完成的时间
+     *
+     * @param stage
+     */
+    public static void mark(String stage) {
+        if (startTime < 0 || finished) return;
+        if (stages.length() > 0) stages.append(", ");
+        stages.append(stage).append(' ').append(SystemClock.uptimeMillis() - startTime).append("ms");
+    }
+
+    /**
+     * 内容已放入view,在下一次绘制前记录首次显示内容的时间(只记录第一次)
+     *
+     * @param activity
+     * @param view     显示内容的view
+     * @param source   内容的来源
+     */
+    public static void firstContent(Activity activity, View view, String source) {
+        if (startTime < 0 || finished || view == null) return;
+        ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (view.getViewTreeObserver().isAlive()) view.getViewTreeObserver().removeOnPreDrawListener(this);
+                finish(activity, source);
+                return true;
+            }
+        });
+    }
+
+    private static void finish(Activity activity, String source) {
+        if (finished) return;
+        finished = true;
+        Log.i(TAG, "first_content(" + source + ") " + (SystemClock.uptimeMillis() - startTime) + "ms [" + stages + "]");
+        if (activity != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) activity.reportFullyDrawn();
+    }
+}
@@ -0,0 +1,390 @@
+package com.fanhl.doujinMoe.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.fanhl.doujinMoe.api.BookApi;
+import com.fanhl.doujinMoe.exception.GetBookFailException;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.util.ThreadUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 已下载书籍的存储空间上限
+ * <p>
+ * 每本书的占用空间启动时从书库索引读入一次,之后随page下载和书籍增删增量更新,不再遍历书库目录.
+ * 超过用户设定的上限时,按最近阅读时间从旧到新删除未固定的已下载书籍,直到回到上限以内;正在阅读的书籍不删除.
+ * 上限和固定的书籍保存在filesDir/storage_quota中(第一行为上限,之后每行一个token).
+ * 所有统计,设定的修改和删除都在QuotaThread中进行(在load之后,不会被文件中的旧值覆盖),
+ * 用量和删除进度在UI线程通知给监听者.
+ */
+public class StorageQuotaManager {
+    public static final String TAG = StorageQuotaManager.class.getSimpleName();
+
+    public static final String QUOTA_FILENAME = "storage_quota";
+
+    /*不限制*/
+    public static final long NO_LIMIT = 0;
+
+    /*超出上限后,等待下载的page写入一段时间再开始删除*/
+    private static final long ENFORCE_DELAY     = 1000;
+    /*删除进度的最短通知间隔*/
+    private static final long PROGRESS_INTERVAL = 100;
+
+    private static StorageQuotaManager mInstance;
+
+    private final Context context;
+    private final File    quotaFile;
+    private final Handler quotaHandler;
+    private final Handler uiHandler;
+
+    /*token -> 占用空间,只在quotaHandler线程中修改*/
+    private final Map<String, Long> sizes;
+    /*固定的书籍,不会被自动删除;只在quotaHandler线程中修改*/
+    private final Set<String>          pinned;
+    /*正在阅读的书籍 token -> 打开的数量,不会被自动删除;只在quotaHandler线程中使用*/
+    private final Map<String, Integer> openBooks;
+
+    private volatile long    usage;
+    private volatile long    limit = NO_LIMIT;
+    private volatile boolean loaded;
+
+    private final List<OnStorageChangeListener> mOnStorageChangeListeners;
+
+    private final Runnable enforceRunnable = this::enforce;
+
+    public static StorageQuotaManager getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new StorageQuotaManager(context.getApplicationContext());
+        }
+
+        return mInstance;
+    }
+
+    private StorageQuotaManager(Context context) {
+        this.context = context;
+        quotaFile = new File(context.getFilesDir(), QUOTA_FILENAME);
+        quotaHandler = ThreadUtil.createBackgroundHandler("QuotaThread");
+        uiHandler = new Handler(Looper.getMainLooper());
+        sizes = new HashMap<>();
+        pinned = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        openBooks = new HashMap<>();
+        mOnStorageChangeListeners = new CopyOnWriteArrayList<>();
+
+        //先于之后的所有增量更新执行
+        quotaHandler.post(this::load);
+        LocalManager.getInstance(context).addOnLocalBooksChangeListener(this::onLocalBooksChanged);
+    }
+
+    /**
+     * 已下载书籍的总占用空间(byte),读入前为0
+     *
+     * @return
+     */
+    public long getUsage() {
+        return usage;
+    }
+
+    /**
+     * @return 上限(byte), NO_LIMIT为不限制
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 设置上限,超出时立即开始删除
+     *
+     * @param limit byte, NO_LIMIT为不限制
+     */
+    public void setLimit(long limit) {
+        quotaHandler.post(() -> {
+            this.limit = Math.max(NO_LIMIT, limit);
+            save();
+            dispatchOnStorageUsageChanged();
+            scheduleEnforce(0);
+        });
+    }
+
+    public boolean isPinned(String token) {
+        return token != null && pinned.contains(token);
+    }
+
+    /**
+     * 固定/取消固定书籍,固定的书籍不会被自动删除
+     *
+     * @param token
+     * @param pin
+     */
+    public void setPinned(String token, boolean pin) {
+        if (token == null) return;
+        quotaHandler.post(() -> {
+            boolean changed = pin ? pinned.add(token) : pinned.remove(token);
+            if (!changed) return;
+            save();
+            if (!pin) scheduleEnforce(0);
+        });
+    }
+
+    /**
+     * 开始阅读书籍(GalleryActivity),到onBookClosed为止不会被自动删除
+     *
+     * @param token
+     */
+    public void onBookOpened(String token) {
+        if (token == null) return;
+        quotaHandler.post(() -> {
+            Integer count = openBooks.get(token);
+            openBooks.put(token, count == null ? 1 : count + 1);
+        });
+    }
+
+    /**
+     * 结束阅读书籍,仍超出上限时重新检查
+     *
+     * @param token
+     */
+    public void onBookClosed(String token) {
+        if (token == null) return;
+        quotaHandler.post(() -> {
+            Integer count = openBooks.get(token);
+            if (count == null) return;
+            if (count > 1) {
+                openBooks.put(token, count - 1);
+                return;
+            }
+            openBooks.remove(token);
+            if (isOverLimit()) scheduleEnforce(ENFORCE_DELAY);
+        });
+    }
+
+    /**
+     * page图片已写入书籍目录
+     *
+     * @param token
+     * @param length 图片大小
+     */
+    public void onPageWritten(String token, long length) {
+        if (token == null || length <= 0) return;
+        quotaHandler.post(() -> {
+            Long size = sizes.get(token);
+            sizes.put(token, (size == null ? 0 : size) + length);
+            usage += length;
+            dispatchOnStorageUsageChanged();
+            if (isOverLimit()) scheduleEnforce(ENFORCE_DELAY);
+        });
+    }
+
+    /**
+     * 书籍保存或删除后,以书库索引中的占用空间为准
+     *
+     * @param changes
+     */
+    private void onLocalBooksChanged(List<LocalManager.BookChange> changes) {
+        List<String> resized = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (LocalManager.BookChange change : changes) {
+            if (change.type == LocalManager.BookChange.Type.REMOVED) {
+                removed.add(change.book.token);
+            } else if (change.book.isDownloaded()) {
+                //下载中的书籍索引里是上次保存时的大小,以增量统计为准
+                resized.add(change.book.token);
+            }
+        }
+        if (resized.isEmpty() && removed.isEmpty()) return;
+
+        quotaHandler.post(() -> {
+            FileCacheManager m = FileCacheManager.getInstance(context);
+            for (String token : resized) {
+                long size = m.getLocalBookSize(token);
+                if (size >= 0) setSize(token, size);
+            }
+            for (String token : removed) {
+                setSize(token, 0);
+            }
+            dispatchOnStorageUsageChanged();
+            if (isOverLimit()) scheduleEnforce(ENFORCE_DELAY);
+        });
+    }
+
+    private void setSize(String token, long size) {
+        Long old = size > 0 ? sizes.put(token, size) : sizes.remove(token);
+        usage += size - (old == null ? 0 : old);
+    }
+
+    private boolean isOverLimit() {
+        return limit != NO_LIMIT && usage > limit;
+    }
+
+    private void scheduleEnforce(long delay) {
+        quotaHandler.removeCallbacks(enforceRunnable);
+        quotaHandler.postDelayed(enforceRunnable, delay);
+    }
+
+    /**
+     * 按最近阅读时间从旧到新删除书籍,直到用量回到上限以内
+     */
+    private void enforce() {
+        if (!isOverLimit()) return;
+
+        List<Book> books;
+        try {
+            books = BookApi.getLocalBooks(context);
+        } catch (GetBookFailException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+            return;
+        }
+
+        FileCacheManager      m        = FileCacheManager.getInstance(context);
+        List<Book>            victims  = new ArrayList<>();
+        final Map<Book, Long> lastUsed = new HashMap<>();
+        for (Book book : books) {
+            //下载中的书籍,固定的书籍和正在阅读的书籍不删除
+            if (!book.isDownloaded() || isPinned(book.token) || openBooks.containsKey(book.token)) continue;
+            long recent = book.recent == null ? 0 : book.recent.getTime();
+            lastUsed.put(book, Math.max(recent, m.getBookModified(book)));
+            victims.add(book);
+        }
+        Collections.sort(victims, (lhs, rhs) -> {
+            long l = lastUsed.get(lhs);
+            long r = lastUsed.get(rhs);
+            return l < r ? -1 : (l == r ? 0 : 1);
+        });
+
+        //先选出要删除的书籍,进度按总共要释放的空间计算
+        long excess   = usage - limit;
+        long freeable = 0;
+        int  count    = 0;
+        while (count < victims.size() && freeable < excess) {
+            Long size = sizes.get(victims.get(count).token);
+            freeable += size == null ? 0 : size;
+            count++;
+        }
+        if (count == 0) {
+            Log.d(TAG, "超出存储上限,但没有可以删除的书籍.");
+            return;
+        }
+        Log.d(TAG, "超出存储上限 " + excess + " byte,删除书籍:" + count);
+
+        final long   total    = freeable;
+        final long[] deleted  = {0};
+        final long[] notified = {0};
+        for (int i = 0; i < count; i++) {
+            Book book = victims.get(i);
+            boolean removed = m.deleteBook(book, (file, length) -> {
+                deleted[0] += length;
+                long now = SystemClock.uptimeMillis();
+                if (now - notified[0] < PROGRESS_INTERVAL) return;
+                notified[0] = now;
+                dispatchOnEvictionProgress(book, deleted[0], total, false);
+            });
+            if (!removed) continue;
+
+            setSize(book.token, 0);
+            BookStore.getInstance(context).evict(book.token);
+            LocalManager.getInstance(context).notifyBookRemoved(book.token);
+            dispatchOnStorageUsageChanged();
+        }
+        dispatchOnEvictionProgress(null, deleted[0], total, true);
+    }
+
+    private void load() {
+        String text = FileUtil.readFile(quotaFile);
+        if (text != null) {
+            String[] lines = text.split("\n");
+            try {
+                limit = Math.max(NO_LIMIT, Long.parseLong(lines[0].trim()));
+            } catch (NumberFormatException e) {
+                Log.d(TAG, "读取存储上限失败.");
+            }
+            for (int i = 1; i < lines.length; i++) {
+                String token = lines[i].trim();
+                if (!token.isEmpty()) pinned.add(token);
+            }
+        }
+
+        sizes.clear();
+        sizes.putAll(FileCacheManager.getInstance(context).getLocalBookSizes());
+        long total = 0;
+        for (Long size : sizes.values()) {
+            total += size;
+        }
+        usage = total;
+        loaded = true;
+        Log.d(TAG, "已下载书籍占用空间:" + usage + "/" + limit);
+
+        dispatchOnStorageUsageChanged();
+        if (isOverLimit()) scheduleEnforce(0);
+    }
+
+    private void save() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(limit).append('\n');
+        for (String token : pinned) {
+            sb.append(token).append('\n');
+        }
+        try {
+            if (!FileUtil.writeFileAtomic(quotaFile, sb.toString().getBytes("UTF-8"))) Log.d(TAG, "保存存储上限失败.");
+        } catch (IOException e) {
+            Log.d(TAG, "保存存储上限失败.");
+        }
+    }
+
+    private void dispatchOnStorageUsageChanged() {
+        long usage = this.usage;
+        long limit = this.limit;
+        uiHandler.post(() -> {
+            for (OnStorageChangeListener listener : mOnStorageChangeListeners) {
+                listener.onStorageUsageChanged(usage, limit);
+            }
+        });
+    }
+
+    private void dispatchOnEvictionProgress(Book book, long deleted, long total, boolean finished) {
+        uiHandler.post(() -> {
+            for (OnStorageChangeListener listener : mOnStorageChangeListeners) {
+                listener.onEvictionProgress(book, deleted, total, finished);
+            }
+        });
+    }
+
+    public void addOnStorageChangeListener(OnStorageChangeListener listener) {
+        mOnStorageChangeListeners.add(listener);
+    }
+
+    public void removeOnStorageChangeListener(OnStorageChangeListener listener) {
+        mOnStorageChangeListeners.remove(listener);
+    }
+
+    /**
+     * 存储用量和自动删除的进度(UI线程)
+     */
+    public interface OnStorageChangeListener {
+        void onStorageUsageChanged(long usage, long limit);
+
+        /**
+         * @param book     正在删除的书籍,finished时为null
+         * @param deleted  已释放的空间
+         * @param total    本次要释放的空间
+         * @param finished 本次删除已结束
+         */
+        void onEvictionProgress(Book book, long deleted, long total, boolean finished);
+    }
+}
@@ -0,0 +1,384 @@
+package com.fanhl.doujinMoe.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.fanhl.doujinMoe.api.PageApi;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.ui.widget.AtlasCellDrawable;
+import com.fanhl.util.GsonUtil;
+import com.fanhl.util.ThreadUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.android.schedulers.HandlerScheduler;
+
+/**
+ * 书籍page缩略图的图集(sprite sheet)
+ * <p>
+ * 所有page的缩略图按固定大小的格子依次打包进少数几张图集中,格子的位置由page序号算出,
+ * 索引文件只需记录每张缩略图在格子中实际占用的宽高.列表和Gallery的拖动预览都从同一张图集上截取显示.
+ * <p>
+ * 所有写操作(填充格子,保存)都在图集线程上执行,UI线程只读;index和sheets的读写都以图集本身同步.
+ * 图集以PNG保存,追加格子后重新保存不会让已有的格子变差.
+ */
+public class ThumbnailAtlas {
+    public static final String TAG = ThumbnailAtlas.class.getSimpleName();
+
+    public static final String ATLAS_FOLDER    = "atlas";
+    public static final String INDEX_FILENAME  = "atlas.json";
+    public static final String SHEET_FILENAME  = "sheet_%d.png";
+    public static final int    INDEX_VERSION   = 2;
+    /*格子大小及每张图集的格子数*/
+    public static final int    CELL_WIDTH      = 108;
+    public static final int    CELL_HEIGHT     = 152;
+    public static final int    COLUMNS         = 10;
+    public static final int    ROWS            = 6;
+    public static final int    CELLS_PER_SHEET = COLUMNS * ROWS;
+
+    /*一张图集(RGB_565)占用的内存*/
+    private static final int SHEET_BYTES = COLUMNS * CELL_WIDTH * ROWS * CELL_HEIGHT * 2;
+
+    private static Handler   atlasHandler;
+    private static Scheduler atlasScheduler;
+    /*最近打开的图集,详细页和Gallery共用同一个实例.按图集全部解码后的大小计算,合计不超过可用内存的1/8*/
+    private static final LruCache<String, ThumbnailAtlas> openedAtlases = new LruCache<String, ThumbnailAtlas>((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8)) {
+        @Override
+        protected int sizeOf(String key, ThumbnailAtlas atlas) {
+            //用上限而不是当前已解码的大小,之后新建图集时大小不变
+            return atlas.sheets.length * SHEET_BYTES;
+        }
+    };
+
+    private final File     dir;
+    private final int      count;
+    private final Bitmap[] sheets;
+    private final boolean[] dirtySheets;
+    private final Index    index;
+    private final Paint    paint;
+
+    private boolean dirty;
+
+    private ThumbnailAtlas(File dir, int count, Index index) {
+        this.dir = dir;
+        this.count = count;
+        this.index = index;
+        int sheetCount = (count + CELLS_PER_SHEET - 1) / CELLS_PER_SHEET;
+        sheets = new Bitmap[sheetCount];
+        dirtySheets = new boolean[sheetCount];
+        paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    }
+
+    private static synchronized Handler getAtlasHandler() {
+        if (atlasHandler == null) {
+            atlasHandler = ThreadUtil.createBackgroundHandler("AtlasThread");
+            atlasScheduler = HandlerScheduler.from(atlasHandler);
+        }
+        return atlasHandler;
+    }
+
+    private static Scheduler getAtlasScheduler() {
+        getAtlasHandler();
+        return atlasScheduler;
+    }
+
+    /**
+     * 在图集线程上打开书籍的图集.
+     * 已下载的书籍在打开后会用本地图片补全缺少的格子,补全后再发射一次.
+     *
+     * @param context
+     * @param book
+     * @return
+     */
+    public static Observable<ThumbnailAtlas> load(Context context, Book book) {
+        return Observable.<ThumbnailAtlas>create(subscriber -> {
+            ThumbnailAtlas atlas = open(context, book);
+            subscriber.onNext(atlas);
+            if (book.isDownloaded() && !atlas.isComplete()) {
+                atlas.fillFromPageFiles(context, book);
+                atlas.save();
+                subscriber.onNext(atlas);
+            }
+            subscriber.onCompleted();
+        }).subscribeOn(getAtlasScheduler());
+    }
+
+    /**
+     * 读取图集(需在图集线程中调用)
+     *
+     * @param context
+     * @param book
+     * @return
+     */
+    private static ThumbnailAtlas open(Context context, Book book) {
+        int    count = book.pages == null ? 0 : book.pages.size();
+        String key   = book.token + (book.isDownloaded() ? "/local" : "/online");
+
+        ThumbnailAtlas atlas = openedAtlases.get(key);
+        if (atlas != null && atlas.count == count) return atlas;
+
+        File  dir   = FileCacheManager.getInstance(context).getAtlasDir(book);
+        Index index = dir == null ? null : GsonUtil.obj(FileUtil.readFile(new File(dir, INDEX_FILENAME)), Index.class);
+        if (index == null || !index.matches(count)) {
+            Log.d(TAG, "图集不存在或已失效,重新生成:" + book);
+            index = new Index(count);
+            deleteSheetFiles(dir);
+        }
+
+        atlas = new ThumbnailAtlas(dir, count, index);
+        atlas.decodeSheets();
+        openedAtlases.put(key, atlas);
+        return atlas;
+    }
+
+    private static void deleteSheetFiles(File dir) {
+        File[] files = dir == null ? null : dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.getName().equals(INDEX_FILENAME)) file.delete();
+        }
+    }
+
+    private synchronized void decodeSheets() {
+        if (dir == null) return;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+
+        for (int i = 0; i < sheets.length; i++) {
+            File sheetFile = new File(dir, String.format(SHEET_FILENAME, i));
+            if (sheetFile.isFile()) sheets[i] = BitmapFactory.decodeFile(sheetFile.getPath(), options);
+            if (sheets[i] == null) {
+                //图集文件丢失时,其中的格子都视为不存在
+                int end = Math.min(count, (i + 1) * CELLS_PER_SHEET);
+                for (int position = i * CELLS_PER_SHEET; position < end; position++) {
+                    index.widths[position] = 0;
+                    index.heights[position] = 0;
+                }
+            }
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public synchronized boolean hasCell(int position) {
+        return position >= 0 && position < count && index.widths[position] > 0 && sheets[position / CELLS_PER_SHEET] != null;
+    }
+
+    public synchronized boolean isComplete() {
+        for (int i = 0; i < count; i++) {
+            if (!hasCell(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 取得格子在图集中实际占用的区域
+     *
+     * @param position
+     * @return
+     */
+    public synchronized Rect getCellRect(int position) {
+        int slot = position % CELLS_PER_SHEET;
+        int left = (slot % COLUMNS) * CELL_WIDTH;
+        int top  = (slot / COLUMNS) * CELL_HEIGHT;
+        return new Rect(left, top, left + index.widths[position], top + index.heights[position]);
+    }
+
+    /**
+     * 生成绘制某一格的Drawable,格子不存在时返回null
+     *
+     * @param position
+     * @return
+     */
+    public synchronized Drawable getCellDrawable(int position) {
+        if (!hasCell(position)) return null;
+        return new AtlasCellDrawable(sheets[position / CELLS_PER_SHEET], getCellRect(position));
+    }
+
+    /**
+     * 将取得的预览图放入图集(异步,在图集线程中缩放绘制)
+     *
+     * @param position
+     * @param thumbnail
+     */
+    public void offer(int position, Bitmap thumbnail) {
+        if (position < 0 || position >= count || thumbnail == null || hasCell(position)) return;
+        getAtlasHandler().post(() -> {
+            if (!thumbnail.isRecycled()) put(position, thumbnail);
+        });
+    }
+
+    /**
+     * 异步保存图集
+     */
+    public void saveAsync() {
+        getAtlasHandler().post(this::save);
+    }
+
+    private synchronized void put(int position, Bitmap thumbnail) {
+        if (hasCell(position)) return;
+
+        int sheetIndex = position / CELLS_PER_SHEET;
+        if (sheets[sheetIndex] == null) {
+            sheets[sheetIndex] = Bitmap.createBitmap(COLUMNS * CELL_WIDTH, ROWS * CELL_HEIGHT, Bitmap.Config.RGB_565);
+        }
+
+        //按比例缩放到格子中
+        float scale  = Math.min((float) CELL_WIDTH / thumbnail.getWidth(), (float) CELL_HEIGHT / thumbnail.getHeight());
+        int   width  = Math.max(1, Math.min(CELL_WIDTH, Math.round(thumbnail.getWidth() * scale)));
+        int   height = Math.max(1, Math.min(CELL_HEIGHT, Math.round(thumbnail.getHeight() * scale)));
+
+        int slot = position % CELLS_PER_SHEET;
+        int left = (slot % COLUMNS) * CELL_WIDTH;
+        int top  = (slot / COLUMNS) * CELL_HEIGHT;
+        new Canvas(sheets[sheetIndex]).drawBitmap(thumbnail, null, new Rect(left, top, left + width, top + height), paint);
+
+        index.heights[position] = height;
+        index.widths[position] = width;
+        dirtySheets[sheetIndex] = true;
+        dirty = true;
+    }
+
+    /**
+     * 用已下载的page图片补全图集(需在图集线程中调用)
+     *
+     * @param context
+     * @param book
+     */
+    private void fillFromPageFiles(Context context, Book book) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        for (int i = 0; i < count; i++) {
+            if (hasCell(i)) continue;
+
+            File pageFile = PageApi.getPageFile(context, book, i);
+            if (!pageFile.isFile()) continue;
+
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(pageFile.getPath(), options);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = calcSampleSize(options.outWidth, options.outHeight);
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+
+            Bitmap bitmap = BitmapFactory.decodeFile(pageFile.getPath(), options);
+            if (bitmap == null) continue;
+            put(i, bitmap);
+            bitmap.recycle();
+        }
+        Log.d(TAG, "从本地图片生成图集完成:" + book);
+    }
+
+    private static int calcSampleSize(int width, int height) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= CELL_WIDTH && height / (sampleSize * 2) >= CELL_HEIGHT) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 保存有变更的图集及索引(需在图集线程中调用)
+     *
+     * @return
+     */
+    private boolean save() {
+        //put也在图集线程中执行,保存过程中图集不会被改写,只在取出状态时加锁,压缩写入时UI线程不用等待
+        Bitmap[] changed = new Bitmap[sheets.length];
+        String   json;
+        synchronized (this) {
+            if (!dirty) return true;
+            for (int i = 0; i < sheets.length; i++) {
+                if (dirtySheets[i]) changed[i] = sheets[i];
+            }
+            json = GsonUtil.json(index);
+        }
+        if (dir == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            Log.d(TAG, "图集目录不可用.");
+            return false;
+        }
+
+        //只写有新格子的图集
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i] == null) continue;
+            if (!writeSheet(changed[i], new File(dir, String.format(SHEET_FILENAME, i)))) return false;
+            synchronized (this) {
+                dirtySheets[i] = false;
+            }
+        }
+
+        boolean saved = FileUtil.writeFileAtomic(new File(dir, INDEX_FILENAME), json);
+        synchronized (this) {
+            dirty = !saved;
+        }
+        return saved;
+    }
+
+    private static boolean writeSheet(Bitmap sheet, File sheetFile) {
+        File         tmpFile = new File(sheetFile.getPath() + FileUtil.TMP_SUFFIX);
+        OutputStream out     = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            if (!sheet.compress(Bitmap.CompressFormat.PNG, 100, out)) return false;
+        } catch (IOException e) {
+            Log.d(TAG, "保存图集失败.");
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return tmpFile.renameTo(sheetFile);
+    }
+
+    /**
+     * 图集索引,格子位置由page序号决定,这里只记录缩略图实际的宽高(0表示还没有)
+     */
+    static class Index {
+        int   version;
+        int   count;
+        int   cellWidth;
+        int   cellHeight;
+        int   columns;
+        int   rows;
+        int[] widths;
+        int[] heights;
+
+        Index(int count) {
+            version = INDEX_VERSION;
+            this.count = count;
+            cellWidth = CELL_WIDTH;
+            cellHeight = CELL_HEIGHT;
+            columns = COLUMNS;
+            rows = ROWS;
+            widths = new int[count];
+            heights = new int[count];
+        }
+
+        boolean matches(int count) {
+            return version == INDEX_VERSION && this.count == count
+                    && cellWidth == CELL_WIDTH && cellHeight == CELL_HEIGHT && columns == COLUMNS && rows == ROWS
+                    && widths != null && widths.length == count && heights != null && heights.length == count;
+        }
+    }
+}
@@ -6,11 +6,9 @@ import android.util.DisplayMetrics;
 import android.view.Display;
 import android.view.WindowManager;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import com.fanhl.util.TextUtil;
+
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.Method;
 
 public class Utility {
@@ -29,19 +27,7 @@ public class Utility {
 	}
 
 	public static String getFirstCharacter(String sentence) {
-		for (int i = 0; i < sentence.length(); i++) {
-			String s = sentence.substring(i, i+1);
-			if (s.equals("[") || s.equals("]")) continue;
-			if (s.equals("{") || s.equals("}")) continue;
-			if (s.equals("(") || s.equals(")")) continue;
-			if (s.equals(",") || s.equals(".")) continue;
-			if (s.equals("<") || s.equals(">")) continue;
-			if (s.equals("《") || s.equals("》")) continue;
-			if (s.equals("【") || s.equals("】")) continue;
-			if (s.equals("｛") || s.equals("｝")) continue;
-			return s;
-		}
-		return null;
+		return TextUtil.getFirstCharacter(sentence);
 	}
 
 	public static String getSystemProperties(String key) {
@@ -85,21 +71,12 @@ public class Utility {
 	}
 
 	public static void saveStringToFile(Context context, String name, String text) throws IOException {
-		FileOutputStream fos = context.openFileOutput(name, Context.MODE_PRIVATE);
-		fos.write(text.getBytes());
-		fos.close();
+		if (!FileUtil.writeFileAtomic(context.getFileStreamPath(name), text)) throw new IOException("保存文件失败:" + name);
 	}
 
 	public static String readStringFromFile(Context context, String name) throws IOException{
-		File file = context.getFileStreamPath(name);
-		InputStream is = new FileInputStream(file);
-
-		byte b[] = new byte[(int) file.length()];
-
-		is.read(b);
-		is.close();
-
-		String string = new String(b);
+		String string = FileUtil.readFile(context.getFileStreamPath(name));
+		if (string == null) throw new IOException("读取文件失败:" + name);
 
 		return string;
 	}
@@ -2,12 +2,13 @@ package com.fanhl.util;
 
 import android.util.Log;
 
-import com.google.gson.ExclusionStrategy;
-import com.google.gson.FieldAttributes;
+import com.fanhl.doujinMoe.util.ModelTypeAdapterFactory;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 
+import java.io.Reader;
 import java.lang.reflect.Type;
 
 /**
@@ -20,28 +21,10 @@ public class GsonUtil {
     private static final Gson gson;
 
     static {
-        gson = new GsonBuilder().setExclusionStrategies(new ExclusionStrategy() {
-            /**
-             * 设置要过滤的属性
-             */
-            @Override
-            public boolean shouldSkipField(FieldAttributes attr) {
-                // 设置对应类中要过虑的属性
-//				if (attr.getDeclaringClass() == UserInfo.class) {
-//					return "password".equals(attr.getName());
-//				}
-                return false;
-            }
-
-            /**
-             * 设置要过滤的类
-             */
-            @Override
-            public boolean shouldSkipClass(Class<?> clazz) {
-                // 这里，如果返回true就表示此类要过滤，否则就输出
-                return false;
-            }
-        }).create();
+        //常用的model用手写的TypeAdapter,不走反射
+        gson = new GsonBuilder()
+                .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+                .create();
     }
 
     public static final String json(Object obj) {
@@ -65,4 +48,21 @@ public class GsonUtil {
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * 直接从流中解析(不需要先读成String)
+     *
+     * @param reader
+     * @param classOfT
+     * @param <T>
+     * @return
+     */
+    public static final <T> T obj(Reader reader, Class<T> classOfT) {
+        try {
+            return gson.fromJson(reader, classOfT);
+        } catch (JsonSyntaxException | JsonIOException e) {
+            Log.e(TAG, "解析json失败");
+        }
+        return null;
+    }
+}
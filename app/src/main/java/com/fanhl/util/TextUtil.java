@@ -0,0 +1,29 @@
+package com.fanhl.util;
+
+/**
+ * 文字处理(不依赖Android)
+ */
+public class TextUtil {
+    /**
+     * 书名中第一个不是括号,标点的字,用于封面的占位图
+     *
+     * @param sentence
+     * @return 没有时(包括sentence为null)返回null
+     */
+    public static String getFirstCharacter(String sentence) {
+        if (sentence == null) return null;
+        for (int i = 0; i < sentence.length(); i++) {
+            String s = sentence.substring(i, i + 1);
+            if (s.equals("[") || s.equals("]")) continue;
+            if (s.equals("{") || s.equals("}")) continue;
+            if (s.equals("(") || s.equals(")")) continue;
+            if (s.equals(",") || s.equals(".")) continue;
+            if (s.equals("<") || s.equals(">")) continue;
+            if (s.equals("《") || s.equals("》")) continue;
+            if (s.equals("【") || s.equals("】")) continue;
+            if (s.equals("｛") || s.equals("｝")) continue;
+            return s;
+        }
+        return null;
+    }
+}
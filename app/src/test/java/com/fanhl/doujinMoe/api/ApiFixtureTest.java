@@ -0,0 +1,154 @@
+package com.fanhl.doujinMoe.api;
+
+import com.fanhl.doujinMoe.api.common.DouJinMoeUrl;
+import com.fanhl.doujinMoe.api.form.NewestForm;
+import com.fanhl.doujinMoe.exception.GetDataFailException;
+import com.fanhl.doujinMoe.fixture.FixtureServer;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * HomeApi,PageApi对本地替身服务器的请求:会话,缓存和条件请求,流式解析
+ * <p>
+ * 会话和响应缓存是进程内共用的(只在内存中),各测试使用不同的页码和token
+ */
+public class ApiFixtureTest {
+    private static final int PAGE_COUNT = 12;
+
+    private static FixtureServer server;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = FixtureServer.start().setPageCount(PAGE_COUNT).setNewestPages(3, 20);
+        DouJinMoeUrl.setBaseUrls(server.homeUrl(), server.staticUrl());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        DouJinMoeUrl.setBaseUrls(DouJinMoeUrl.DEFAULT_HOME, DouJinMoeUrl.DEFAULT_STATIC);
+        server.shutdown();
+    }
+
+    @Test
+    public void newestRecordedPage() throws Exception {
+        NewestForm form = HomeApi.newest(1);
+        assertNotNull(form);
+        assertEquals(2, form.newest.size());
+        assertEquals("q6muejvz", form.newest.get(0).token);
+        assertEquals(24, form.newest.get(0).count);
+
+        //内容相同(304)时返回null,缓存仍可用
+        int requests = server.requestCount("/ajax/newest.php");
+        assertNull(HomeApi.newest(1));
+        assertEquals(requests + 1, server.requestCount("/ajax/newest.php"));
+        BaseApi.Cached<NewestForm> cached = HomeApi.cachedNewest(1);
+        assertNotNull(cached);
+        assertTrue(cached.fresh);
+        assertEquals("q6muejvz", cached.value.newest.get(0).token);
+    }
+
+    @Test
+    public void newestGeneratedPages() throws Exception {
+        List<Book> page2 = HomeApi.newest(2).newest;
+        assertEquals(20, page2.size());
+        //最后一页之后是空列表
+        assertEquals(0, HomeApi.newest(4).newest.size());
+    }
+
+    @Test
+    public void detailPagesStreamed() throws Exception {
+        String     token    = "detail01";
+        List<Page> streamed = new ArrayList<>();
+        List<Page> pages    = PageApi.pages(token, (index, page) -> {
+            assertEquals(streamed.size(), index);
+            streamed.add(page);
+        });
+        assertNotNull(pages);
+        assertEquals(PAGE_COUNT, pages.size());
+        assertEquals(PAGE_COUNT, streamed.size());
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            assertEquals(server.pageUrl(token, i), pages.get(i).href);
+            assertTrue(DouJinMoeUrl.isCacheableImage(pages.get(i).preview));
+        }
+
+        BaseApi.Cached<List<Page>> cached = PageApi.cachedPages(token);
+        assertNotNull(cached);
+        assertEquals(PAGE_COUNT, cached.value.size());
+    }
+
+    @Test
+    public void prefetchSkipsFreshCache() throws Exception {
+        String token = "prefetch";
+        assertTrue(PageApi.prefetchPages(token, new Object()));
+        assertFalse(PageApi.prefetchPages(token, new Object()));
+        assertEquals(1, server.requestCount("/" + token));
+    }
+
+    @Test
+    public void expiredSessionIsRefreshed() throws Exception {
+        //先取得会话
+        assertNotNull(PageApi.pages("session1"));
+        int sessions = server.sessionCount();
+
+        server.expireSessions();
+        List<Page> pages = PageApi.pages("session2");
+        assertNotNull(pages);
+        assertEquals(PAGE_COUNT, pages.size());
+        //服务器拒绝后只重新取得一次会话
+        assertEquals(sessions + 1, server.sessionCount());
+        assertEquals(2, server.requestCount("/session2"));
+    }
+
+    @Test
+    public void bestParsed() throws Exception {
+        List<Book> best = HomeApi.best(1);
+        assertNotNull(best);
+        assertEquals(20, best.size());
+        for (Book book : best) {
+            assertFalse(book.token.isEmpty());
+            //排行榜中没有书名
+            assertNull(book.name);
+        }
+        //token取自详细页地址的最后一段
+        assertEquals("abc", HomeApi.tokenOf(DouJinMoeUrl.detailUrl("abc")));
+        assertEquals("abc", HomeApi.tokenOf("http://example.com/abc/?page=1"));
+        assertEquals("", HomeApi.tokenOf(""));
+    }
+
+    @Test
+    public void detailTitle() throws Exception {
+        String token = "title01";
+        assertNull(PageApi.cachedTitle(token));
+        assertNotNull(PageApi.pages(token));
+        //去掉末尾的网站名
+        assertEquals("Fixture " + token, PageApi.cachedTitle(token));
+    }
+
+    @Test
+    public void serverError() throws Exception {
+        server.setErrorRate(1);
+        try {
+            PageApi.pages("error01");
+            fail();
+        } catch (GetDataFailException e) {
+            //500
+        } finally {
+            server.setErrorRate(0);
+        }
+        assertNotNull(PageApi.pages("error01"));
+    }
+}
@@ -0,0 +1,100 @@
+package com.fanhl.doujinMoe.util;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * DjmExtractor取出的属性要与Jsoup DOM的结果一致
+ */
+public class DjmExtractorTest {
+    private static final String DETAIL = "<!DOCTYPE html>\n"
+            + "<html><head><title>a < b</title>\n"
+            + "<script>var s = '<div id=\"foldercontent\"><djm thumb=\"script.jpg\"></djm></div>';</script>\n"
+            + "<style>#foldercontent > djm { display: none }</style>\n"
+            + "</head><body>\n"
+            + "<!-- <div id=\"foldercontent\"><djm thumb=\"comment.jpg\"></djm></div> -->\n"
+            + "<djm thumb=\"outside.jpg\" file=\"outside.jpg\"></djm>\n"
+            + "<div class=\"wrap\"><DIV ID=\"foldercontent\" class='folder'>\n"
+            + "  <djm thumb=\"http://static.doujin-moe.us/t/1.jpg\" file=\"http://static.doujin-moe.us/p/1.jpg\"></djm>\n"
+            + "  <div class=\"row\"><djm thumb='http://static.doujin-moe.us/t/2.jpg?a=1&amp;b=2' file='http://static.doujin-moe.us/p/2.jpg'/></div>\n"
+            + "  <djm file=http://static.doujin-moe.us/p/3.png thumb=http://static.doujin-moe.us/t/3.png></djm>\n"
+            + "  <djm thumb=\"&#x41;&#66;&quot;&unknown;&\" data-x=\"1 > 0\"></djm>\n"
+            + "  <djm thumb = \"spaced.jpg\"   file =  \"spaced-file.jpg\" disabled></djm>\n"
+            + "</div></div>\n"
+            + "<djm thumb=\"after.jpg\" file=\"after.jpg\"></djm>\n"
+            + "</body></html>";
+
+    @Test
+    public void sameAsJsoup() throws IOException {
+        assertEquals(jsoup(DETAIL, "foldercontent"), extract(DETAIL, "foldercontent"));
+        assertEquals(5, extract(DETAIL, "foldercontent").size());
+    }
+
+    @Test
+    public void containerNotFound() throws IOException {
+        String html = "<html><body><div id=\"login\"><djm thumb=\"a.jpg\"></djm></div></body></html>";
+        assertEquals(-1, DjmExtractor.extract(new StringReader(html), "foldercontent", (thumb, file) -> {
+        }));
+    }
+
+    @Test
+    public void emptyContainer() throws IOException {
+        String html = "<div id=\"dircontent\"></div><djm thumb=\"a.jpg\"></djm>";
+        assertEquals(0, DjmExtractor.extract(new StringReader(html), "dircontent", (thumb, file) -> {
+        }));
+    }
+
+    @Test
+    public void smallReads() throws IOException {
+        //每次只读一个字符,标签和属性跨越多次读取
+        Reader reader = new StringReader(DETAIL) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 1));
+            }
+        };
+        List<String> result = new ArrayList<>();
+        DjmExtractor.extract(reader, "foldercontent", (thumb, file) -> result.add(thumb + "|" + file));
+        assertEquals(jsoup(DETAIL, "foldercontent"), result);
+    }
+
+    @Test
+    public void title() throws IOException {
+        assertEquals("a < b", DjmExtractor.extractTitle(new StringReader(DETAIL)));
+        assertEquals("A&B </ti", DjmExtractor.extractTitle(new StringReader("<html><head><script>var t = '<title>x</title>';</script>"
+                + "<TITLE> A&amp;B </ti</Title></head><body></body></html>")));
+        //body之后的title不算
+        assertEquals(null, DjmExtractor.extractTitle(new StringReader("<html><body><title>x</title></body></html>")));
+    }
+
+    @Test
+    public void decodeEntities() {
+        assertEquals("a&b<c>\"'", DjmExtractor.decodeEntities("a&amp;b&lt;c&gt;&quot;&apos;"));
+        assertEquals("AB", DjmExtractor.decodeEntities("&#65;&#x42;"));
+        assertEquals("&nbsp;&", DjmExtractor.decodeEntities("&nbsp;&"));
+        assertEquals("plain", DjmExtractor.decodeEntities("plain"));
+    }
+
+    private static List<String> extract(String html, String containerId) throws IOException {
+        List<String> result = new ArrayList<>();
+        DjmExtractor.extract(new StringReader(html), containerId, (thumb, file) -> result.add(thumb + "|" + file));
+        return result;
+    }
+
+    private static List<String> jsoup(String html, String containerId) {
+        List<String> result = new ArrayList<>();
+        for (Element djm : Jsoup.parse(html).getElementById(containerId).select("djm")) {
+            result.add(djm.attr("thumb") + "|" + djm.attr("file"));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,210 @@
+package com.fanhl.doujinMoe.util;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * writeFileAtomic在各个步骤中断后,文件要么是旧的完整内容,要么是新的完整内容
+ */
+public class FileUtilTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        FileUtil.faultInjector = null;
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        File   file  = folder.newFile("book.bin");
+        byte[] small = bytes(100, 1);
+        assertTrue(FileUtil.writeFileAtomic(file, small));
+        assertArrayEquals(small, FileUtil.readBytes(file));
+
+        //内存映射读取
+        byte[] large = bytes(FileUtil.MAP_THRESHOLD * 2 + 7, 2);
+        assertTrue(FileUtil.writeFileAtomic(file, large));
+        assertArrayEquals(large, FileUtil.readBytes(file));
+        assertEquals(0, tempFiles(file).length);
+    }
+
+    @Test
+    public void crashKeepsOldContent() throws Exception {
+        for (FileUtil.FaultInjector.Step step : new FileUtil.FaultInjector.Step[]{
+                FileUtil.FaultInjector.Step.WRITE,
+                FileUtil.FaultInjector.Step.BEFORE_SYNC,
+                FileUtil.FaultInjector.Step.BEFORE_RENAME}) {
+            File   file       = new File(folder.getRoot(), "crash-" + step);
+            byte[] oldContent = bytes(1000, 3);
+            //超过一次写入的长度,WRITE时临时文件只写了一部分
+            byte[] newContent = bytes(200 * 1024, 4);
+            assertTrue(FileUtil.writeFileAtomic(file, oldContent));
+
+            crashAt(step, true);
+            writeExpectingCrash(file, newContent);
+            FileUtil.faultInjector = null;
+
+            assertArrayEquals(step.name(), oldContent, FileUtil.readBytes(file));
+
+            //重启后再次写入不受残留的临时文件影响
+            assertTrue(FileUtil.writeFileAtomic(file, newContent));
+            assertArrayEquals(step.name(), newContent, FileUtil.readBytes(file));
+        }
+    }
+
+    @Test
+    public void crashOnFirstWriteLeavesNoFile() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+        crashAt(FileUtil.FaultInjector.Step.WRITE, true);
+        writeExpectingCrash(file, bytes(200 * 1024, 5));
+        FileUtil.faultInjector = null;
+
+        assertFalse(file.exists());
+        assertNull(FileUtil.readBytes(file));
+    }
+
+    @Test
+    public void crashAfterBackupRecoversOldContent() throws Exception {
+        File   file       = new File(folder.getRoot(), "library.idx");
+        byte[] oldContent = bytes(1000, 6);
+        byte[] newContent = bytes(2000, 7);
+        assertTrue(FileUtil.writeFileAtomic(file, oldContent));
+
+        //旧文件已改为.bak,新文件还没改名
+        crashAt(FileUtil.FaultInjector.Step.AFTER_BACKUP, false);
+        writeExpectingCrash(file, newContent);
+        FileUtil.faultInjector = null;
+        assertFalse(file.exists());
+
+        assertArrayEquals(oldContent, FileUtil.readBytes(file));
+        assertTrue(file.isFile());
+        assertFalse(new File(file.getPath() + FileUtil.BAK_SUFFIX).exists());
+    }
+
+    @Test
+    public void writeWithoutRenameOver() throws Exception {
+        File file = new File(folder.getRoot(), "names.txt");
+        assertTrue(FileUtil.writeFileAtomic(file, bytes(10, 8)));
+
+        crashAt(null, false);
+        byte[] newContent = bytes(20, 9);
+        assertTrue(FileUtil.writeFileAtomic(file, newContent));
+        assertArrayEquals(newContent, FileUtil.readBytes(file));
+        assertFalse(new File(file.getPath() + FileUtil.BAK_SUFFIX).exists());
+        assertEquals(0, tempFiles(file).length);
+    }
+
+    @Test
+    public void tornTempFileIsIgnored() throws Exception {
+        File   file    = new File(folder.getRoot(), "progress.log");
+        byte[] content = bytes(500, 10);
+        assertTrue(FileUtil.writeFileAtomic(file, content));
+
+        //上次写临时文件时断电
+        FileOutputStream out = new FileOutputStream(file.getPath() + ".123" + FileUtil.TMP_SUFFIX);
+        try {
+            out.write(bytes(33, 11));
+        } finally {
+            out.close();
+        }
+
+        assertArrayEquals(content, FileUtil.readBytes(file));
+        assertEquals(content.length, file.length());
+    }
+
+    @Test
+    public void staleTempFilesAreDeleted() throws Exception {
+        File file = new File(folder.getRoot(), "book.bin");
+        crashAt(FileUtil.FaultInjector.Step.BEFORE_RENAME, true);
+        writeExpectingCrash(file, bytes(100, 12));
+        FileUtil.faultInjector = null;
+        File[] leftover = tempFiles(file);
+        assertEquals(1, leftover.length);
+
+        //还很新的可能是其它线程正在写的,不删除
+        assertTrue(FileUtil.writeFileAtomic(file, bytes(100, 13)));
+        assertEquals(1, tempFiles(file).length);
+
+        assertTrue(leftover[0].setLastModified(System.currentTimeMillis() - FileUtil.STALE_TMP_AGE * 2));
+        assertTrue(FileUtil.writeFileAtomic(file, bytes(100, 14)));
+        assertEquals(0, tempFiles(file).length);
+    }
+
+    @Test
+    public void concurrentWritesDoNotMix() throws Exception {
+        File     file     = new File(folder.getRoot(), "library.idx");
+        byte[][] contents = {bytes(150 * 1024, 15), bytes(150 * 1024, 16)};
+        Thread[] threads  = new Thread[contents.length];
+        for (int i = 0; i < threads.length; i++) {
+            byte[] content = contents[i];
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 20; n++) {
+                    FileUtil.writeFileAtomic(file, content);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        //同时写入时临时文件不会互相覆盖,结果是其中一个完整的内容
+        byte[] result = FileUtil.readBytes(file);
+        assertTrue(Arrays.equals(contents[0], result) || Arrays.equals(contents[1], result));
+        assertEquals(0, tempFiles(file).length);
+    }
+
+    private static File[] tempFiles(File file) {
+        String prefix = file.getName() + ".";
+        return file.getParentFile().listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(FileUtil.TMP_SUFFIX));
+    }
+
+    private static void crashAt(FileUtil.FaultInjector.Step crashStep, boolean canRenameOver) {
+        FileUtil.faultInjector = new FileUtil.FaultInjector() {
+            @Override
+            public void onStep(Step step) {
+                if (step == crashStep) throw new SimulatedCrash();
+            }
+
+            @Override
+            public boolean canRenameOver() {
+                return canRenameOver;
+            }
+        };
+    }
+
+    private static void writeExpectingCrash(File file, byte[] content) {
+        try {
+            FileUtil.writeFileAtomic(file, content);
+            fail("没有中断");
+        } catch (SimulatedCrash e) {
+            //进程在这里结束
+        }
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) seed);
+        for (int i = 0; i < length; i += 97) {
+            bytes[i] = (byte) (i + seed);
+        }
+        return bytes;
+    }
+
+    private static class SimulatedCrash extends RuntimeException {
+    }
+}
@@ -0,0 +1,77 @@
+package com.fanhl.doujinMoe.util;
+
+import com.fanhl.doujinMoe.model.Book;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 读不出来的索引不能被单本书的更新覆盖成"一致"的部分索引
+ */
+public class LibraryIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File indexFile;
+    private File libraryDir;
+    private File namesFile;
+
+    @Before
+    public void setUp() throws Exception {
+        indexFile = new File(folder.getRoot(), "library.idx");
+        libraryDir = folder.newFolder("Doujin-Moe");
+        namesFile = new File(libraryDir, "names.txt");
+    }
+
+    @Test
+    public void missingIndexIsNotWritten() {
+        LibraryIndex index = newIndex();
+        assertFalse(index.upsert(book("a"), 1));
+        assertFalse(index.remove("a"));
+        assertFalse(indexFile.exists());
+        assertFalse(newIndex().isConsistent());
+    }
+
+    @Test
+    public void corruptIndexIsNotWritten() throws Exception {
+        assertTrue(FileUtil.writeFileAtomic(indexFile, new byte[64]));
+        LibraryIndex index = newIndex();
+        assertFalse(index.upsert(book("a"), 1));
+        assertFalse(newIndex().isConsistent());
+    }
+
+    @Test
+    public void upsertAfterRebuild() {
+        assertTrue(newIndex().rebuild(Arrays.asList(book("a"), book("b")), new long[]{1, 2}));
+
+        LibraryIndex index = newIndex();
+        assertTrue(index.upsert(book("c"), 3));
+        assertTrue(index.remove("a"));
+
+        LibraryIndex reloaded = newIndex();
+        assertTrue(reloaded.isConsistent());
+        assertEquals(2, reloaded.getBooks().size());
+        assertEquals(Long.valueOf(3), reloaded.getSizes().get("c"));
+    }
+
+    private LibraryIndex newIndex() {
+        return new LibraryIndex(indexFile, libraryDir, namesFile);
+    }
+
+    private static Book book(String token) {
+        Book book = new Book();
+        book.token = token;
+        book.name = "Book " + token;
+        book.status = Book.Status.DOWNLOADED;
+        return book;
+    }
+}
@@ -0,0 +1,70 @@
+package com.fanhl.doujinMoe.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 合并旧目录时有文件没能移动,不能写入完成标记,下次启动时要继续合并
+ */
+public class LibraryMigratorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File libraryDir;
+    private File doneFile;
+
+    @Before
+    public void setUp() throws Exception {
+        libraryDir = folder.newFolder("Doujin-Moe");
+        doneFile = new File(folder.getRoot(), "migrated");
+    }
+
+    @Test
+    public void partialMergeIsRetried() throws Exception {
+        //旧目录(按书名)和已开始下载的新目录(按token)都存在
+        File legacyDir = legacyBook("Old Name", "tok1");
+        assertTrue(new File(legacyDir, "000.jpg").createNewFile());
+        assertTrue(new File(legacyDir, "extra").mkdir());
+        File bookDir = new File(libraryDir, "tok1");
+        assertTrue(bookDir.mkdir());
+        //新目录中同名的是文件,旧目录中的extra移动不过去
+        assertTrue(new File(bookDir, "extra").createNewFile());
+
+        LibraryMigrator migrator = new LibraryMigrator(libraryDir, doneFile);
+        assertNull(migrator.migrate(legacyDir, "tok1"));
+        assertTrue(new File(bookDir, "000.jpg").isFile());
+        assertTrue(new File(legacyDir, "extra").isDirectory());
+        //书籍信息留在旧目录中,重新扫描时还能找到
+        assertTrue(new File(legacyDir, FileCacheManager.BOOK_JSON_FILENAME).isFile());
+
+        migrator.migrateAll();
+        assertFalse(doneFile.exists());
+        assertFalse(migrator.isFinished());
+
+        //下次启动时继续合并
+        assertTrue(new File(bookDir, "extra").delete());
+        LibraryMigrator restarted = new LibraryMigrator(libraryDir, doneFile);
+        assertFalse(restarted.isFinished());
+        restarted.migrateAll();
+        assertTrue(doneFile.exists());
+        assertTrue(restarted.isFinished());
+        assertFalse(legacyDir.exists());
+        assertTrue(new File(bookDir, "extra").isDirectory());
+        assertTrue(new File(bookDir, FileCacheManager.BOOK_JSON_FILENAME).isFile());
+    }
+
+    private File legacyBook(String name, String token) {
+        File dir = new File(libraryDir, name);
+        assertTrue(dir.mkdirs());
+        assertTrue(FileUtil.writeFileAtomic(new File(dir, FileCacheManager.BOOK_JSON_FILENAME), "{\"token\":\"" + token + "\",\"name\":\"" + name + "\"}"));
+        return dir;
+    }
+}
@@ -0,0 +1,34 @@
+package com.fanhl.doujinMoe.util;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 数字字段带引号或读不成int时不能让整本书解析失败
+ */
+public class ModelTypeAdapterFactoryTest {
+    private final Gson gson = new GsonBuilder().registerTypeAdapterFactory(new ModelTypeAdapterFactory()).create();
+
+    @Test
+    public void quotedNumber() {
+        Book book = gson.fromJson("{\"token\":\"a\",\"count\":\"24\",\"position\":3}", Book.class);
+        assertEquals(24, book.count);
+        assertEquals(3, book.position);
+    }
+
+    @Test
+    public void malformedNumberKeepsDefault() {
+        Book book = gson.fromJson("{\"count\":\"abc\",\"position\":2.5,\"downloadedPosition\":{\"x\":1},\"token\":\"a\",\"name\":\"n\"}", Book.class);
+        assertEquals(new Book().count, book.count);
+        assertEquals(new Book().position, book.position);
+        assertEquals(new Book().downloadedPosition, book.downloadedPosition);
+        //后面的字段照常读入
+        assertEquals("a", book.token);
+        assertEquals("n", book.name);
+    }
+}
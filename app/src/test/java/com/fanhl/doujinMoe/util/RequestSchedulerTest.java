@@ -0,0 +1,155 @@
+package com.fanhl.doujinMoe.util;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 优先级顺序,每个host的上限和给高优先级留出的空位
+ */
+public class RequestSchedulerTest {
+    private static final String HOST  = "http://static.doujin-moe.us/p/1.jpg";
+    private static final String OTHER = "http://www.doujin-moe.us/abc";
+
+    @Test
+    public void lowPriorityLeavesRoom() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(4, 8);
+        //下载最多占用 4-3 个
+        RequestScheduler.Permit         d1    = scheduler.acquire(RequestScheduler.Priority.DOWNLOAD, HOST);
+        List<RequestScheduler.Priority> order = Collections.synchronizedList(new ArrayList<>());
+        Thread                          d2    = acquireInBackground(scheduler, RequestScheduler.Priority.DOWNLOAD, HOST, order);
+        waitForWaiting(scheduler, 1);
+        assertEquals(1, scheduler.running(HOST));
+
+        //阅读中的page不用等下载
+        RequestScheduler.Permit r1 = scheduler.acquire(RequestScheduler.Priority.READER, HOST);
+        RequestScheduler.Permit r2 = scheduler.acquire(RequestScheduler.Priority.READER, HOST);
+        RequestScheduler.Permit r3 = scheduler.acquire(RequestScheduler.Priority.READER, HOST);
+        assertEquals(4, scheduler.running(HOST));
+
+        //其它host不受影响
+        scheduler.acquire(RequestScheduler.Priority.DOWNLOAD, OTHER).release();
+
+        //page读完后下载仍然只有1个空位,等d1结束
+        r1.release();
+        r2.release();
+        r3.release();
+        assertEquals(0, order.size());
+        d1.release();
+        d2.join(1000);
+        assertEquals(1, order.size());
+        assertEquals(0, scheduler.running(HOST));
+    }
+
+    @Test
+    public void visibleLeavesRoomForReader() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(RequestScheduler.MAX_PER_HOST, RequestScheduler.MAX_TOTAL);
+        //4个预览图请求,只有 4-1 个取得许可,第4个等待
+        List<RequestScheduler.Permit> visible = new ArrayList<>();
+        for (int i = 0; i < RequestScheduler.MAX_PER_HOST - 1; i++) {
+            visible.add(scheduler.acquire(RequestScheduler.Priority.VISIBLE, HOST));
+        }
+        List<RequestScheduler.Priority> order = Collections.synchronizedList(new ArrayList<>());
+        Thread                          v4    = acquireInBackground(scheduler, RequestScheduler.Priority.VISIBLE, HOST, order);
+        waitForWaiting(scheduler, 1);
+
+        //阅读中的page不用等预览图
+        RequestScheduler.Permit reader = scheduler.acquire(RequestScheduler.Priority.READER, HOST);
+        assertEquals(RequestScheduler.MAX_PER_HOST, scheduler.running(HOST));
+        assertEquals(1, scheduler.waiting());
+
+        reader.release();
+        assertEquals(0, order.size());
+        visible.get(0).release();
+        v4.join(1000);
+        assertEquals(1, order.size());
+        for (RequestScheduler.Permit permit : visible) {
+            permit.release();
+        }
+        assertEquals(0, scheduler.running(HOST));
+    }
+
+    @Test
+    public void higherPriorityFirst() throws Exception {
+        RequestScheduler        scheduler = new RequestScheduler(1, 8);
+        RequestScheduler.Permit holding   = scheduler.acquire(RequestScheduler.Priority.VISIBLE, HOST);
+
+        List<RequestScheduler.Priority> order   = Collections.synchronizedList(new ArrayList<>());
+        List<Thread>                    threads = new ArrayList<>();
+        //先来的是低优先级
+        for (RequestScheduler.Priority priority : new RequestScheduler.Priority[]{
+                RequestScheduler.Priority.DOWNLOAD,
+                RequestScheduler.Priority.PREFETCH,
+                RequestScheduler.Priority.VISIBLE,
+                RequestScheduler.Priority.READER}) {
+            threads.add(acquireInBackground(scheduler, priority, HOST, order));
+            waitForWaiting(scheduler, threads.size());
+        }
+
+        holding.release();
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        assertEquals(4, order.size());
+        assertEquals(RequestScheduler.Priority.READER, order.get(0));
+        assertEquals(RequestScheduler.Priority.VISIBLE, order.get(1));
+        assertEquals(RequestScheduler.Priority.PREFETCH, order.get(2));
+        assertEquals(RequestScheduler.Priority.DOWNLOAD, order.get(3));
+        assertEquals(0, scheduler.running(HOST));
+    }
+
+    @Test
+    public void interruptWhileWaiting() throws Exception {
+        RequestScheduler        scheduler = new RequestScheduler(1, 8);
+        RequestScheduler.Permit holding   = scheduler.acquire(RequestScheduler.Priority.VISIBLE, HOST);
+        CountDownLatch          failed    = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                scheduler.acquire(RequestScheduler.Priority.DOWNLOAD, HOST).release();
+            } catch (InterruptedIOException e) {
+                failed.countDown();
+            }
+        });
+        thread.start();
+        waitForWaiting(scheduler, 1);
+        thread.interrupt();
+        assertTrue(failed.await(1, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.waiting());
+
+        holding.release();
+        holding.release();
+        assertEquals(0, scheduler.running(HOST));
+    }
+
+    /**
+     * 在其它线程中取得许可,取得后记录优先级并马上释放
+     */
+    private static Thread acquireInBackground(RequestScheduler scheduler, RequestScheduler.Priority priority, String url, List<RequestScheduler.Priority> order) {
+        Thread thread = new Thread(() -> {
+            try {
+                RequestScheduler.Permit permit = scheduler.acquire(priority, url);
+                order.add(priority);
+                permit.release();
+            } catch (InterruptedIOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void waitForWaiting(RequestScheduler scheduler, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && scheduler.waiting() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, scheduler.waiting());
+    }
+}
@@ -0,0 +1,29 @@
+package android.util;
+
+/**
+ * 基准测试用的替身,只提供app代码用到的方法,不输出任何内容
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        return 0;
+    }
+
+    public static String getStackTraceString(Throwable tr) {
+        return tr == null ? "" : tr.toString();
+    }
+}
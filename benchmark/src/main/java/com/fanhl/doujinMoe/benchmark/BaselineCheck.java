@@ -0,0 +1,179 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 把JMH的结果(jmh-result.json)与基准文件(jmh-baseline.json)比较,
+ * 比基准慢了超过容许比例的项目有一个以上时以1结束(AverageTime模式,分数越小越快).
+ * 基准文件中没有的项目只显示,不检查.
+ * <p>
+ * 分数与机器有关:结果和基准中都有 CalibrationBenchmark 时,先用两者的参照分数之比换算基准,
+ * 比较的是相对参照的快慢,在比基准机器快或慢的机器(CI)上也可以用同一个基准.
+ * 基准文件的 _machine 中记录了生成时的机器,只用于显示.
+ * 没有参照分数时直接比较,这时换了测量用的机器后要重新生成: ./gradlew :benchmark:jmhBaseline
+ */
+public class BaselineCheck {
+    /*默认容许的变慢比例*/
+    private static final double TOLERANCE = 0.25;
+    /*机器速度的参照*/
+    private static final String CALIBRATION = CalibrationBenchmark.class.getName() + ".reference";
+    /*基准文件中记录机器信息的项目*/
+    private static final String MACHINE     = "_machine";
+
+    /**
+     * @param args 结果文件 基准文件 [容许比例|update]
+     */
+    public static void main(String[] args) throws IOException {
+        File result   = new File(args[0]);
+        File baseline = new File(args[1]);
+
+        Map<String, Score> scores = readResult(result);
+        if (args.length > 2 && args[2].equals("update")) {
+            writeBaseline(baseline, scores);
+            System.out.println("baseline updated: " + baseline.getAbsolutePath() + " (" + scores.size() + " benchmarks)");
+            return;
+        }
+
+        double             tolerance = args.length > 2 ? Double.parseDouble(args[2]) : TOLERANCE;
+        JsonObject         file      = parse(baseline).getAsJsonObject();
+        Map<String, Score> expected  = readBaseline(file);
+        System.out.println("baseline machine: " + (file.has(MACHINE) ? file.get(MACHINE) : "unknown"));
+        System.out.println("this machine:     " + new Gson().toJson(machine()));
+
+        //这台机器比基准机器慢多少倍
+        double speed = 1;
+        Score  calibration     = scores.get(CALIBRATION);
+        Score  baseCalibration = expected.get(CALIBRATION);
+        if (calibration != null && baseCalibration != null && calibration.unit.equals(baseCalibration.unit)) {
+            speed = calibration.score / baseCalibration.score;
+            System.out.println(String.format(Locale.US, "calibration: %.2fx baseline machine time, scores are compared after scaling", speed));
+        } else {
+            System.out.println("calibration: not available, comparing raw scores (only meaningful on the baseline machine)");
+        }
+
+        int regressed = 0;
+        for (Map.Entry<String, Score> entry : scores.entrySet()) {
+            Score  score = entry.getValue();
+            Score  base  = expected.get(entry.getKey());
+            String status;
+            if (entry.getKey().equals(CALIBRATION)) {
+                status = "reference";
+            } else if (base == null) {
+                status = "new";
+            } else if (!base.unit.equals(score.unit)) {
+                status = "unit changed (" + base.unit + ")";
+                regressed++;
+            } else {
+                double ratio = score.score / (base.score * speed);
+                if (ratio > 1 + tolerance) {
+                    status = String.format(Locale.US, "REGRESSED %+.0f%%", (ratio - 1) * 100);
+                    regressed++;
+                } else {
+                    status = String.format(Locale.US, "ok %+.0f%%", (ratio - 1) * 100);
+                }
+            }
+            System.out.println(String.format(Locale.US, "%-70s %12.3f %-6s %s", entry.getKey(), score.score, score.unit, status));
+        }
+
+        if (regressed > 0) {
+            System.out.println(regressed + " benchmark(s) slower than baseline by more than " + Math.round(tolerance * 100) + "%");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * JMH的json结果:每项有benchmark,params,primaryMetric{score,scoreUnit}
+     */
+    private static Map<String, Score> readResult(File file) throws IOException {
+        Map<String, Score> scores = new TreeMap<>();
+        for (JsonElement element : parse(file).getAsJsonArray()) {
+            JsonObject run  = element.getAsJsonObject();
+            String     name = run.get("benchmark").getAsString();
+            if (run.has("params")) {
+                StringBuilder sb = new StringBuilder(name).append(':');
+                for (Map.Entry<String, JsonElement> param : run.getAsJsonObject("params").entrySet()) {
+                    if (sb.charAt(sb.length() - 1) != ':') sb.append(',');
+                    sb.append(param.getKey()).append('=').append(param.getValue().getAsString());
+                }
+                name = sb.toString();
+            }
+            JsonObject metric = run.getAsJsonObject("primaryMetric");
+            Score      score  = new Score();
+            score.score = metric.get("score").getAsDouble();
+            score.unit = metric.get("scoreUnit").getAsString();
+            scores.put(name, score);
+        }
+        return scores;
+    }
+
+    private static Map<String, Score> readBaseline(JsonObject file) {
+        Map<String, Score> scores = new TreeMap<>();
+        for (Map.Entry<String, JsonElement> entry : file.entrySet()) {
+            if (entry.getKey().equals(MACHINE)) continue;
+            JsonObject object = entry.getValue().getAsJsonObject();
+            Score      score  = new Score();
+            score.score = object.get("score").getAsDouble();
+            score.unit = object.get("unit").getAsString();
+            scores.put(entry.getKey(), score);
+        }
+        return scores;
+    }
+
+    private static void writeBaseline(File file, Map<String, Score> scores) throws IOException {
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put(MACHINE, machine());
+        content.putAll(scores);
+
+        Gson   gson   = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            gson.toJson(content, writer);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 测量用的机器
+     */
+    private static Map<String, Object> machine() {
+        Map<String, Object> machine = new LinkedHashMap<>();
+        machine.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+        machine.put("arch", System.getProperty("os.arch"));
+        machine.put("cpus", Runtime.getRuntime().availableProcessors());
+        machine.put("jvm", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        return machine;
+    }
+
+    private static JsonElement parse(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return new JsonParser().parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static class Score {
+        double score;
+        String unit;
+    }
+}
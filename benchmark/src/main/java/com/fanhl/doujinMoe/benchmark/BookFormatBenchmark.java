@@ -0,0 +1,72 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.util.BookBinaryFormat;
+import com.fanhl.util.GsonUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * book.json(Gson) 与 book.bin 的读写比较
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookFormatBenchmark {
+    @Param({"30", "200", "1000"})
+    public int pageCount;
+
+    private Book   book;
+    private String json;
+    private byte[] binary;
+
+    @Setup
+    public void setup() throws IOException {
+        book = Fixtures.book(pageCount, pageCount);
+        json = GsonUtil.json(book);
+        binary = BookBinaryFormat.encode(book);
+        System.out.println("\n[size] pages=" + pageCount + " json=" + json.getBytes("UTF-8").length + "B binary=" + binary.length + "B");
+    }
+
+    @Benchmark
+    public Book readJson() {
+        return GsonUtil.obj(json, Book.class);
+    }
+
+    @Benchmark
+    public Book readBinary() throws IOException {
+        return BookBinaryFormat.decode(binary);
+    }
+
+    @Benchmark
+    public Book readBinarySummary() throws IOException {
+        return BookBinaryFormat.decodeSummary(new ByteArrayInputStream(binary));
+    }
+
+    @Benchmark
+    public byte[] writeJson() throws IOException {
+        return GsonUtil.json(book).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public byte[] writeBinary() throws IOException {
+        return BookBinaryFormat.encode(book);
+    }
+}
@@ -0,0 +1,53 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 机器速度的参照:与应用代码无关的固定计算(复制并排序,拼接字符串).
+ * BaselineCheck 用它在同一次运行中的分数与基准中的分数之比换算其它项目,基准可以在不同的机器上比较.
+ * 这里的代码不能改,改了要重新生成基准.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalibrationBenchmark {
+    private static final int SIZE = 1024;
+
+    private int[] values;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        values = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            values[i] = random.nextInt();
+        }
+    }
+
+    @Benchmark
+    public int reference() {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < SIZE; i += 16) {
+            sb.append(sorted[i]).append(',');
+        }
+        return sb.toString().hashCode();
+    }
+}
@@ -0,0 +1,340 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.fanhl.doujinMoe.fixture.FixtureServer;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
+import com.fanhl.doujinMoe.util.PageDownloader;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 下载流程的负载测试
+ * <p>
+ * 在子进程中启动本地替身服务器(FixtureServer),按各个网络条件(延迟,带宽,出错率)把 N本×M张 page
+ * 下载到临时目录.与DownloadManager的顺序相同:一次一本书,page按顺序,书中有page失败时整本失败;
+ * 每张page的下载用app中的PageDownloader(经过RequestScheduler).
+ * 服务器不在同一进程中,堆内存和线程数只包括下载这一侧.
+ * 结果(pages/s, bytes/s, page延迟的p50/p99, 堆内存和线程数的峰值)以JSON写出,用于比较不同版本.
+ * <p>
+ * 运行: ./gradlew :benchmark:downloadLoad  (-Pprofile=mobile -Pbooks=10 -Ppages=30 -PimageSize=131072)
+ */
+public class DownloadLoadReport {
+    private static final int  BOOK_COUNT      = 10;
+    private static final int  PAGE_COUNT      = 20;
+    private static final int  IMAGE_SIZE      = 64 * 1024;
+    private static final int  WARM_UP_PAGES   = 5;
+    /*堆内存的采样间隔(毫秒)*/
+    private static final long SAMPLE_INTERVAL = 10;
+
+    /**
+     * 模拟的网络条件
+     */
+    enum Profile {
+        LAN(0, 0, 0),
+        WIFI(20, 2 * 1024 * 1024, 0),
+        MOBILE(150, 256 * 1024, 0.01),
+        FLAKY(80, 1024 * 1024, 0.05);
+
+        /*首个字节前的延迟(毫秒)*/
+        final long   latency;
+        /*每个连接每秒的字节数,0为不限制*/
+        final long   bandwidth;
+        /*返回500的比例*/
+        final double errorRate;
+
+        Profile(long latency, long bandwidth, double errorRate) {
+            this.latency = latency;
+            this.bandwidth = bandwidth;
+            this.errorRate = errorRate;
+        }
+    }
+
+    /**
+     * @param args [profile|all] [books] [pages] [imageSize] [输出的json文件]
+     */
+    public static void main(String[] args) throws Exception {
+        String profileName = args.length > 0 ? args[0] : "all";
+        int    bookCount   = args.length > 1 ? Integer.parseInt(args[1]) : BOOK_COUNT;
+        int    pageCount   = args.length > 2 ? Integer.parseInt(args[2]) : PAGE_COUNT;
+        int    imageSize   = args.length > 3 ? Integer.parseInt(args[3]) : IMAGE_SIZE;
+        File   output      = new File(args.length > 4 ? args[4] : "download-load.json");
+
+        List<Profile> profiles = profileName.equals("all")
+                ? Arrays.asList(Profile.values())
+                : Arrays.asList(Profile.valueOf(profileName.toUpperCase(Locale.US)));
+
+        Report report = new Report();
+        report.javaVersion = System.getProperty("java.version");
+        report.timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US).format(new Date());
+        for (Profile profile : profiles) {
+            Result result = run(profile, bookCount, pageCount, imageSize);
+            report.results.add(result);
+            System.out.println(String.format(Locale.US, "%-7s %7.1f pages/s %9.1f KB/s  p50 %6.1f ms  p99 %7.1f ms  failed %d/%d pages  heap %6.1f MB  threads %d",
+                    result.profile, result.pagesPerSecond, result.bytesPerSecond / 1024, result.pageLatencyMs.p50, result.pageLatencyMs.p99,
+                    result.pagesFailed, result.pagesDownloaded + result.pagesFailed, result.peakHeapBytes / 1048576f, result.peakThreads));
+        }
+
+        Gson   gson   = new GsonBuilder().setPrettyPrinting().create();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+        try {
+            gson.toJson(report, writer);
+        } finally {
+            writer.close();
+        }
+        System.out.println("result: " + output.getAbsolutePath());
+    }
+
+    private static Result run(Profile profile, int bookCount, int pageCount, int imageSize) throws IOException, InterruptedException {
+        Process server = startServer(profile, imageSize);
+        File    root   = createTempDir();
+        try {
+            String staticUrl = readStaticUrl(server);
+
+            //连接,类加载,JIT不计入结果
+            download(queue(staticUrl, "warmup", 1, WARM_UP_PAGES), new File(root, "warmup"), new Stats(WARM_UP_PAGES));
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            System.gc();
+            threads.resetPeakThreadCount();
+            HeapSampler sampler = new HeapSampler();
+            sampler.start();
+
+            Stats stats = new Stats(bookCount * pageCount);
+            long  start = System.nanoTime();
+            download(queue(staticUrl, "load", bookCount, pageCount), new File(root, "load"), stats);
+            long elapsed = System.nanoTime() - start;
+
+            sampler.finish();
+
+            Result result = new Result();
+            result.profile = profile.name().toLowerCase(Locale.US);
+            result.latencyMs = profile.latency;
+            result.bandwidth = profile.bandwidth;
+            result.errorRate = profile.errorRate;
+            result.books = bookCount;
+            result.pagesPerBook = pageCount;
+            result.imageSize = imageSize;
+            result.pagesDownloaded = stats.pagesDownloaded;
+            result.pagesFailed = stats.pagesFailed;
+            result.booksFailed = stats.booksFailed;
+            result.bytes = stats.bytes;
+            result.elapsedMs = elapsed / 1e6;
+            result.pagesPerSecond = stats.pagesDownloaded * 1e9 / elapsed;
+            result.bytesPerSecond = stats.bytes * 1e9 / elapsed;
+            result.pageLatencyMs = stats.latency();
+            result.peakHeapBytes = sampler.peak;
+            result.peakThreads = threads.getPeakThreadCount();
+            return result;
+        } finally {
+            server.destroy();
+            server.waitFor();
+            delete(root);
+        }
+    }
+
+    /**
+     * 与DownloadManager相同:一次一本书,page按顺序,已下载的page跳过
+     */
+    private static void download(LinkedList<Book> waitBooks, File dir, Stats stats) {
+        Book book;
+        while ((book = waitBooks.poll()) != null) {
+            File bookDir = new File(dir, book.token);
+            bookDir.mkdirs();
+
+            boolean isAllDownloaded = true;
+            for (int i = 0; i < book.pages.size(); i++) {
+                File pageFile = new File(bookDir, String.format(Locale.US, "%03d.jpg", i));
+                if (pageFile.exists()) continue;
+
+                long    start      = System.nanoTime();
+                boolean downloaded = PageDownloader.download(book.pages.get(i).href, pageFile);
+                stats.latencies[stats.count++] = System.nanoTime() - start;
+                if (downloaded) {
+                    stats.pagesDownloaded++;
+                    stats.bytes += pageFile.length();
+                } else {
+                    stats.pagesFailed++;
+                    isAllDownloaded = false;
+                }
+            }
+            if (!isAllDownloaded) stats.booksFailed++;
+        }
+    }
+
+    private static LinkedList<Book> queue(String staticUrl, String prefix, int bookCount, int pageCount) {
+        LinkedList<Book> books = new LinkedList<>();
+        for (int i = 0; i < bookCount; i++) {
+            Book book = new Book();
+            book.token = prefix + i;
+            book.name = "Load Book " + i;
+            book.count = pageCount;
+            book.status = Book.Status.WAIT_DOWNLOAD;
+            for (int j = 0; j < pageCount; j++) {
+                Page page = new Page();
+                page.preview = staticUrl + "t-" + book.token + "-" + j + ".jpg";
+                page.href = staticUrl + "p-" + book.token + "-" + j + ".jpg";
+                book.pages.add(page);
+            }
+            books.add(book);
+        }
+        return books;
+    }
+
+    private static Process startServer(Profile profile, int imageSize) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), FixtureServer.class.getName(), "0",
+                "latency=" + profile.latency, "bandwidth=" + profile.bandwidth, "errorRate=" + profile.errorRate, "imageSize=" + imageSize)
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    /**
+     * 服务器启动后输出 "home: ..." 和 "static: ..." 两行
+     */
+    private static String readStaticUrl(Process server) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(server.getInputStream(), "UTF-8"));
+        String         line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("static:")) return line.substring("static:".length()).trim();
+        }
+        throw new IOException("fixture server did not start");
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("download-load", "");
+        if (!dir.delete() || !dir.mkdir()) throw new IOException("cannot create " + dir);
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class Stats {
+        final long[] latencies;
+        int  count;
+        int  pagesDownloaded;
+        int  pagesFailed;
+        int  booksFailed;
+        long bytes;
+
+        Stats(int capacity) {
+            latencies = new long[capacity];
+        }
+
+        Latency latency() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            Latency latency = new Latency();
+            latency.p50 = percentile(sorted, 0.50);
+            latency.p90 = percentile(sorted, 0.90);
+            latency.p99 = percentile(sorted, 0.99);
+            latency.max = sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6;
+            return latency;
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    /**
+     * 定时取得已使用的堆内存,记下最大值
+     */
+    private static class HeapSampler extends Thread {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        private volatile boolean running = true;
+        volatile         long    peak;
+
+        HeapSampler() {
+            super("HeapSampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void finish() throws InterruptedException {
+            running = false;
+            interrupt();
+            join();
+            sample();
+        }
+
+        private void sample() {
+            long used = memory.getHeapMemoryUsage().getUsed();
+            if (used > peak) peak = used;
+        }
+    }
+
+    /*以下是写出的JSON的结构*/
+
+    static class Report {
+        String       javaVersion;
+        String       timestamp;
+        List<Result> results = new ArrayList<>();
+    }
+
+    static class Result {
+        String  profile;
+        long    latencyMs;
+        long    bandwidth;
+        double  errorRate;
+        int     books;
+        int     pagesPerBook;
+        int     imageSize;
+        int     pagesDownloaded;
+        int     pagesFailed;
+        int     booksFailed;
+        long    bytes;
+        double  elapsedMs;
+        double  pagesPerSecond;
+        double  bytesPerSecond;
+        Latency pageLatencyMs;
+        long    peakHeapBytes;
+        int     peakThreads;
+    }
+
+    static class Latency {
+        double p50;
+        double p90;
+        double p99;
+        double max;
+    }
+}
@@ -0,0 +1,89 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * 基准测试用的数据(固定种子,每次生成的内容相同)
+ */
+public class Fixtures {
+    public static final String STATIC = "http://static.doujin-moe.us/";
+
+    private static final char[] TOKEN_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    /**
+     * 生成与网站数据形式相同的书籍
+     *
+     * @param seed
+     * @param pageCount
+     * @return
+     */
+    public static Book book(long seed, int pageCount) {
+        Random random = new Random(seed);
+
+        Book book = new Book();
+        book.token = token(random, 26);
+        book.name = "[Circle " + random.nextInt(1000) + "] Book Title " + seed + " (Original)";
+        book.count = pageCount;
+        book.rating = String.valueOf(random.nextInt(50) / 10f);
+        book.date = "2015-11-" + (1 + random.nextInt(28));
+        book.position = random.nextInt(Math.max(1, pageCount));
+        book.recent = new Date(1448000000000L + random.nextInt(1000000000));
+        book.status = Book.Status.DOWNLOADED;
+        for (int i = 0; i < pageCount; i++) {
+            String id   = token(random, 8);
+            Page   page = new Page();
+            page.preview = STATIC + "t-" + id + ".jpg";
+            page.href = STATIC + "p-" + id + ".jpg";
+            book.pages.add(page);
+        }
+        return book;
+    }
+
+    /**
+     * 生成与网站详细页结构相同的html:head中有script,style,正文前后有导航等内容,
+     * page在#foldercontent中的djm标签里
+     *
+     * @param book
+     * @return
+     */
+    public static String detailHtml(Book book) {
+        StringBuilder sb = new StringBuilder(book.pages.size() * 160 + 16 * 1024);
+        sb.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n")
+                .append("<meta charset=\"utf-8\">\n<title>").append(book.name).append(" - Doujin Moe</title>\n")
+                .append("<link rel=\"stylesheet\" href=\"/css/style.css\">\n<style>\n");
+        for (int i = 0; i < 40; i++) {
+            sb.append("#foldercontent .row-").append(i).append(" > djm { margin: ").append(i).append("px; }\n");
+        }
+        sb.append("</style>\n<script type=\"text/javascript\">\n");
+        for (int i = 0; i < 60; i++) {
+            sb.append("function f").append(i).append("(a, b) { if (a < b && b > 0) { $('#foldercontent').append('<djm thumb=\"' + a + '\"></djm>'); } }\n");
+        }
+        sb.append("</script>\n</head>\n<body>\n<!-- header -->\n<div id=\"header\"><ul class=\"nav\">\n");
+        for (int i = 0; i < 20; i++) {
+            sb.append("<li><a href=\"/?tag=").append(i).append("&amp;page=1\" title=\"Tag ").append(i).append("\">Tag ").append(i).append("</a></li>\n");
+        }
+        sb.append("</ul></div>\n<div id=\"gallery\"><h2>").append(book.name).append("</h2>\n")
+                .append("<div id=\"foldercontent\" class=\"folder\">\n");
+        for (Page page : book.pages) {
+            sb.append("<djm thumb=\"").append(page.preview).append("\" file=\"").append(page.href).append("\"></djm>\n");
+        }
+        sb.append("</div>\n</div>\n<div id=\"footer\"><p>&copy; doujin-moe</p>\n");
+        for (int i = 0; i < 20; i++) {
+            sb.append("<div class=\"related\"><a href=\"/").append(i).append("\"><img src=\"/t/").append(i).append(".jpg\" alt=\"\"></a></div>\n");
+        }
+        sb.append("</div>\n</body>\n</html>\n");
+        return sb.toString();
+    }
+
+    private static String token(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = TOKEN_CHARS[random.nextInt(TOKEN_CHARS.length)];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,97 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.fanhl.doujinMoe.api.form.NewestForm;
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.util.GsonUtil;
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 反射的Gson 与 GsonUtil(手写TypeAdapter) 的比较,以及先读成String再解析与直接从流解析的比较.
+ * 用 -prof gc 运行可以看到每次操作分配的内存.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonAdapterBenchmark {
+    /*newest一页的书籍数*/
+    @Param({"40"})
+    public int bookCount;
+
+    private final Gson reflectionGson = new Gson();
+
+    private byte[] newestJson;
+    private String bookJson;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException {
+        NewestForm form = new NewestForm();
+        form.success = true;
+        form.message = "";
+        form.newest = new ArrayList<>();
+        for (int i = 0; i < bookCount; i++) {
+            Book book = Fixtures.book(i, 0);
+            book.recent = null;
+            book.status = null;
+            book.pages = null;
+            form.newest.add(book);
+        }
+        newestJson = reflectionGson.toJson(form).getBytes("UTF-8");
+        bookJson = reflectionGson.toJson(Fixtures.book(1, 200));
+    }
+
+    @Benchmark
+    public NewestForm newestReflectionString() throws UnsupportedEncodingException {
+        return reflectionGson.fromJson(new String(newestJson, "UTF-8"), NewestForm.class);
+    }
+
+    @Benchmark
+    public NewestForm newestAdapterString() throws UnsupportedEncodingException {
+        return GsonUtil.obj(new String(newestJson, "UTF-8"), NewestForm.class);
+    }
+
+    @Benchmark
+    public NewestForm newestAdapterStream() throws UnsupportedEncodingException {
+        return GsonUtil.obj(new InputStreamReader(new ByteArrayInputStream(newestJson), "UTF-8"), NewestForm.class);
+    }
+
+    @Benchmark
+    public Book bookReflection() {
+        return reflectionGson.fromJson(bookJson, Book.class);
+    }
+
+    @Benchmark
+    public Book bookAdapter() {
+        return GsonUtil.obj(bookJson, Book.class);
+    }
+
+    @Benchmark
+    public String bookWriteReflection() {
+        return reflectionGson.toJson(Fixtures.book(1, 0));
+    }
+
+    @Benchmark
+    public String bookWriteAdapter() {
+        return GsonUtil.json(Fixtures.book(1, 0));
+    }
+}
@@ -0,0 +1,109 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.fanhl.doujinMoe.model.Page;
+import com.fanhl.doujinMoe.util.DjmExtractor;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 详细页的解析:Jsoup生成DOM后select(原来的做法) 与 DjmExtractor 边读边解析 的比较.
+ * all:取出全部page;first:取得第一个page为止(开始显示预览图前的等待).
+ * 用 -prof gc 运行可以看到每次操作分配的内存.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlExtractBenchmark {
+    private static final String URL = "http://www.doujin-moe.us/abcdef";
+
+    /*取得第一个page后中断解析*/
+    private static final RuntimeException STOP = new RuntimeException("stop", null, false, false) {
+    };
+
+    @Param({"40", "200"})
+    public int pageCount;
+
+    private byte[] html;
+
+    @Setup
+    public void setup() throws IOException {
+        html = Fixtures.detailHtml(Fixtures.book(1, pageCount)).getBytes("UTF-8");
+        //两种做法的结果要一致
+        List<Page> dom    = allDom();
+        List<Page> stream = allStream();
+        if (dom.size() != pageCount || stream.size() != pageCount) throw new IllegalStateException("page数不一致");
+        for (int i = 0; i < pageCount; i++) {
+            if (!dom.get(i).href.equals(stream.get(i).href)) throw new IllegalStateException("第" + i + "个page不一致");
+        }
+    }
+
+    @Benchmark
+    public List<Page> allDom() throws IOException {
+        Document   document = Jsoup.parse(new ByteArrayInputStream(html), null, URL);
+        Elements   djms     = document.getElementById("foldercontent").select("djm");
+        List<Page> pages    = new ArrayList<>(djms.size());
+        for (Element djm : djms) {
+            Page page = new Page();
+            page.preview = djm.attr("thumb");
+            page.href = djm.attr("file");
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    @Benchmark
+    public List<Page> allStream() throws IOException {
+        List<Page> pages = new ArrayList<>();
+        DjmExtractor.extract(new InputStreamReader(new ByteArrayInputStream(html), "UTF-8"), "foldercontent", (thumb, file) -> {
+            Page page = new Page();
+            page.preview = thumb;
+            page.href = file;
+            pages.add(page);
+        });
+        return pages;
+    }
+
+    @Benchmark
+    public String firstDom() throws IOException {
+        Document document = Jsoup.parse(new ByteArrayInputStream(html), null, URL);
+        return document.getElementById("foldercontent").select("djm").first().attr("thumb");
+    }
+
+    @Benchmark
+    public String firstStream() throws IOException {
+        String[] first = new String[1];
+        try {
+            DjmExtractor.extract(new InputStreamReader(new ByteArrayInputStream(html), "UTF-8"), "foldercontent", (thumb, file) -> {
+                first[0] = thumb;
+                throw STOP;
+            });
+        } catch (RuntimeException e) {
+            if (e != STOP) throw e;
+        }
+        return first[0];
+    }
+}
@@ -0,0 +1,93 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.util.ColorGenerator;
+import com.fanhl.doujinMoe.util.NumberUtil;
+import com.fanhl.doujinMoe.util.PageNameUtil;
+import com.fanhl.util.TextUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个page,每本书都要调用的小方法:page文件名(DecimalFormat,正则split),
+ * 封面占位图的文字和颜色.结果是每个item的时间(ns),与 jmh-baseline.json 比较.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemPathBenchmark {
+    private static final int PAGE_COUNT = 200;
+    private static final int BOOK_COUNT = 64;
+
+    private static final String[] TITLE_PREFIXES = {"", "[", "【", "(C89) [", "《"};
+
+    private Book     book;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        book = Fixtures.book(1, PAGE_COUNT);
+        names = new String[BOOK_COUNT];
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            //网站的书名多以[サークル名]开头,也有中文和全角括号的
+            String name = Fixtures.book(i, 0).name;
+            names[i] = TITLE_PREFIXES[i % TITLE_PREFIXES.length] + (i % 2 == 0 ? name.substring(1) : "同人誌 " + name);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_COUNT)
+    public void pageName(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            blackhole.consume(PageNameUtil.getPageName(book, i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_COUNT)
+    public void extension(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            blackhole.consume(PageNameUtil.getExtension(book.pages.get(i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_COUNT)
+    public void formatPrefix(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            blackhole.consume(NumberUtil.formatPrefix(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BOOK_COUNT)
+    public void firstCharacter(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(TextUtil.getFirstCharacter(name));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BOOK_COUNT)
+    public void color(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(ColorGenerator.MATERIAL.getColor(name));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.util.BookBinaryFormat;
+import com.fanhl.doujinMoe.util.FileUtil;
+import com.fanhl.doujinMoe.util.LibraryScanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重建索引时扫描书库:单线程逐个读取(原来的做法) 与 LibraryScanner 的比较
+ * <p>
+ * 书库生成在tmpfs(/dev/shm)上,没有时用java.io.tmpdir.threads=0 为单线程的原做法.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryScanBenchmark {
+    private static final String BIN_FILENAME  = "book.bin";
+    private static final String JSON_FILENAME = "book.json";
+    private static final String IMAGE_FOLDER  = "images";
+    /*每本书的图片文件数*/
+    private static final int    IMAGES_PER_BOOK = 5;
+
+    @Param({"3000"})
+    public int bookCount;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    private File libraryDir;
+
+    @Setup
+    public void setup() throws IOException {
+        File shm = new File("/dev/shm");
+        File root = shm.isDirectory() && shm.canWrite() ? shm : new File(System.getProperty("java.io.tmpdir"));
+        libraryDir = new File(root, "djm-scan-" + System.nanoTime());
+        if (!libraryDir.mkdirs()) throw new IOException("无法生成书库:" + libraryDir);
+
+        byte[] image = new byte[1024];
+        for (int i = 0; i < bookCount; i++) {
+            Book book    = Fixtures.book(i, 10 + i % 50);
+            File bookDir = new File(libraryDir, book.token);
+            File images  = new File(bookDir, IMAGE_FOLDER);
+            if (!images.mkdirs()) throw new IOException("无法生成书籍目录:" + bookDir);
+            if (!BookBinaryFormat.write(new File(bookDir, BIN_FILENAME), book)) throw new IOException("无法写入:" + bookDir);
+            for (int j = 0; j < IMAGES_PER_BOOK; j++) {
+                FileUtil.writeFileAtomic(new File(images, String.format("%04d.jpg", j + 1)), image);
+            }
+        }
+        System.out.println("\n[library] " + libraryDir + " books=" + bookCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtil.deleteDirectory(libraryDir);
+    }
+
+    @Benchmark
+    public int scan() {
+        if (threads == 0) return scanSequential().size();
+        return new LibraryScanner(threads, BIN_FILENAME, JSON_FILENAME, IMAGE_FOLDER).scan(libraryDir).size();
+    }
+
+    /**
+     * 原来的做法:排序后逐个读取摘要,再逐个统计图片大小
+     */
+    private List<Book> scanSequential() {
+        List<Book> list = new ArrayList<>();
+        File[]     dirs = libraryDir.listFiles(File::isDirectory);
+        if (dirs == null) return list;
+        Arrays.sort(dirs, (lhs, rhs) -> lhs.getName().compareTo(rhs.getName()));
+
+        long size = 0;
+        for (File dir : dirs) {
+            Book book = BookBinaryFormat.readSummary(new File(dir, BIN_FILENAME));
+            if (book != null) list.add(book);
+            File[] files = new File(dir, IMAGE_FOLDER).listFiles();
+            if (files == null) continue;
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        if (size < 0) throw new IllegalStateException();
+        return list;
+    }
+}
@@ -0,0 +1,79 @@
+package com.fanhl.doujinMoe.benchmark;
+
+import com.fanhl.doujinMoe.model.Book;
+import com.fanhl.doujinMoe.model.Page;
+import com.fanhl.doujinMoe.util.CompactPageList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 比较 ArrayList&lt;Page&gt; 与 CompactPageList 在模拟书库(5000本)中占用的堆内存
+ * <p>
+ * 运行: ./gradlew :benchmark:pageMemoryReport
+ */
+public class PageMemoryReport {
+    private static final int BOOK_COUNT     = 5000;
+    private static final int MIN_PAGE_COUNT = 10;
+    private static final int MAX_PAGE_COUNT = 60;
+
+    public static void main(String[] args) {
+        int bookCount = args.length > 0 ? Integer.parseInt(args[0]) : BOOK_COUNT;
+
+        long         baseline = usedMemory();
+        List<Book>   library  = createLibrary(bookCount, false);
+        long         plain    = usedMemory() - baseline;
+        int          pages    = countPages(library);
+        library = null;
+
+        baseline = usedMemory();
+        library = createLibrary(bookCount, true);
+        long compact = usedMemory() - baseline;
+
+        System.out.println("books=" + bookCount + " pages=" + pages);
+        System.out.println(String.format("ArrayList<Page>  : %8.2f MB (%5.1f B/page)", plain / 1048576f, (float) plain / pages));
+        System.out.println(String.format("CompactPageList  : %8.2f MB (%5.1f B/page)", compact / 1048576f, (float) compact / pages));
+        System.out.println(String.format("saved            : %8.2f MB (%.0f%%)", (plain - compact) / 1048576f, 100f * (plain - compact) / plain));
+        //保证测量时书库仍被引用
+        if (library.size() != bookCount) throw new IllegalStateException();
+    }
+
+    private static List<Book> createLibrary(int bookCount, boolean compact) {
+        Random     random  = new Random(0);
+        List<Book> library = new ArrayList<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            Book book = Fixtures.book(i, MIN_PAGE_COUNT + random.nextInt(MAX_PAGE_COUNT - MIN_PAGE_COUNT + 1));
+            if (compact) {
+                ((CompactPageList) book.pages).trimToSize();
+            } else {
+                //get生成的Page及url都是新的对象,与从json解析出来时相同
+                ArrayList<Page> pages = new ArrayList<>(book.pages);
+                book.pages = pages;
+            }
+            library.add(book);
+        }
+        return library;
+    }
+
+    private static int countPages(List<Book> library) {
+        int count = 0;
+        for (Book book : library) {
+            count += book.pages.size();
+        }
+        return count;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
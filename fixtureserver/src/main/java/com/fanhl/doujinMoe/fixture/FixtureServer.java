@@ -0,0 +1,451 @@
+package com.fanhl.doujinMoe.fixture;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 网站的本地替身
+ * <p>
+ * 与网站相同的路径和格式:首页(Set-Cookie PHPSESSID),ajax/newest.php,best,详细页(/token),
+ * 以及static/下的封面,缩略图和page原图(内容是合成的,大小可以设置).
+ * newest第一页是录下来的响应(fixtures/newest.json),之后的页和详细页按页码,token生成,每次内容相同.
+ * 没有有效会话时与网站一样返回success=false或没有内容的页面;响应带ETag,支持If-None-Match.
+ * <p>
+ * 网站用 127.0.0.1,图片用 localhost,在客户端看来是两个host.
+ * 延迟,带宽,出错率可以随时修改,用于测试重试和负载测试.
+ */
+public class FixtureServer {
+    public static final String SESSION_COOKIE = "PHPSESSID";
+
+    private static final String STATIC_PATH = "/static/";
+    private static final int    CHUNK_SIZE  = 8 * 1024;
+
+    private final HttpServer      server;
+    private final ExecutorService executor;
+
+    /*首个字节前的延迟*/
+    private volatile long   latency;
+    /*每秒字节数,0为不限制*/
+    private volatile long   bandwidth;
+    /*返回500的比例*/
+    private volatile double errorRate;
+    /*每本书的page数*/
+    private volatile int    pageCount    = 20;
+    /*合成图片的字节数*/
+    private volatile int    imageSize    = 64 * 1024;
+    /*newest有内容的页数,之后的页返回空列表*/
+    private volatile int    newestPages  = 5;
+    /*newest每页的书数(生成的页)*/
+    private volatile int    booksPerPage = 20;
+
+    private final Random                     random          = new Random(1);
+    private final Set<String>                sessions        = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger              sessionSequence = new AtomicInteger();
+    private final Map<String, AtomicInteger> requests        = new ConcurrentHashMap<>();
+
+    /**
+     * 在空闲的端口上启动
+     *
+     * @return
+     * @throws IOException
+     */
+    public static FixtureServer start() throws IOException {
+        return new FixtureServer(0);
+    }
+
+    public FixtureServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FixtureServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public void shutdown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * 网站的地址(DouJinMoeUrl.setBaseUrls的homeUrl)
+     *
+     * @return
+     */
+    public String homeUrl() {
+        return "http://127.0.0.1:" + port() + "/";
+    }
+
+    /**
+     * 图片服务器的地址(DouJinMoeUrl.setBaseUrls的staticUrl)
+     *
+     * @return
+     */
+    public String staticUrl() {
+        return "http://localhost:" + port() + STATIC_PATH;
+    }
+
+    public FixtureServer setLatency(long latency, TimeUnit unit) {
+        this.latency = unit.toMillis(latency);
+        return this;
+    }
+
+    public FixtureServer setBandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+        return this;
+    }
+
+    public FixtureServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public FixtureServer setPageCount(int pageCount) {
+        this.pageCount = pageCount;
+        return this;
+    }
+
+    public FixtureServer setImageSize(int imageSize) {
+        this.imageSize = imageSize;
+        return this;
+    }
+
+    public FixtureServer setNewestPages(int newestPages, int booksPerPage) {
+        this.newestPages = newestPages;
+        this.booksPerPage = booksPerPage;
+        return this;
+    }
+
+    /**
+     * 让已发出的会话全部失效(客户端下次请求时被拒绝)
+     */
+    public void expireSessions() {
+        sessions.clear();
+    }
+
+    /**
+     * 收到的请求数
+     *
+     * @param pathPrefix 路径的开头,如 "/ajax/newest.php","/static/p-"
+     * @return
+     */
+    public int requestCount(String pathPrefix) {
+        int count = 0;
+        for (Map.Entry<String, AtomicInteger> entry : requests.entrySet()) {
+            if (entry.getKey().startsWith(pathPrefix)) count += entry.getValue().get();
+        }
+        return count;
+    }
+
+    /**
+     * 发出的会话数(访问首页的次数)
+     *
+     * @return
+     */
+    public int sessionCount() {
+        return sessionSequence.get();
+    }
+
+    /**
+     * 生成的书籍的page原图地址
+     *
+     * @param token
+     * @param index
+     * @return
+     */
+    public String pageUrl(String token, int index) {
+        return staticUrl() + "p-" + token + "-" + index + ".jpg";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            count(path);
+            byte[] requestBody = readAll(exchange.getRequestBody());
+            sleep(latency);
+
+            if (errorRate > 0 && nextDouble() < errorRate) {
+                send(exchange, 500, "text/plain", bytes("fixture error"));
+                return;
+            }
+
+            if (path.equals("/")) {
+                handleHome(exchange);
+            } else if (path.startsWith(STATIC_PATH)) {
+                handleImage(exchange, path.substring(STATIC_PATH.length()));
+            } else if (path.equals("/ajax/newest.php")) {
+                handleNewest(exchange, form(requestBody));
+            } else if (path.equals("/best")) {
+                handleBest(exchange, form(requestBody));
+            } else if (path.length() > 1 && path.indexOf('/', 1) < 0) {
+                handleDetail(exchange, path.substring(1));
+            } else {
+                send(exchange, 404, "text/plain", bytes("not found"));
+            }
+        } catch (IOException | RuntimeException e) {
+            //客户端取消等
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleHome(HttpExchange exchange) throws IOException {
+        String session = "fx" + sessionSequence.incrementAndGet();
+        sessions.add(session);
+        exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + session + "; path=/");
+        send(exchange, 200, "text/html; charset=utf-8", bytes("<html><body>home</body></html>"));
+    }
+
+    private void handleNewest(HttpExchange exchange, Map<String, String> form) throws IOException {
+        if (!hasSession(exchange)) {
+            send(exchange, 200, "application/json", bytes("{\"success\":false,\"message\":\"session\"}"));
+            return;
+        }
+        int    page = parseInt(form.get("get"), 1);
+        byte[] body;
+        if (page == 1) {
+            body = resource("newest.json");
+        } else {
+            StringBuilder sb    = new StringBuilder("{\"success\":true,\"message\":\"\",\"newest\":[");
+            int           count = page <= newestPages ? booksPerPage : 0;
+            for (int i = 0; i < count; i++) {
+                if (i > 0) sb.append(',');
+                String token = bookToken(page, i);
+                sb.append("{\"token\":\"").append(token)
+                        .append("\",\"name\":\"Fixture Book ").append(page).append('-').append(i)
+                        .append("\",\"count\":\"").append(pageCount)
+                        .append("\",\"rating\":\"4.").append(i % 10).append("0")
+                        .append("\",\"date\":\"Nov ").append(1 + i % 28).append("th 2015\"}");
+            }
+            body = bytes(sb.append("]}").toString());
+        }
+        sendWithEtag(exchange, "application/json", body);
+    }
+
+    private void handleBest(HttpExchange exchange, Map<String, String> form) throws IOException {
+        if (!hasSession(exchange)) {
+            send(exchange, 200, "text/html; charset=utf-8", bytes("<html><body><div id=\"login\"></div></body></html>"));
+            return;
+        }
+        int           page = parseInt(form.get("page"), 1);
+        StringBuilder djms = new StringBuilder();
+        for (int i = 0; i < booksPerPage; i++) {
+            String token = bookToken(100 + page, i);
+            djms.append("<djm thumb=\"").append(staticUrl()).append("f-").append(token).append(".jpg\" file=\"")
+                    .append(homeUrl()).append(token).append("\"></djm>\n");
+        }
+        sendWithEtag(exchange, "text/html; charset=utf-8", bytes(text("best.html").replace("{{books}}", djms)));
+    }
+
+    private void handleDetail(HttpExchange exchange, String token) throws IOException {
+        if (!hasSession(exchange)) {
+            send(exchange, 200, "text/html; charset=utf-8", bytes("<html><body><div id=\"login\"></div></body></html>"));
+            return;
+        }
+        StringBuilder djms = new StringBuilder();
+        for (int i = 0; i < pageCount; i++) {
+            djms.append("<djm thumb=\"").append(staticUrl()).append("t-").append(token).append('-').append(i)
+                    .append(".jpg\" file=\"").append(pageUrl(token, i)).append("\"></djm>\n");
+        }
+        String html = text("detail.html").replace("{{title}}", "Fixture " + token).replace("{{pages}}", djms);
+        sendWithEtag(exchange, "text/html; charset=utf-8", bytes(html));
+    }
+
+    /**
+     * 合成的图片:JPEG的文件头后面是由文件名决定的字节
+     */
+    private void handleImage(HttpExchange exchange, String name) throws IOException {
+        byte[] image = new byte[Math.max(4, imageSize)];
+        new Random(name.hashCode()).nextBytes(image);
+        image[0] = (byte) 0xFF;
+        image[1] = (byte) 0xD8;
+        image[image.length - 2] = (byte) 0xFF;
+        image[image.length - 1] = (byte) 0xD9;
+        send(exchange, 200, "image/jpeg", image);
+    }
+
+    private boolean hasSession(HttpExchange exchange) {
+        for (String cookie : exchange.getRequestHeaders().getOrDefault("Cookie", Collections.emptyList())) {
+            for (String pair : cookie.split(";")) {
+                String[] parts = pair.trim().split("=", 2);
+                if (parts.length == 2 && parts[0].equals(SESSION_COOKIE) && sessions.contains(parts[1])) return true;
+            }
+        }
+        return false;
+    }
+
+    private void sendWithEtag(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        send(exchange, 200, contentType, body);
+    }
+
+    /**
+     * 按设置的带宽分块写出
+     */
+    private void send(HttpExchange exchange, int code, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(code, head ? -1 : body.length);
+        if (head) return;
+
+        OutputStream out   = exchange.getResponseBody();
+        long         start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, body.length - offset);
+            out.write(body, offset, length);
+            out.flush();
+            long limit = bandwidth;
+            if (limit > 0) {
+                long due = start + (offset + length) * 1000000000L / limit;
+                sleep((due - System.nanoTime()) / 1000000);
+            }
+        }
+        out.close();
+    }
+
+    private void count(String path) {
+        AtomicInteger counter = requests.get(path);
+        if (counter == null) {
+            AtomicInteger created = new AtomicInteger();
+            counter = requests.putIfAbsent(path, created);
+            if (counter == null) counter = created;
+        }
+        counter.incrementAndGet();
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    /**
+     * 生成的书籍token(8个字符,与网站的形式相同)
+     */
+    private static String bookToken(int page, int index) {
+        char[]        chars  = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+        Random        random = new Random(page * 10007L + index);
+        StringBuilder sb     = new StringBuilder(8);
+        for (int i = 0; i < 8; i++) {
+            sb.append(chars[random.nextInt(chars.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, String> form(byte[] body) throws UnsupportedEncodingException {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : new String(body, "UTF-8").split("&")) {
+            String[] parts = pair.split("=", 2);
+            if (parts.length == 2) form.put(URLDecoder.decode(parts[0], "UTF-8"), URLDecoder.decode(parts[1], "UTF-8"));
+        }
+        return form;
+    }
+
+    private static int parseInt(String s, int defaultValue) {
+        try {
+            return s == null ? defaultValue : Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        InputStream in = FixtureServer.class.getResourceAsStream("/fixtures/" + name);
+        if (in == null) throw new IOException("没有fixture:" + name);
+        try {
+            return readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String text(String name) throws IOException {
+        return new String(resource(name), "UTF-8");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out    = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[CHUNK_SIZE];
+        int                   n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 单独启动: java FixtureServer [port] [latency=毫秒] [bandwidth=字节/秒] [errorRate=0~1] [imageSize=字节] [pageCount=n]
+     * <p>
+     * port为0时使用空闲的端口,启动后输出的地址可供其它进程读取
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 && args[0].indexOf('=') < 0 ? Integer.parseInt(args[0]) : 8089;
+
+        FixtureServer server = new FixtureServer(port);
+        for (String arg : args) {
+            int equal = arg.indexOf('=');
+            if (equal < 0) continue;
+            String key   = arg.substring(0, equal);
+            String value = arg.substring(equal + 1);
+            if (key.equals("latency")) {
+                server.setLatency(Long.parseLong(value), TimeUnit.MILLISECONDS);
+            } else if (key.equals("bandwidth")) {
+                server.setBandwidth(Long.parseLong(value));
+            } else if (key.equals("errorRate")) {
+                server.setErrorRate(Double.parseDouble(value));
+            } else if (key.equals("imageSize")) {
+                server.setImageSize(Integer.parseInt(value));
+            } else if (key.equals("pageCount")) {
+                server.setPageCount(Integer.parseInt(value));
+            } else {
+                throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+        System.out.println("home:   " + server.homeUrl());
+        System.out.println("static: " + server.staticUrl());
+    }
+}